@@ -0,0 +1,158 @@
+package com.esri.hadoop.examples;
+
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OperationsPerInvocation;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import com.esri.core.geometry.Envelope2D;
+import com.esri.core.geometry.Geometry;
+import com.esri.core.geometry.MultiPath;
+import com.esri.core.geometry.OperatorGeneralize;
+import com.esri.core.geometry.Point;
+import com.esri.core.geometry.SpatialReference;
+import com.esri.json.EsriFeatureClass;
+
+/**
+ * MapperClass.queryQuadTree on random points over the extent of california-counties.json, in points
+ * per second.  Polygon complexity is varied by generalizing the counties, and the point test is either
+ * GeometryEngine.contains or PreparedPolygon, as with sample.features.accelerate, behind an optional raster
+ * of each polygon, as with sample.features.raster.  locateBlocks runs the
+ * same points through PointBlockLocator, in blocks as with sample.mapper.block.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class QueryQuadTreeBenchmark {
+
+	/**
+	 * Path of the counties of the aggregation sample, relative to samples/benchmarks
+	 */
+	static final String COUNTIES = System.getProperty("sample.counties", "../data/counties-data/california-counties.json");
+
+	static final int COUNT = 10000;
+	static final int BLOCK = 2000;
+
+	/**
+	 * Maximum deviation in degrees of the generalized counties from the originals; 0 for the originals
+	 */
+	@Param({"0", "0.001", "0.01"})
+	public double maxDeviation;
+
+	@Param({"false", "true"})
+	public boolean accelerate;
+
+	/**
+	 * Cells along the longer side of the raster of each polygon; 0 for none
+	 */
+	@Param({"0", "64"})
+	public int raster;
+
+	final MapperClass mapper = new MapperClass();
+	final Point point = new Point();
+	double[] xs, ys;
+	PointBlockLocator locator;
+	final double[] blockXs = new double[BLOCK], blockYs = new double[BLOCK];
+	int[] located;
+
+	@Setup
+	public void setup() throws IOException {
+		EsriFeatureClass featureClass;
+		InputStream iStream = new FileInputStream(COUNTIES);
+		try {
+			featureClass = EsriFeatureClass.fromJson(iStream);
+		} finally {
+			iStream.close();
+		}
+
+		int count = featureClass.features.length, vertices = 0;
+		Geometry[] geometries = new Geometry[count];
+		String[] labels = new String[count];
+		for (int i = 0; i < count; i++) {
+			Geometry geometry = featureClass.features[i].geometry;
+			geometries[i] = maxDeviation > 0 ? OperatorGeneralize.local().execute(geometry, maxDeviation, true, null) : geometry;
+			vertices += ((MultiPath)geometries[i]).getPointCount();
+			labels[i] = String.valueOf(featureClass.features[i].attributes.get("NAME"));
+		}
+		System.out.printf("%n%d counties of %d vertices%n", count, vertices);
+
+		mapper.features = FeatureIndex.fromFeatures(geometries, labels, count);
+		mapper.spatialReference = SpatialReference.create(4326);
+		mapper.buildQuadTree();
+		if (accelerate) {
+			mapper.preparePolygons();
+		}
+		if (raster > 0) {
+			mapper.buildRasters(raster);
+			double boundary = 0;
+			for (PolygonRaster polygonRaster : mapper.rasters) {
+				boundary += polygonRaster.getBoundaryFraction();
+			}
+			System.out.printf("%.1f%% of raster cells on a boundary%n", 100 * boundary / count);
+		}
+		locator = new PointBlockLocator(mapper.features, mapper.quadTree, mapper.preparedPolygons, mapper.rasters,
+										mapper.spatialReference);
+
+		// random points over the extent of all features
+		Envelope2D extent = new Envelope2D();
+		extent.setEmpty();
+		Envelope2D envelope = new Envelope2D();
+		for (int i = 0; i < count; i++) {
+			mapper.features.queryEnvelope(i, envelope);
+			extent.merge(envelope);
+		}
+		Point lowerLeft = extent.getLowerLeft();
+		Random random = new Random(42);
+		xs = new double[COUNT];
+		ys = new double[COUNT];
+		for (int i = 0; i < COUNT; i++) {
+			xs[i] = lowerLeft.getX() + random.nextDouble() * extent.getWidth();
+			ys[i] = lowerLeft.getY() + random.nextDouble() * extent.getHeight();
+		}
+	}
+
+	@Benchmark
+	@OperationsPerInvocation(COUNT)
+	public long queryQuadTree() {
+		long sum = 0;
+		for (int i = 0; i < COUNT; i++) {
+			point.setXY(xs[i], ys[i]);
+			sum += mapper.queryQuadTree(point);
+		}
+		return sum;
+	}
+
+	@Benchmark
+	@OperationsPerInvocation(COUNT)
+	public long locateBlocks() {
+		long sum = 0;
+		for (int start = 0; start < COUNT; start += BLOCK) {
+			// copied, as the mapper buffers each block of points
+			System.arraycopy(xs, start, blockXs, 0, BLOCK);
+			System.arraycopy(ys, start, blockYs, 0, BLOCK);
+			located = locator.locate(blockXs, blockYs, BLOCK, located);
+			for (int i = 0; i < BLOCK; i++) {
+				sum += located[i];
+			}
+		}
+		return sum;
+	}
+
+}
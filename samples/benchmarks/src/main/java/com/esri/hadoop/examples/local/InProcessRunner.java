@@ -0,0 +1,437 @@
+package com.esri.hadoop.examples.local;
+
+import java.io.IOException;
+import java.io.PrintStream;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.Future;
+
+import org.apache.hadoop.conf.Configuration;
+import org.apache.hadoop.fs.FileStatus;
+import org.apache.hadoop.fs.FileSystem;
+import org.apache.hadoop.fs.Path;
+import org.apache.hadoop.io.RawComparator;
+import org.apache.hadoop.io.serializer.SerializationFactory;
+import org.apache.hadoop.io.serializer.Serializer;
+import org.apache.hadoop.mapred.RawKeyValueIterator;
+import org.apache.hadoop.mapreduce.Counter;
+import org.apache.hadoop.mapreduce.CounterGroup;
+import org.apache.hadoop.mapreduce.Counters;
+import org.apache.hadoop.mapreduce.InputFormat;
+import org.apache.hadoop.mapreduce.InputSplit;
+import org.apache.hadoop.mapreduce.Job;
+import org.apache.hadoop.mapreduce.JobContext;
+import org.apache.hadoop.mapreduce.JobID;
+import org.apache.hadoop.mapreduce.Mapper;
+import org.apache.hadoop.mapreduce.OutputCommitter;
+import org.apache.hadoop.mapreduce.OutputFormat;
+import org.apache.hadoop.mapreduce.Partitioner;
+import org.apache.hadoop.mapreduce.RecordReader;
+import org.apache.hadoop.mapreduce.RecordWriter;
+import org.apache.hadoop.mapreduce.Reducer;
+import org.apache.hadoop.mapreduce.StatusReporter;
+import org.apache.hadoop.mapreduce.TaskAttemptContext;
+import org.apache.hadoop.mapreduce.TaskAttemptID;
+import org.apache.hadoop.mapreduce.lib.input.FileInputFormat;
+import org.apache.hadoop.util.GenericOptionsParser;
+import org.apache.hadoop.util.ReflectionUtils;
+
+import com.esri.hadoop.examples.AggregationSampleDriver;
+import com.esri.hadoop.examples.trip.TripCellDriver;
+import com.esri.hadoop.examples.trip.TripInCommonDriver;
+
+/**
+ * Runs a MapReduce job of the samples inside this JVM, on all the cores, without Hadoop daemons and
+ * without the spills to disk of the LocalJobRunner.  The input is cut into splits by the input format
+ * of the job, and the map tasks run on a fork-join pool; their output is partitioned, serialized and
+ * sorted in memory by the partitioner and sort comparator of the job, and combined if the job has a
+ * combiner.  The reduce tasks, also on the pool, merge the sorted map outputs and group them by the
+ * grouping comparator, then write through the output format and committer of the job - so the output
+ * files are those of the Hadoop path, part-r-00000 and so on.
+ *
+ * Meant for local files of a size to fit in memory, as for iterating on the samples and for timing
+ * them end to end.
+ *
+ * Usage: InProcessRunner [generic options] aggregation|trip-cell|trip-in-common [arguments of the driver]
+ *
+ * Options
+ *  -D sample.local.threads=N   number of threads (default: number of processors)
+ *  -D mapred.max.split.size=B  largest split of the input in bytes (default: input size / 4 per thread)
+ *  -D mapred.reduce.tasks=N    number of reduce tasks and output files (default 1)
+ */
+public class InProcessRunner {
+
+	static final String THREADS = "sample.local.threads";
+	static final long MIN_SPLIT_SIZE = 1 << 20;
+
+	// the counters of the framework, under the group and names of Hadoop
+	static final String TASK_GROUP = "org.apache.hadoop.mapred.Task$Counter";
+
+	public static void main(String[] init_args) throws Exception {
+		Configuration config = new Configuration();
+		String[] args = new GenericOptionsParser(config, init_args).getRemainingArgs();
+		if (args.length < 1) {
+			print_usage();
+			throw new IllegalArgumentException();
+		}
+		String sample = args[0];
+		String[] jobArgs = Arrays.copyOfRange(args, 1, args.length);
+
+		Job job;
+		if (sample.equals("aggregation")) {
+			job = AggregationSampleDriver.createJob(config, jobArgs);
+		} else if (sample.equals("trip-cell")) {
+			job = TripCellDriver.createJob(config, jobArgs);
+		} else if (sample.equals("trip-in-common")) {
+			job = TripInCommonDriver.createJob(config, jobArgs);
+		} else {
+			print_usage();
+			throw new IllegalArgumentException("Unknown sample: " + sample);
+		}
+
+		InProcessRunner runner = new InProcessRunner(job.getConfiguration().getInt(THREADS, Runtime.getRuntime().availableProcessors()));
+		try {
+			runner.run(job);
+		} finally {
+			runner.shutdown();
+		}
+		if (sample.equals("trip-cell")) {
+			TripCellDriver.completeJob(job);
+		}
+		runner.printSummary(System.out);
+		if (sample.equals("aggregation")) {
+			AggregationSampleDriver.printSummary(runner.getCounters(), System.out);
+		} else if (sample.equals("trip-cell")) {
+			TripCellDriver.printSummary(runner.getCounters(), System.out);
+		} else {
+			TripInCommonDriver.printSummary(runner.getCounters(), System.out);
+		}
+	}
+
+	static void print_usage() {
+		System.out.println("***");
+		System.out.println("Usage: java -cp [classpath] com.esri.hadoop.examples.local.InProcessRunner [-D options] aggregation|trip-cell|trip-in-common [arguments of the driver]");
+		System.out.println("***");
+	}
+
+	private final ForkJoinPool pool;
+	private Counters counters = new Counters();
+	private long mapMillis, reduceMillis;
+	private int mapTasks, reduceTasks;
+
+	public InProcessRunner(int threads) {
+		pool = new ForkJoinPool(threads);
+	}
+
+	public void shutdown() {
+		pool.shutdown();
+	}
+
+	/**
+	 * @return counters of the last job run, summed over its tasks
+	 */
+	public Counters getCounters() {
+		return counters;
+	}
+
+	/**
+	 * Run the job to completion, committing its output
+	 */
+	public void run(Job job) throws Exception {
+		final Configuration conf = job.getConfiguration();
+		if (conf.get("mapred.max.split.size") == null) {
+			long splitSize = Math.max(MIN_SPLIT_SIZE, inputSize(job) / (4 * pool.getParallelism()));
+			conf.setLong("mapred.max.split.size", splitSize);
+		}
+		final JobID jobId = new JobID("inprocess", (int)(System.currentTimeMillis() / 1000 % 1000000));
+		final JobContext jobContext = new JobContext(conf, jobId);
+		counters = new Counters();
+
+		OutputFormat<?, ?> outputFormat = ReflectionUtils.newInstance(jobContext.getOutputFormatClass(), conf);
+		outputFormat.checkOutputSpecs(jobContext);
+		OutputCommitter jobCommitter = outputFormat.getOutputCommitter(new TaskAttemptContext(conf, new TaskAttemptID()));
+		jobCommitter.setupJob(jobContext);
+
+		InputFormat<?, ?> inputFormat = ReflectionUtils.newInstance(jobContext.getInputFormatClass(), conf);
+		List<InputSplit> splits = inputFormat.getSplits(jobContext);
+		final int partitions = Math.max(1, jobContext.getNumReduceTasks());
+
+		// map, with the output of each task partitioned and sorted in memory
+		long start = System.currentTimeMillis();
+		List<Callable<RecordBuffer[]>> maps = new ArrayList<Callable<RecordBuffer[]>>();
+		for (int i = 0; i < splits.size(); i++) {
+			final InputSplit split = splits.get(i);
+			final TaskAttemptID attempt = new TaskAttemptID(jobId.getJtIdentifier(), jobId.getId(), true, i, 0);
+			maps.add(new Callable<RecordBuffer[]>() {
+				public RecordBuffer[] call() throws Exception {
+					return runMap(conf, jobContext, attempt, split, partitions);
+				}
+			});
+		}
+		List<RecordBuffer[]> mapOutputs = invokeAll(maps);
+		mapMillis = System.currentTimeMillis() - start;
+		mapTasks = splits.size();
+
+		// reduce, each partition merged from the outputs of all the maps
+		start = System.currentTimeMillis();
+		List<Callable<Void>> reduces = new ArrayList<Callable<Void>>();
+		for (int p = 0; p < partitions; p++) {
+			final RecordBuffer[] runs = new RecordBuffer[mapOutputs.size()];
+			for (int m = 0; m < runs.length; m++) {
+				runs[m] = mapOutputs.get(m)[p];
+			}
+			final TaskAttemptID attempt = new TaskAttemptID(jobId.getJtIdentifier(), jobId.getId(), false, p, 0);
+			reduces.add(new Callable<Void>() {
+				public Void call() throws Exception {
+					runReduce(conf, jobContext, attempt, runs);
+					return null;
+				}
+			});
+		}
+		invokeAll(reduces);
+		reduceMillis = System.currentTimeMillis() - start;
+		reduceTasks = partitions;
+
+		jobCommitter.cleanupJob(jobContext);
+	}
+
+	private <T> List<T> invokeAll(List<Callable<T>> tasks) throws Exception {
+		List<T> results = new ArrayList<T>(tasks.size());
+		for (Future<T> future : pool.invokeAll(tasks)) {
+			try {
+				results.add(future.get());
+			} catch (ExecutionException e) {
+				throw e.getCause() instanceof Exception ? (Exception)e.getCause() : e;
+			}
+		}
+		return results;
+	}
+
+	private static long inputSize(Job job) throws IOException {
+		long size = 0;
+		for (Path path : FileInputFormat.getInputPaths(job)) {
+			FileSystem fs = path.getFileSystem(job.getConfiguration());
+			FileStatus[] matches = fs.globStatus(path);
+			if (matches != null) {
+				for (FileStatus status : matches) {
+					size += fs.getContentSummary(status.getPath()).getLength();
+				}
+			}
+		}
+		return size;
+	}
+
+	@SuppressWarnings({"unchecked", "rawtypes"})
+	private RecordBuffer[] runMap(Configuration conf, JobContext jobContext, TaskAttemptID attempt,
+								  InputSplit split, int partitions) throws Exception {
+		final Counters taskCounters = new Counters();
+		StatusReporter reporter = new CountingReporter(taskCounters);
+		TaskAttemptContext taskContext = new TaskAttemptContext(conf, attempt);
+
+		RawComparator sortComparator = jobContext.getSortComparator();
+		final RecordBuffer[] buffers = new RecordBuffer[partitions];
+		final Serializer[] keySerializers = new Serializer[partitions], valueSerializers = new Serializer[partitions];
+		SerializationFactory serialization = new SerializationFactory(conf);
+		for (int p = 0; p < partitions; p++) {
+			buffers[p] = new RecordBuffer(sortComparator);
+			keySerializers[p] = serialization.getSerializer(jobContext.getMapOutputKeyClass());
+			keySerializers[p].open(buffers[p].getOutput());
+			valueSerializers[p] = serialization.getSerializer(jobContext.getMapOutputValueClass());
+			valueSerializers[p].open(buffers[p].getOutput());
+		}
+		final Partitioner partitioner = partitions > 1 ?
+			(Partitioner)ReflectionUtils.newInstance(jobContext.getPartitionerClass(), conf) : null;
+		final Counter outputRecords = taskCounters.findCounter(TASK_GROUP, "MAP_OUTPUT_RECORDS");
+		RecordWriter collector = new RecordWriter() {
+			public void write(Object key, Object value) throws IOException {
+				int p = partitioner == null ? 0 : partitioner.getPartition(key, value, buffers.length);
+				buffers[p].add(keySerializers[p], key, valueSerializers[p], value);
+				outputRecords.increment(1);
+			}
+
+			public void close(TaskAttemptContext context) { }
+		};
+
+		InputFormat inputFormat = ReflectionUtils.newInstance(jobContext.getInputFormatClass(), conf);
+		RecordReader reader = new CountingRecordReader(inputFormat.createRecordReader(split, taskContext),
+													   taskCounters.findCounter(TASK_GROUP, "MAP_INPUT_RECORDS"));
+		Mapper mapper = (Mapper)ReflectionUtils.newInstance(jobContext.getMapperClass(), conf);
+		Mapper.Context mapperContext = mapper.new Context(conf, attempt, reader, collector, null, reporter, split);
+		reader.initialize(split, mapperContext);
+		try {
+			mapper.run(mapperContext);
+		} finally {
+			reader.close();
+		}
+
+		Class<? extends Reducer<?, ?, ?, ?>> combinerClass = jobContext.getCombinerClass();
+		for (int p = 0; p < partitions; p++) {
+			buffers[p].sort();
+			if (combinerClass != null) {
+				buffers[p] = combine(conf, jobContext, attempt, combinerClass, buffers[p], reporter);
+			}
+		}
+		addCounters(taskCounters);
+		return buffers;
+	}
+
+	// run the combiner over the sorted output of a map, grouping by the sort comparator as Hadoop does
+	@SuppressWarnings({"unchecked", "rawtypes"})
+	private RecordBuffer combine(Configuration conf, JobContext jobContext, TaskAttemptID attempt,
+								 Class<? extends Reducer<?, ?, ?, ?>> combinerClass, RecordBuffer input,
+								 StatusReporter reporter) throws Exception {
+		RawComparator sortComparator = jobContext.getSortComparator();
+		final RecordBuffer output = new RecordBuffer(sortComparator);
+		SerializationFactory serialization = new SerializationFactory(conf);
+		final Serializer keySerializer = serialization.getSerializer(jobContext.getMapOutputKeyClass());
+		final Serializer valueSerializer = serialization.getSerializer(jobContext.getMapOutputValueClass());
+		keySerializer.open(output.getOutput());
+		valueSerializer.open(output.getOutput());
+		RecordWriter writer = new RecordWriter() {
+			public void write(Object key, Object value) throws IOException {
+				output.add(keySerializer, key, valueSerializer, value);
+			}
+
+			public void close(TaskAttemptContext context) { }
+		};
+
+		Reducer combiner = (Reducer)ReflectionUtils.newInstance(combinerClass, conf);
+		Counter groups = new Counters().findCounter(TASK_GROUP, "COMBINE_INPUT_GROUPS");  // not reported
+		Reducer.Context context = combiner.new Context(conf, attempt, input.iterator(), groups,
+													   reporter.getCounter(TASK_GROUP, "COMBINE_INPUT_RECORDS"),
+													   writer, null, reporter, sortComparator,
+													   jobContext.getMapOutputKeyClass(), jobContext.getMapOutputValueClass());
+		combiner.run(context);
+		reporter.getCounter(TASK_GROUP, "COMBINE_OUTPUT_RECORDS").increment(output.size());
+		return output;  // in the order of its input, so still sorted
+	}
+
+	@SuppressWarnings({"unchecked", "rawtypes"})
+	private void runReduce(Configuration conf, JobContext jobContext, TaskAttemptID attempt,
+						   RecordBuffer[] runs) throws Exception {
+		Counters taskCounters = new Counters();
+		StatusReporter reporter = new CountingReporter(taskCounters);
+		TaskAttemptContext taskContext = new TaskAttemptContext(conf, attempt);
+
+		OutputFormat outputFormat = ReflectionUtils.newInstance(jobContext.getOutputFormatClass(), conf);
+		OutputCommitter committer = outputFormat.getOutputCommitter(taskContext);
+		committer.setupTask(taskContext);
+		final RecordWriter output = outputFormat.getRecordWriter(taskContext);
+		final Counter outputRecords = taskCounters.findCounter(TASK_GROUP, "REDUCE_OUTPUT_RECORDS");
+		RecordWriter writer = new RecordWriter() {
+			public void write(Object key, Object value) throws IOException, InterruptedException {
+				output.write(key, value);
+				outputRecords.increment(1);
+			}
+
+			public void close(TaskAttemptContext context) throws IOException, InterruptedException {
+				output.close(context);
+			}
+		};
+
+		RawKeyValueIterator input = RecordBuffer.merge(jobContext.getSortComparator(), runs);
+		Reducer reducer = (Reducer)ReflectionUtils.newInstance(jobContext.getReducerClass(), conf);
+		Reducer.Context context = reducer.new Context(conf, attempt, input,
+													  taskCounters.findCounter(TASK_GROUP, "REDUCE_INPUT_GROUPS"),
+													  taskCounters.findCounter(TASK_GROUP, "REDUCE_INPUT_RECORDS"),
+													  writer, committer, reporter, jobContext.getGroupingComparator(),
+													  jobContext.getMapOutputKeyClass(), jobContext.getMapOutputValueClass());
+		try {
+			reducer.run(context);
+		} finally {
+			writer.close(taskContext);
+		}
+		if (committer.needsTaskCommit(taskContext)) {
+			committer.commitTask(taskContext);
+		}
+		addCounters(taskCounters);
+	}
+
+	private synchronized void addCounters(Counters taskCounters) {
+		counters.incrAllCounters(taskCounters);
+	}
+
+	/**
+	 * Print the counters and the time of the map and reduce phases of the last job run
+	 */
+	public void printSummary(PrintStream out) {
+		out.printf("Map: %d tasks in %d ms; reduce: %d tasks in %d ms; %d threads%n",
+				   mapTasks, mapMillis, reduceTasks, reduceMillis, pool.getParallelism());
+		for (CounterGroup group : counters) {
+			out.println("  " + group.getDisplayName());
+			for (Counter counter : group) {
+				out.println("    " + counter.getDisplayName() + "=" + counter.getValue());
+			}
+		}
+	}
+
+	/**
+	 * Counters of a task, in Counters of its own to be summed when the task is done
+	 */
+	static class CountingReporter extends StatusReporter {
+		private final Counters counters;
+
+		CountingReporter(Counters counters) {
+			this.counters = counters;
+		}
+
+		@Override
+		public Counter getCounter(Enum<?> name) {
+			return counters.findCounter(name);
+		}
+
+		@Override
+		public Counter getCounter(String group, String name) {
+			return counters.findCounter(group, name);
+		}
+
+		@Override
+		public void progress() { }
+
+		@Override
+		public void setStatus(String status) { }
+	}
+
+	/**
+	 * Counts the records read by a map task, as MapTask does
+	 */
+	static class CountingRecordReader<K, V> extends RecordReader<K, V> {
+		private final RecordReader<K, V> reader;
+		private final Counter inputRecords;
+
+		CountingRecordReader(RecordReader<K, V> reader, Counter inputRecords) {
+			this.reader = reader;
+			this.inputRecords = inputRecords;
+		}
+
+		@Override
+		public void initialize(InputSplit split, TaskAttemptContext context) throws IOException, InterruptedException {
+			reader.initialize(split, context);
+		}
+
+		@Override
+		public boolean nextKeyValue() throws IOException, InterruptedException {
+			boolean next = reader.nextKeyValue();
+			if (next)
+				inputRecords.increment(1);
+			return next;
+		}
+
+		@Override
+		public K getCurrentKey() throws IOException, InterruptedException { return reader.getCurrentKey(); }
+
+		@Override
+		public V getCurrentValue() throws IOException, InterruptedException { return reader.getCurrentValue(); }
+
+		@Override
+		public float getProgress() throws IOException, InterruptedException { return reader.getProgress(); }
+
+		@Override
+		public void close() throws IOException { reader.close(); }
+	}
+
+}
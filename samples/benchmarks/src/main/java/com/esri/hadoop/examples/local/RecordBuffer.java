@@ -0,0 +1,163 @@
+package com.esri.hadoop.examples.local;
+
+import java.io.IOException;
+import java.util.Arrays;
+import java.util.PriorityQueue;
+
+import org.apache.hadoop.io.DataInputBuffer;
+import org.apache.hadoop.io.DataOutputBuffer;
+import org.apache.hadoop.io.RawComparator;
+import org.apache.hadoop.io.serializer.Serializer;
+import org.apache.hadoop.mapred.RawKeyValueIterator;
+import org.apache.hadoop.util.IndexedSortable;
+import org.apache.hadoop.util.Progress;
+import org.apache.hadoop.util.QuickSort;
+
+/**
+ * Serialized key-value records of one partition of the output of a map task, in memory.
+ * Records are serialized as they are collected, as in MapTask, since mappers reuse their key and
+ * value objects; they are sorted on the raw bytes by the sort comparator of the job, and read back
+ * through a RawKeyValueIterator for a reducer or combiner.
+ */
+class RecordBuffer implements IndexedSortable {
+
+	private static final Progress progress = new Progress();  // not tracked
+
+	private final DataOutputBuffer data = new DataOutputBuffer();
+	private final RawComparator<?> comparator;
+	private int[] bounds = new int[3 * 1024];  // key start, value start, value end of each record
+	private int[] order = new int[1024];       // record numbers, in sorted order once sorted
+	private int count;
+
+	RecordBuffer(RawComparator<?> comparator) {
+		this.comparator = comparator;
+	}
+
+	/**
+	 * Serialize a record onto the end of the buffer, with serializers opened on getOutput()
+	 */
+	<K, V> void add(Serializer<K> keySerializer, K key, Serializer<V> valueSerializer, V value) throws IOException {
+		if (3 * count + 3 > bounds.length) {
+			bounds = Arrays.copyOf(bounds, 2 * bounds.length);
+			order = Arrays.copyOf(order, 2 * order.length);
+		}
+		bounds[3 * count] = data.getLength();
+		keySerializer.serialize(key);
+		bounds[3 * count + 1] = data.getLength();
+		valueSerializer.serialize(value);
+		bounds[3 * count + 2] = data.getLength();
+		order[count] = count;
+		count++;
+	}
+
+	DataOutputBuffer getOutput() {
+		return data;
+	}
+
+	int size() {
+		return count;
+	}
+
+	void sort() {
+		new QuickSort().sort(this, 0, count);
+	}
+
+	@Override
+	public int compare(int i, int j) {
+		int a = 3 * order[i], b = 3 * order[j];
+		byte[] bytes = data.getData();
+		return comparator.compare(bytes, bounds[a], bounds[a + 1] - bounds[a], bytes, bounds[b], bounds[b + 1] - bounds[b]);
+	}
+
+	@Override
+	public void swap(int i, int j) {
+		int tmp = order[i];
+		order[i] = order[j];
+		order[j] = tmp;
+	}
+
+	/**
+	 * @return iterator over the records in their order, sorted if sort() was called
+	 */
+	RawKeyValueIterator iterator() {
+		return new RawKeyValueIterator() {
+			private final DataInputBuffer key = new DataInputBuffer(), value = new DataInputBuffer();
+			private int next = 0;
+
+			public DataInputBuffer getKey() { return key; }
+			public DataInputBuffer getValue() { return value; }
+
+			public boolean next() {
+				if (next == count)
+					return false;
+				int record = 3 * order[next++];
+				byte[] bytes = data.getData();
+				key.reset(bytes, bounds[record], bounds[record + 1] - bounds[record]);
+				value.reset(bytes, bounds[record + 1], bounds[record + 2] - bounds[record + 1]);
+				return true;
+			}
+
+			public Progress getProgress() { return progress; }
+
+			public void close() { }
+		};
+	}
+
+	/**
+	 * Merge sorted runs, as the reduce side merges the outputs of the map tasks.  Records with equal
+	 * keys come in the order of the runs, for the same result from run to run.
+	 */
+	static RawKeyValueIterator merge(final RawComparator<?> comparator, RecordBuffer[] runs) throws IOException {
+		final PriorityQueue<Run> heap = new PriorityQueue<Run>(Math.max(1, runs.length));
+		for (int i = 0; i < runs.length; i++) {
+			Run run = new Run(comparator, runs[i].iterator(), i);
+			if (run.advance())
+				heap.add(run);
+		}
+		return new RawKeyValueIterator() {
+			private Run current;
+
+			public DataInputBuffer getKey() throws IOException { return current.records.getKey(); }
+			public DataInputBuffer getValue() throws IOException { return current.records.getValue(); }
+
+			public boolean next() throws IOException {
+				if (current != null && current.advance())
+					heap.add(current);
+				current = heap.poll();
+				return current != null;
+			}
+
+			public Progress getProgress() { return progress; }
+
+			public void close() { }
+		};
+	}
+
+	private static class Run implements Comparable<Run> {
+		final RawComparator<?> comparator;
+		final RawKeyValueIterator records;
+		final int number;
+
+		Run(RawComparator<?> comparator, RawKeyValueIterator records, int number) {
+			this.comparator = comparator;
+			this.records = records;
+			this.number = number;
+		}
+
+		boolean advance() throws IOException {
+			return records.next();
+		}
+
+		public int compareTo(Run that) {
+			try {
+				DataInputBuffer k1 = records.getKey(), k2 = that.records.getKey();
+				int cmp = comparator.compare(k1.getData(), k1.getPosition(), k1.getLength() - k1.getPosition(),
+											 k2.getData(), k2.getPosition(), k2.getLength() - k2.getPosition());
+				return cmp != 0 ? cmp : number - that.number;
+			} catch (IOException e) {
+				throw new IllegalStateException(e);
+			}
+		}
+	}
+
+}
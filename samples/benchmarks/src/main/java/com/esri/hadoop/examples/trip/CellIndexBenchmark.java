@@ -0,0 +1,89 @@
+package com.esri.hadoop.examples.trip;
+
+import java.io.IOException;
+import java.util.concurrent.TimeUnit;
+
+import org.apache.hadoop.conf.Configuration;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OperationsPerInvocation;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import com.esri.core.geometry.Envelope;
+
+/**
+ * Assigning synthetic positions to cells of each type of cell index, as TripCellMapper does for every
+ * line, and truncating the cell IDs of trips to a coarser level, as TripInCommonMapper does for every
+ * trip with -D com.esri.trip.levels.  In points per second.
+ */
+@State(Scope.Thread)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class CellIndexBenchmark {
+
+	static final int COUNT = 10000;
+
+	@Param({"rectangular", "hexagonal", "quad"})
+	public String type;
+
+	CellIndex index;
+	double[] xs, ys;
+	long[] cells;
+
+	@Setup
+	public void setup() throws IOException {
+		Envelope studyArea = SyntheticPositions.loadEnvelope(SyntheticPositions.STUDY_AREA);
+		Configuration config = new Configuration();
+		config.set(CellIndexes.TYPE, type);
+		CellIndexes.setDefinition(config, studyArea, 500);
+		index = CellIndexes.fromConfiguration(config);
+
+		SyntheticPositions positions = new SyntheticPositions(studyArea, 42);
+		xs = new double[COUNT];
+		ys = new double[COUNT];
+		cells = new long[COUNT];
+		for (int i = 0; i < COUNT; i++) {
+			if (i % 1000 == 0)
+				positions.startCarDay(i / 1000, 130516, 1000);
+			positions.next();
+			xs[i] = positions.getLon();
+			ys[i] = positions.getLat();
+			cells[i] = Math.max(0, index.queryCell(xs[i], ys[i]));
+		}
+	}
+
+	@Benchmark
+	@BenchmarkMode(Mode.Throughput)
+	@OutputTimeUnit(TimeUnit.SECONDS)
+	@OperationsPerInvocation(COUNT)
+	public long queryCell() {
+		long sum = 0;
+		for (int i = 0; i < COUNT; i++) {
+			sum += index.queryCell(xs[i], ys[i]);
+		}
+		return sum;
+	}
+
+	@Benchmark
+	@BenchmarkMode(Mode.Throughput)
+	@OutputTimeUnit(TimeUnit.SECONDS)
+	@OperationsPerInvocation(COUNT)
+	public long getParent() {
+		int levels = index.getLevels();
+		long sum = 0;
+		for (int i = 0; i < COUNT; i++) {
+			sum += index.getParent(cells[i], levels);
+		}
+		return sum;
+	}
+
+}
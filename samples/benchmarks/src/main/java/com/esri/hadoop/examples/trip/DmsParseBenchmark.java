@@ -0,0 +1,114 @@
+package com.esri.hadoop.examples.trip;
+
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OperationsPerInvocation;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * Parsing of DMS coordinates as in TripCellMapper: the former regex-split parser on decoded Strings,
+ * against DegreeMinuteSecondUtility on Strings and on the bytes of the line in place.
+ * Time is per coordinate; run with -prof gc to compare allocation per coordinate.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class DmsParseBenchmark {
+
+	static final int COUNT = 4096;
+
+	/**
+	 * Percentage of malformed coordinates, which the former parser handles by a caught exception
+	 */
+	@Param({"0", "5"})
+	public int malformedPercent;
+
+	String[] strings;
+	byte[] bytes;   // all coordinates end to end, as the fields of lines
+	int[] starts, ends;
+
+	@Setup
+	public void setup() {
+		Random random = new Random(42);
+		strings = new String[COUNT];
+		StringBuilder all = new StringBuilder();
+		starts = new int[COUNT];
+		ends = new int[COUNT];
+		for (int i = 0; i < COUNT; i++) {
+			String dms = String.format("%d.%02d%04d", 120 + random.nextInt(30), random.nextInt(60), random.nextInt(6000));
+			if (random.nextInt(100) < malformedPercent) {
+				dms = random.nextBoolean() ? dms.substring(0, dms.indexOf('.')) : "";  // truncated or missing
+			}
+			strings[i] = dms;
+			starts[i] = all.length();
+			all.append(dms);
+			ends[i] = all.length();
+			all.append(',');
+		}
+		bytes = all.toString().getBytes();
+	}
+
+	/**
+	 * The parser of DegreeMinuteSecondUtility before it parsed in place, for comparison
+	 */
+	static double legacyParseDms(String inVal) {
+		try {
+			String[] tmp = inVal.split("\\.");
+			double outVal = Double.parseDouble(tmp[0])
+				+ Double.parseDouble(tmp[1].substring(0,2)) / 60
+				+ Double.parseDouble(tmp[1].substring(2)) / 360000 ;
+			return outVal;
+		} catch (Exception dmsx) {
+			return 0;
+		}
+	}
+
+	@Benchmark
+	@OperationsPerInvocation(COUNT)
+	public double legacyString() {
+		double sum = 0;
+		for (int i = 0; i < COUNT; i++) {
+			sum += legacyParseDms(strings[i]);
+		}
+		return sum;
+	}
+
+	@Benchmark
+	@OperationsPerInvocation(COUNT)
+	public double parseString() {
+		double sum = 0;
+		for (int i = 0; i < COUNT; i++) {
+			double value = DegreeMinuteSecondUtility.parseDms(strings[i]);
+			if (!Double.isNaN(value))
+				sum += value;
+		}
+		return sum;
+	}
+
+	@Benchmark
+	@OperationsPerInvocation(COUNT)
+	public double parseBytes() {
+		double sum = 0;
+		for (int i = 0; i < COUNT; i++) {
+			double value = DegreeMinuteSecondUtility.parseDms(bytes, starts[i], ends[i]);
+			if (!Double.isNaN(value))
+				sum += value;
+		}
+		return sum;
+	}
+
+}
@@ -0,0 +1,81 @@
+package com.esri.hadoop.examples.trip;
+
+import java.io.IOException;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OperationsPerInvocation;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import com.esri.core.geometry.Envelope;
+
+/**
+ * Building the EqualAreaGrid over the sample study area, as every task of the trip jobs does in setup,
+ * and assigning synthetic positions to cells, as TripCellMapper does for every line.
+ * queryGrid is in points per second.
+ */
+@State(Scope.Thread)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class EqualAreaGridBenchmark {
+
+	static final int COUNT = 10000;
+
+	/**
+	 * Nominal side of grid cell in meters
+	 */
+	@Param({"250", "500", "1000", "2000"})
+	public double cellSize;
+
+	Envelope studyArea;
+	EqualAreaGrid grid;
+	double[] xs, ys;
+
+	@Setup
+	public void setup() throws IOException {
+		studyArea = SyntheticPositions.loadEnvelope(SyntheticPositions.STUDY_AREA);
+		grid = new EqualAreaGrid(studyArea, cellSize);
+		System.out.printf("%n%d cells of %.0f m%n", grid.getCellCount(), cellSize);
+
+		SyntheticPositions positions = new SyntheticPositions(studyArea, 42);
+		xs = new double[COUNT];
+		ys = new double[COUNT];
+		for (int i = 0; i < COUNT; i++) {
+			if (i % 1000 == 0)
+				positions.startCarDay(i / 1000, 130516, 1000);
+			positions.next();
+			xs[i] = positions.getLon();
+			ys[i] = positions.getLat();
+		}
+	}
+
+	@Benchmark
+	@BenchmarkMode(Mode.AverageTime)
+	@OutputTimeUnit(TimeUnit.MICROSECONDS)
+	public EqualAreaGrid build() {
+		return new EqualAreaGrid(studyArea, cellSize);
+	}
+
+	@Benchmark
+	@BenchmarkMode(Mode.Throughput)
+	@OutputTimeUnit(TimeUnit.SECONDS)
+	@OperationsPerInvocation(COUNT)
+	public long queryGrid() {
+		long sum = 0;
+		for (int i = 0; i < COUNT; i++) {
+			sum += grid.queryGrid(xs[i], ys[i]);
+		}
+		return sum;
+	}
+
+}
@@ -0,0 +1,116 @@
+package com.esri.hadoop.examples.trip;
+
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.Random;
+
+import com.esri.core.geometry.Envelope;
+import com.esri.json.EsriFeatureClass;
+
+/**
+ * Generator of synthetic GPS positions of cars over a study area, in the form of the lines of
+ * sample-vehicle-positions.csv.  Each car-day is a random walk: positions at a steady interval
+ * spread over 16 hours, turning and changing speed a little at each step, with an occasional stop
+ * of 20 to 60 minutes - longer than the default trip threshold - that ends a trip.
+ */
+public class SyntheticPositions {
+
+	/**
+	 * Path of the study area of the trip-discovery sample, relative to samples/benchmarks
+	 */
+	static final String STUDY_AREA = System.getProperty("sample.trip.studyarea", "../trip-discovery/sample-study-area.json");
+
+	private final Envelope area;
+	private final Random random;
+
+	private String car;
+	private int date;      // YYMMDD
+	private int seconds;   // seconds after midnight
+	private int interval;  // seconds between positions
+	private double lon, lat;
+	private int bearing, speed, road;
+
+	public SyntheticPositions(Envelope area, long seed) {
+		this.area = area;
+		this.random = new Random(seed);
+	}
+
+	/**
+	 * @return envelope of the first feature of an Esri JSON file, such as the sample study area
+	 */
+	public static Envelope loadEnvelope(String path) throws IOException {
+		InputStream iStream = new FileInputStream(path);
+		try {
+			Envelope envelope = new Envelope();
+			EsriFeatureClass.fromJson(iStream).features[0].geometry.queryEnvelope(envelope);
+			return envelope;
+		} finally {
+			iStream.close();
+		}
+	}
+
+	/**
+	 * Start the positions of a car on a day, at a random place of the study area at 06:00
+	 *
+	 * @param records number of positions the car-day is to have, to space them over the day
+	 */
+	public void startCarDay(int carNumber, int yymmdd, int records) {
+		car = String.format("car%05d", carNumber);
+		date = yymmdd;
+		seconds = 6 * 3600;
+		interval = Math.max(1, 16 * 3600 / Math.max(1, records));
+		lon = area.getXMin() + random.nextDouble() * area.getWidth();
+		lat = area.getYMin() + random.nextDouble() * area.getHeight();
+		bearing = random.nextInt(360);
+		speed = random.nextInt(60);
+		road = 1 + random.nextInt(4);
+	}
+
+	/**
+	 * Advance to the next position of the car-day
+	 */
+	public void next() {
+		if (random.nextInt(100) < 2) {  // park, for a new trip
+			seconds += 1200 + random.nextInt(2400);
+			speed = 0;
+		} else {
+			seconds += interval;
+			speed = Math.max(0, Math.min(120, speed + random.nextInt(21) - 10));
+		}
+		seconds = Math.min(seconds, 86399);
+		bearing = (bearing + random.nextInt(31) - 15 + 360) % 360;
+		double km = speed * interval / 3600.;
+		double radians = Math.toRadians(bearing);
+		lat += km / 111.2 * Math.cos(radians);
+		lon += km / (111.2 * Math.cos(Math.toRadians(lat))) * Math.sin(radians);
+		// turn back at the edges, rather than leave the study area
+		if (lon < area.getXMin() || lon > area.getXMax() || lat < area.getYMin() || lat > area.getYMax()) {
+			lon = Math.max(area.getXMin(), Math.min(area.getXMax(), lon));
+			lat = Math.max(area.getYMin(), Math.min(area.getYMax(), lat));
+			bearing = (bearing + 180) % 360;
+		}
+	}
+
+	public String getCar() { return car; }
+	public int getDate() { return date; }
+	public int getSeconds() { return seconds; }
+	public int getTime() { return CarDateTimeKey.timeOfDay(seconds); }  // HHMMSS
+	public double getLon() { return lon; }
+	public double getLat() { return lat; }
+	public int getBearing() { return bearing; }
+	public int getSpeed() { return speed; }
+	public int getRoad() { return road; }
+
+	/**
+	 * Append the current position as a line of the vehicle CSV, without the line end
+	 */
+	public StringBuilder appendCsv(StringBuilder line) {
+		return line.append(car).append(',')
+			.append(String.format("%06d,%06d,", date, getTime()))
+			.append(DegreeMinuteSecondUtility.formatDms(lon)).append(',')
+			.append(DegreeMinuteSecondUtility.formatDms(lat)).append(',')
+			.append(bearing).append(',').append(speed).append(',').append(road);
+	}
+
+}
@@ -0,0 +1,190 @@
+package com.esri.hadoop.examples.trip;
+
+import java.io.IOException;
+import java.util.concurrent.TimeUnit;
+
+import org.apache.hadoop.io.DataInputBuffer;
+import org.apache.hadoop.io.DataOutputBuffer;
+import org.apache.hadoop.util.IndexedSortable;
+import org.apache.hadoop.util.QuickSort;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OperationsPerInvocation;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import com.esri.core.geometry.Envelope;
+
+/**
+ * Serialization of the records of the trip jobs: the map output of TripCellDriver, CarDateTimeKey and
+ * CarSortWritable, and the trips between the jobs, TripCellWritable.  Also the map-side sort of the
+ * positions by the raw comparator of CarDateTimeKey, which depends on how many positions each car-day has.
+ *
+ * Every invocation handles a batch of synthetic positions of whole car-days; scores are in records per
+ * second, and setup prints the serialized bytes per record.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class WritableBenchmark {
+
+	static final int COUNT = 10000;
+
+	@Param({"100", "1000", "10000"})
+	public int recordsPerCarDay;
+
+	final CarDateTimeKey[] keys = new CarDateTimeKey[COUNT];
+	final CarSortWritable[] positions = new CarSortWritable[COUNT];
+	final TripCellWritable[] trips = new TripCellWritable[COUNT];
+
+	final DataOutputBuffer out = new DataOutputBuffer();
+	final DataInputBuffer in = new DataInputBuffer();
+	final CarDateTimeKey key = new CarDateTimeKey();
+	final CarSortWritable position = new CarSortWritable();
+	final TripCellWritable trip = new TripCellWritable();
+
+	byte[] positionBytes, tripBytes;
+	int positionLength, tripLength;
+
+	// map output buffer to sort: offset and length of each key, as MapTask keeps them
+	int[] keyStarts, keyLengths, order;
+	final CarDateTimeKey.Comparator comparator = new CarDateTimeKey.Comparator();
+
+	@Setup
+	public void setup() throws IOException {
+		Envelope studyArea = SyntheticPositions.loadEnvelope(SyntheticPositions.STUDY_AREA);
+		EqualAreaGrid grid = new EqualAreaGrid(studyArea, 500);
+		SyntheticPositions generator = new SyntheticPositions(studyArea, 42);
+		double[] cell = new double[4], prevCell = new double[4];
+		for (int i = 0; i < COUNT; i++) {
+			if (i % recordsPerCarDay == 0)
+				generator.startCarDay(i / recordsPerCarDay, 130516, recordsPerCarDay);
+			generator.next();
+			byte[] car = generator.getCar().getBytes("UTF-8");
+			keys[i] = new CarDateTimeKey();
+			keys[i].set(car, 0, car.length, generator.getDate(), generator.getTime());
+			positions[i] = new CarSortWritable(generator.getDate(), generator.getSeconds(), generator.getLon(), generator.getLat(),
+											   generator.getBearing(), generator.getSpeed(), generator.getRoad(),
+											   grid.queryGrid(generator.getLon(), generator.getLat()));
+		}
+		// a trip from every position to the next, to have as many trips as positions
+		for (int i = 0; i < COUNT; i++) {
+			CarSortWritable orig = positions[i], dest = positions[(i + 1) % COUNT];
+			grid.getCell(Math.max(0, orig.getCell()), 0, prevCell);
+			grid.getCell(Math.max(0, dest.getCell()), 0, cell);
+			trips[i] = new TripCellWritable(orig.getDate(), CarDateTimeKey.timeOfDay(orig.getSeconds()), orig.getLon(), orig.getLat(),
+											orig.getSpeed(), prevCell[0], prevCell[1], prevCell[2], prevCell[3],
+											dest.getDate(), CarDateTimeKey.timeOfDay(dest.getSeconds()), dest.getLon(), dest.getLat(),
+											dest.getSpeed(), cell[0], cell[1], cell[2], cell[3]);
+			trips[i].setCells(orig.getCell(), dest.getCell());
+		}
+
+		writePositions();
+		positionBytes = copy(out);
+		positionLength = out.getLength();
+		keyStarts = new int[COUNT];
+		keyLengths = new int[COUNT];
+		order = new int[COUNT];
+		DataOutputBuffer keyOut = new DataOutputBuffer();
+		for (int i = 0, offset = 0; i < COUNT; i++) {
+			keyOut.reset();
+			keys[i].write(keyOut);
+			keyStarts[i] = offset;
+			keyLengths[i] = keyOut.getLength();
+			offset += keyOut.getLength() + CarSortWritable.SIZE;
+		}
+		writeTrips();
+		tripBytes = copy(out);
+		tripLength = out.getLength();
+
+		System.out.printf("%nCarDateTimeKey + CarSortWritable: %.1f bytes/record; TripCellWritable: %.1f bytes/record%n",
+						  (double)positionLength / COUNT, (double)tripLength / COUNT);
+	}
+
+	private static byte[] copy(DataOutputBuffer buffer) {
+		byte[] bytes = new byte[buffer.getLength()];
+		System.arraycopy(buffer.getData(), 0, bytes, 0, buffer.getLength());
+		return bytes;
+	}
+
+	@Benchmark
+	@OperationsPerInvocation(COUNT)
+	public int writePositions() throws IOException {
+		out.reset();
+		for (int i = 0; i < COUNT; i++) {
+			keys[i].write(out);
+			positions[i].write(out);
+		}
+		return out.getLength();
+	}
+
+	@Benchmark
+	@OperationsPerInvocation(COUNT)
+	public long readPositions() throws IOException {
+		in.reset(positionBytes, positionLength);
+		long sum = 0;
+		for (int i = 0; i < COUNT; i++) {
+			key.readFields(in);
+			position.readFields(in);
+			sum += position.getSeconds();
+		}
+		return sum;
+	}
+
+	/**
+	 * Sort the serialized positions of the batch by car, day and time on the raw bytes, as the map side does
+	 */
+	@Benchmark
+	@OperationsPerInvocation(COUNT)
+	public int sortPositions() {
+		for (int i = 0; i < COUNT; i++) {
+			order[i] = COUNT - 1 - i;  // reverse, for the sort to have some work with any car-day size
+		}
+		new QuickSort().sort(new IndexedSortable() {
+			public int compare(int i, int j) {
+				int a = order[i], b = order[j];
+				return comparator.compare(positionBytes, keyStarts[a], keyLengths[a], positionBytes, keyStarts[b], keyLengths[b]);
+			}
+
+			public void swap(int i, int j) {
+				int tmp = order[i];
+				order[i] = order[j];
+				order[j] = tmp;
+			}
+		}, 0, COUNT);
+		return order[0];
+	}
+
+	@Benchmark
+	@OperationsPerInvocation(COUNT)
+	public int writeTrips() throws IOException {
+		out.reset();
+		for (int i = 0; i < COUNT; i++) {
+			trips[i].write(out);
+		}
+		return out.getLength();
+	}
+
+	@Benchmark
+	@OperationsPerInvocation(COUNT)
+	public long readTrips() throws IOException {
+		in.reset(tripBytes, tripLength);
+		long sum = 0;
+		for (int i = 0; i < COUNT; i++) {
+			trip.readFields(in);
+			sum += trip.getCell2();
+		}
+		return sum;
+	}
+
+}
@@ -1,9 +1,15 @@
 package com.esri.hadoop.examples;
 
+import java.io.IOException;
+import java.io.PrintStream;
+
 import org.apache.hadoop.conf.Configuration;
+import org.apache.hadoop.filecache.DistributedCache;
+import org.apache.hadoop.fs.FileSystem;
 import org.apache.hadoop.fs.Path;
 import org.apache.hadoop.io.IntWritable;
 import org.apache.hadoop.io.Text;
+import org.apache.hadoop.mapreduce.Counters;
 import org.apache.hadoop.mapreduce.Job;
 import org.apache.hadoop.mapreduce.lib.input.TextInputFormat;
 import org.apache.hadoop.mapreduce.lib.output.TextOutputFormat;
@@ -20,9 +26,24 @@ public class AggregationSampleDriver
 		// intended for the MapReduce job
 		String [] args = new GenericOptionsParser(config, init_args).getRemainingArgs();
 		
+		Job job = createJob(config, args);
+		if (!job.waitForCompletion(true)) {
+			return 1;
+		}
+		printSummary(job.getCounters(), System.out);
+		return 0;
+	}
+	
+	/**
+	 * Configure the job for the arguments left after the generic options, whether it is then
+	 * submitted to Hadoop or run in-process
+	 */
+	public static Job createJob(Configuration config, String[] args) throws IOException {
 		/*
 		 * Args
-		 *  [0] path to Esri JSON file
+		 *  [0] path to Esri JSON file, or to a feature index written by FeatureIndexBuilder; an index
+		 *      keeps the labels of the attribute it was built with, and sample.features.keyattribute
+		 *      is then ignored
 		 *  [1] path(s) to the input data source
 		 *  [2] path to write the output of the MapReduce jobs
 		 */
@@ -37,6 +58,16 @@ public class AggregationSampleDriver
 		config.set("sample.features.keyattribute", "NAME");
 		config.setInt("samples.csvdata.columns.lat", 1);
 		config.setInt("samples.csvdata.columns.long", 2);
+		MapperClass.checkOptions(config);  // fail before submitting the job, rather than in every mapper
+		
+		// A pre-built feature index is shipped to every node through the distributed cache and
+		// memory-mapped by the mappers, instead of each mapper parsing the JSON
+		Path featuresPath = new Path(args[0]);
+		FileSystem featuresFs = featuresPath.getFileSystem(config);
+		if (FeatureIndex.isIndexFile(featuresFs, featuresPath)) {
+			DistributedCache.addCacheFile(featuresFs.makeQualified(featuresPath).toUri(), config);
+			config.set("sample.features.index", featuresPath.getName());
+		}
 		
 		Job job = new Job(config);
 
@@ -60,13 +91,40 @@ public class AggregationSampleDriver
 
 		job.setJarByClass(AggregationSampleDriver.class);
 
-		return job.waitForCompletion(true)?  0 : 1;
+		return job;
+	}
+	
+	/**
+	 * Print what the counters of the mappers tell of the points and of the work to locate them
+	 */
+	public static void printSummary(Counters counters, PrintStream out) {
+		long parsed = counters.findCounter(MapperClass.Points.PARSED).getValue();
+		long candidates = counters.findCounter(MapperClass.Points.CANDIDATES).getValue();
+		long exactTests = counters.findCounter(MapperClass.Points.EXACT_TESTS).getValue();
+		out.printf("Points: %d parsed, %d malformed lines skipped%n",
+				   parsed, counters.findCounter(MapperClass.Points.MALFORMED).getValue());
+		if (parsed > 0) {
+			out.printf("Per point: %.2f candidate features, %.2f exact contains tests%n",
+					   (double)candidates / parsed, (double)exactTests / parsed);
+		}
+		long setupMillis = counters.findCounter(MapperClass.Points.SETUP_MILLIS).getValue();
+		if (setupMillis > 0) {  // none in the tile join, whose reducers index the polygons
+			out.printf("Mapper setup: %d ms over all map tasks%n", setupMillis);
+		}
+		
+		long hits = counters.findCounter(MapperClass.CachedLocations.HITS).getValue();
+		long misses = counters.findCounter(MapperClass.CachedLocations.MISSES).getValue();
+		if (hits + misses > 0) {
+			out.printf("Location cache: %d hits, %d misses, %d points in cells on an edge%n",
+					   hits, misses, counters.findCounter(MapperClass.CachedLocations.UNKNOWN).getValue());
+		}
 	}
 	
 	static void print_usage()
 	{
 		System.out.println("***");
 		System.out.println("Usage: hadoop jar aggregation-sample.jar AggregationSampleDriver -libjars [external jar references] [/hdfs/path/to]/filtergeometry.json [/hdfs/path/to]/earthquakes.csv [/hdfs/path/to/user]/output.out");
+		System.out.println("The first path may also be a feature index written by FeatureIndexBuilder, whose labels come from the attribute it was built with.");
 		System.out.println("***");
 	}
 }
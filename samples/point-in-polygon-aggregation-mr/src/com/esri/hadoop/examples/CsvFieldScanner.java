@@ -0,0 +1,231 @@
+package com.esri.hadoop.examples;
+
+import java.io.UnsupportedEncodingException;
+
+import org.apache.hadoop.io.Text;
+
+/**
+ * Splits a delimited line into fields by scanning its bytes in place, and parses fields straight from
+ * those bytes, so that a mapper can read a line without creating a String per line or per field.
+ * An instance is meant to be reused for every line; it is not thread-safe.
+ *
+ * There is no handling of quoted fields, so the delimiter must not appear inside a field.
+ *
+ * The trip-discovery sample compiles this source into its own jar as well.
+ */
+public class CsvFieldScanner {
+
+	// powers of ten that are exact as doubles
+	private static final double[] POWERS_OF_TEN = {
+		1e0, 1e1, 1e2, 1e3, 1e4, 1e5, 1e6, 1e7, 1e8, 1e9, 1e10, 1e11,
+		1e12, 1e13, 1e14, 1e15, 1e16, 1e17, 1e18, 1e19, 1e20, 1e21, 1e22
+	};
+	private static final int MAX_EXACT_DIGITS = 15;  // any integer of this many digits is exact as a double
+
+	private final byte delimiter;
+	private byte[] bytes;
+	private int[] starts = new int[16];
+	private int[] ends = new int[16];
+	private int fieldCount;
+
+	public CsvFieldScanner(char delimiter) {
+		this.delimiter = (byte)delimiter;
+	}
+
+	/**
+	 * Find the fields of a line, keeping a reference to the bytes of the Text
+	 *
+	 * @return number of fields
+	 */
+	public int scan(Text line) {
+		return scan(line.getBytes(), 0, line.getLength());
+	}
+
+	/**
+	 * Find the fields in a range of bytes, keeping a reference to the array
+	 *
+	 * @return number of fields
+	 */
+	public int scan(byte[] bytes, int offset, int length) {
+		this.bytes = bytes;
+		fieldCount = 0;
+		int start = offset, end = offset + length;
+		for (int i = offset; i < end; i++) {
+			if (bytes[i] == delimiter) {
+				addField(start, i);
+				start = i + 1;
+			}
+		}
+		addField(start, end);
+		return fieldCount;
+	}
+
+	private void addField(int start, int end) {
+		if (fieldCount == starts.length) {
+			int[] tmp = new int[2 * starts.length];
+			System.arraycopy(starts, 0, tmp, 0, fieldCount);
+			starts = tmp;
+			tmp = new int[2 * ends.length];
+			System.arraycopy(ends, 0, tmp, 0, fieldCount);
+			ends = tmp;
+		}
+		starts[fieldCount] = start;
+		ends[fieldCount] = end;
+		fieldCount++;
+	}
+
+	public int getFieldCount() {
+		return fieldCount;
+	}
+
+	public byte[] getBytes() {
+		return bytes;
+	}
+
+	/**
+	 * @return offset of the first byte of the field
+	 */
+	public int getStart(int field) {
+		checkField(field);
+		return starts[field];
+	}
+
+	/**
+	 * @return offset just past the last byte of the field
+	 */
+	public int getEnd(int field) {
+		checkField(field);
+		return ends[field];
+	}
+
+	/**
+	 * Copy the bytes of a field into a Text, which may be reused between lines
+	 */
+	public void getText(int field, Text target) {
+		checkField(field);
+		target.set(bytes, starts[field], ends[field] - starts[field]);
+	}
+
+	/**
+	 * Parse a field as a decimal number, such as 37.25 or -1.5e-3.
+	 * Numbers with no more than 15 significant digits and a small exponent, as found in coordinates,
+	 * are parsed without allocating, and rounded exactly as Double.parseDouble would.
+	 *
+	 * @throws NumberFormatException if the field is not a number
+	 */
+	public double getDouble(int field) {
+		checkField(field);
+		int pos = starts[field], end = ends[field];
+		while (pos < end && bytes[pos] == ' ') pos++;
+		while (end > pos && bytes[end-1] == ' ') end--;
+
+		int i = pos;
+		boolean negative = false;
+		if (i < end && (bytes[i] == '-' || bytes[i] == '+')) {
+			negative = bytes[i] == '-';
+			i++;
+		}
+		long mantissa = 0;
+		int digits = 0, exponent = 0;
+		boolean anyDigit = false, point = false;
+		for (; i < end; i++) {
+			byte b = bytes[i];
+			if (b >= '0' && b <= '9') {
+				anyDigit = true;
+				if (mantissa == 0 && b == '0') {  // leading zero is not significant
+					if (point) exponent--;
+				} else if (digits < 18) {
+					mantissa = 10 * mantissa + (b - '0');
+					digits++;
+					if (point) exponent--;
+				} else {  // more digits than a long holds
+					return parseSlow(pos, end);
+				}
+			} else if (b == '.' && !point) {
+				point = true;
+			} else {
+				break;
+			}
+		}
+		if (i < end && anyDigit && (bytes[i] == 'e' || bytes[i] == 'E')) {
+			i++;
+			boolean negExp = false;
+			if (i < end && (bytes[i] == '-' || bytes[i] == '+')) {
+				negExp = bytes[i] == '-';
+				i++;
+			}
+			int exp = 0, expDigits = 0;
+			for (; i < end && bytes[i] >= '0' && bytes[i] <= '9' && expDigits < 4; i++, expDigits++) {
+				exp = 10 * exp + (bytes[i] - '0');
+			}
+			if (expDigits == 0) {
+				return parseSlow(pos, end);
+			}
+			exponent += negExp ? -exp : exp;
+		}
+		if (i != end || !anyDigit || digits > MAX_EXACT_DIGITS) {
+			// unusual forms (NaN, hexadecimal, too many digits), or not a number at all
+			return parseSlow(pos, end);
+		}
+
+		// a correctly rounded result, as both operands are exact doubles
+		double value;
+		if (mantissa == 0) {
+			value = 0;
+		} else if (exponent >= 0 && exponent < POWERS_OF_TEN.length) {
+			value = mantissa * POWERS_OF_TEN[exponent];
+		} else if (exponent < 0 && -exponent < POWERS_OF_TEN.length) {
+			value = mantissa / POWERS_OF_TEN[-exponent];
+		} else {
+			return parseSlow(pos, end);
+		}
+		return negative ? -value : value;
+	}
+
+	private double parseSlow(int start, int end) {
+		try {
+			return Double.parseDouble(new String(bytes, start, end - start, "UTF-8"));
+		} catch (UnsupportedEncodingException e) {
+			throw new IllegalStateException(e);
+		}
+	}
+
+	/**
+	 * Parse a field as a decimal integer
+	 *
+	 * @throws NumberFormatException if the field is not an integer
+	 */
+	public int getInt(int field) {
+		checkField(field);
+		int i = starts[field], end = ends[field];
+		while (i < end && bytes[i] == ' ') i++;
+		while (end > i && bytes[end-1] == ' ') end--;
+		boolean negative = false;
+		if (i < end && (bytes[i] == '-' || bytes[i] == '+')) {
+			negative = bytes[i] == '-';
+			i++;
+		}
+		if (i == end) {
+			throw new NumberFormatException("Not an integer in field " + field);
+		}
+		long value = 0;
+		for (; i < end; i++) {
+			byte b = bytes[i];
+			if (b < '0' || b > '9' || value > Integer.MAX_VALUE) {
+				throw new NumberFormatException("Not an integer in field " + field);
+			}
+			value = 10 * value + (b - '0');
+		}
+		value = negative ? -value : value;
+		if (value > Integer.MAX_VALUE || value < Integer.MIN_VALUE) {
+			throw new NumberFormatException("Integer out of range in field " + field);
+		}
+		return (int)value;
+	}
+
+	private void checkField(int field) {
+		if (field < 0 || field >= fieldCount) {
+			throw new NumberFormatException("Missing field " + field + " of " + fieldCount);
+		}
+	}
+}
@@ -0,0 +1,263 @@
+package com.esri.hadoop.examples;
+
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+
+import org.apache.hadoop.fs.FSDataInputStream;
+import org.apache.hadoop.fs.FileSystem;
+import org.apache.hadoop.fs.Path;
+
+import com.esri.core.geometry.Envelope;
+import com.esri.core.geometry.Envelope2D;
+import com.esri.core.geometry.Geometry;
+import com.esri.core.geometry.GeometryEngine;
+import com.esri.core.geometry.QuadTree;
+import com.esri.json.EsriFeatureClass;
+
+/**
+ * The features used by the mapper - one label, envelope and geometry per feature - either
+ * taken from an EsriFeatureClass parsed from JSON, or memory-mapped from a binary index file
+ * written by {@link FeatureIndexBuilder}.
+ *
+ * Binary layout (big-endian):
+ *   int magic, int version, int feature count
+ *   double[4 * count]  envelopes as xmin, ymin, xmax, ymax
+ *   int[count + 1]     offsets of labels in the label section
+ *   byte[count]        flags, such as a null label
+ *   int[count + 1]     offsets of geometries in the shape section
+ *   label section      UTF-8 bytes
+ *   shape section      geometries as Esri shape bytes
+ *
+ * The quadtree itself is not stored: rebuilding it from the packed envelopes is a few inserts per
+ * feature, while the costly part of setup (parsing JSON and computing envelopes) is done only once.
+ */
+public class FeatureIndex {
+
+	static final int MAGIC = 0x45534649;  // "ESFI"
+	static final int VERSION = 1;
+
+	static final byte FLAG_NULL_LABEL = 1;
+
+	static final int QUADTREE_HEIGHT = 8;
+
+	private final int count;
+	private final double[] envelopes;
+	private final String[] labels;
+	private final Geometry[] geometries;
+
+	// only set when loaded from an index file; geometries are decoded on first use
+	private ByteBuffer shapes;
+	private int[] shapeOffsets;
+
+	private FeatureIndex(int count) {
+		this.count = count;
+		envelopes = new double[4 * count];
+		labels = new String[count];
+		geometries = new Geometry[count];
+	}
+
+	/**
+	 * Collect the label, envelope and geometry of every feature in a feature class
+	 *
+	 * @param featureClass features parsed from Esri JSON
+	 * @param labelAttribute name of the attribute holding the label of each feature
+	 */
+	public static FeatureIndex fromFeatureClass(EsriFeatureClass featureClass, String labelAttribute) {
+		int count = featureClass.features.length;
+		Geometry[] geometries = new Geometry[count];
+		String[] labels = new String[count];
+		for (int i=0;i<count;i++){
+			geometries[i] = featureClass.features[i].geometry;
+			Object label = featureClass.features[i].attributes.get(labelAttribute);
+			labels[i] = label == null ? null : label.toString();
+		}
+		return fromFeatures(geometries, labels, count);
+	}
+
+	/**
+	 * Collect the envelopes of the first count geometries, labelled with the matching labels
+	 */
+	public static FeatureIndex fromFeatures(Geometry[] geometries, String[] labels, int count) {
+		FeatureIndex index = new FeatureIndex(count);
+
+		Envelope envelope = new Envelope();
+		for (int i=0;i<count;i++){
+			geometries[i].queryEnvelope(envelope);
+			index.envelopes[4*i]   = envelope.getXMin();
+			index.envelopes[4*i+1] = envelope.getYMin();
+			index.envelopes[4*i+2] = envelope.getXMax();
+			index.envelopes[4*i+3] = envelope.getYMax();
+			index.geometries[i] = geometries[i];
+			index.labels[i] = labels[i];
+		}
+		return index;
+	}
+
+	/**
+	 * Memory-map a binary index file from the local file system, such as a distributed cache copy
+	 */
+	public static FeatureIndex load(File file) throws IOException {
+		RandomAccessFile raf = new RandomAccessFile(file, "r");
+		MappedByteBuffer buffer;
+		try {
+			// the mapping stays valid after the channel is closed
+			buffer = raf.getChannel().map(FileChannel.MapMode.READ_ONLY, 0, raf.length());
+		} finally {
+			raf.close();
+		}
+
+		if (buffer.getInt() != MAGIC) {
+			throw new IOException("Not a feature index file: " + file);
+		}
+		int version = buffer.getInt();
+		if (version != VERSION) {
+			throw new IOException("Unsupported feature index version " + version + ": " + file);
+		}
+
+		FeatureIndex index = new FeatureIndex(buffer.getInt());
+		buffer.asDoubleBuffer().get(index.envelopes);
+		buffer.position(buffer.position() + 8 * index.envelopes.length);
+
+		int[] labelOffsets = new int[index.count + 1];
+		buffer.asIntBuffer().get(labelOffsets);
+		buffer.position(buffer.position() + 4 * labelOffsets.length);
+
+		byte[] flags = new byte[index.count];
+		buffer.get(flags);
+
+		index.shapeOffsets = new int[index.count + 1];
+		buffer.asIntBuffer().get(index.shapeOffsets);
+		buffer.position(buffer.position() + 4 * index.shapeOffsets.length);
+
+		// labels are small and are needed as output keys, so decode them all up front
+		byte[] labelBytes = new byte[labelOffsets[index.count]];
+		buffer.get(labelBytes);
+		for (int i=0;i<index.count;i++){
+			if ((flags[i] & FLAG_NULL_LABEL) == 0) {
+				index.labels[i] = new String(labelBytes, labelOffsets[i], labelOffsets[i+1] - labelOffsets[i], "UTF-8");
+			}
+		}
+
+		index.shapes = buffer.slice();
+		return index;
+	}
+
+	/**
+	 * Check whether a file starts with the feature index header, as opposed to being Esri JSON
+	 */
+	public static boolean isIndexFile(FileSystem fs, Path path) throws IOException {
+		FSDataInputStream iStream = fs.open(path);
+		try {
+			return iStream.readInt() == MAGIC;
+		} catch (IOException e) {  // too short to be an index
+			return false;
+		} finally {
+			iStream.close();
+		}
+	}
+
+	/**
+	 * Write this index in the binary layout read by {@link #load(File)}
+	 */
+	public void write(OutputStream out) throws IOException {
+		byte[][] labelBytes = new byte[count][];
+		byte[][] shapeBytes = new byte[count][];
+		int[] labelOffsets = new int[count + 1];
+		int[] shapeOffsets = new int[count + 1];
+		long labelTotal = 0, shapeTotal = 0;
+		for (int i=0;i<count;i++){
+			labelBytes[i] = labels[i] == null ? new byte[0] : labels[i].getBytes("UTF-8");
+			shapeBytes[i] = GeometryEngine.geometryToEsriShape(getGeometry(i));
+			labelTotal += labelBytes[i].length;
+			shapeTotal += shapeBytes[i].length;
+			if (labelTotal + shapeTotal > Integer.MAX_VALUE) {
+				throw new IOException("Features too large for a single index file");
+			}
+			labelOffsets[i+1] = (int)labelTotal;
+			shapeOffsets[i+1] = (int)shapeTotal;
+		}
+
+		DataOutputStream dOut = new DataOutputStream(out);
+		dOut.writeInt(MAGIC);
+		dOut.writeInt(VERSION);
+		dOut.writeInt(count);
+		for (double value : envelopes) {
+			dOut.writeDouble(value);
+		}
+		for (int offset : labelOffsets) {
+			dOut.writeInt(offset);
+		}
+		for (int i=0;i<count;i++){
+			dOut.writeByte(labels[i] == null ? FLAG_NULL_LABEL : 0);
+		}
+		for (int offset : shapeOffsets) {
+			dOut.writeInt(offset);
+		}
+		for (byte[] bytes : labelBytes) {
+			dOut.write(bytes);
+		}
+		for (byte[] bytes : shapeBytes) {
+			dOut.write(bytes);
+		}
+		dOut.flush();
+	}
+
+	public int size() {
+		return count;
+	}
+
+	/**
+	 * @return label of the feature, or null if the feature had no value for the label attribute
+	 */
+	public String getLabel(int featureIndex) {
+		return labels[featureIndex];
+	}
+
+	public Geometry getGeometry(int featureIndex) {
+		Geometry geometry = geometries[featureIndex];
+		if (geometry == null) {
+			int start = shapeOffsets[featureIndex];
+			byte[] bytes = new byte[shapeOffsets[featureIndex+1] - start];
+			ByteBuffer shape = shapes.duplicate();
+			shape.position(start);
+			shape.get(bytes);
+			geometry = GeometryEngine.geometryFromEsriShape(bytes, Geometry.Type.Unknown);
+			geometries[featureIndex] = geometry;
+		}
+		return geometry;
+	}
+
+	public void queryEnvelope(int featureIndex, Envelope2D envelope) {
+		envelope.setCoords(envelopes[4*featureIndex], envelopes[4*featureIndex+1],
+						   envelopes[4*featureIndex+2], envelopes[4*featureIndex+3]);
+	}
+
+	/**
+	 * Build a quadtree of feature envelopes, with the feature index as the element of each
+	 */
+	public QuadTree buildQuadTree() {
+		return buildQuadTree(new Envelope2D(-180, -90, 180, 90));
+	}
+
+	/**
+	 * Build a quadtree over part of the world, such as one tile, with feature envelopes clipped to it
+	 */
+	public QuadTree buildQuadTree(Envelope2D extent) {
+		QuadTree quadTree = new QuadTree(extent, QUADTREE_HEIGHT);
+
+		for (int i=0;i<count;i++){
+			Envelope2D envelope = new Envelope2D();
+			queryEnvelope(i, envelope);
+			if (envelope.intersect(extent)) {
+				quadTree.insert(i, envelope);
+			}
+		}
+		return quadTree;
+	}
+}
@@ -0,0 +1,76 @@
+package com.esri.hadoop.examples;
+
+import java.io.IOException;
+
+import org.apache.hadoop.conf.Configuration;
+import org.apache.hadoop.fs.FSDataInputStream;
+import org.apache.hadoop.fs.FSDataOutputStream;
+import org.apache.hadoop.fs.FileSystem;
+import org.apache.hadoop.fs.Path;
+import org.apache.hadoop.util.GenericOptionsParser;
+
+import com.esri.json.EsriFeatureClass;
+
+/**
+ * Pre-processing step: parse the Esri JSON features once and write them as a binary
+ * {@link FeatureIndex}, which the aggregation job then ships through the distributed cache
+ * so that mappers never need to parse JSON.
+ */
+public class FeatureIndexBuilder
+{
+	public static void main(String[] init_args) throws Exception {
+		Configuration config = new Configuration();
+
+		String [] args = new GenericOptionsParser(config, init_args).getRemainingArgs();
+
+		/*
+		 * Args
+		 *  [0] path to Esri JSON file
+		 *  [1] path to write the feature index
+		 *  [2] (optional) name of the attribute to use as the label, NAME by default
+		 */
+		if (args.length != 2 && args.length != 3)
+		{
+			System.out.println("Invalid Arguments");
+			print_usage();
+			throw new IllegalArgumentException();
+		}
+
+		String labelAttribute = args.length > 2 ? args[2] : "NAME";
+
+		EsriFeatureClass featureClass = null;
+		Path inputPath = new Path(args[0]);
+		FileSystem inputFs = inputPath.getFileSystem(config);
+		FSDataInputStream iStream = inputFs.open(inputPath);
+		try {
+			featureClass = EsriFeatureClass.fromJson(iStream);
+		}
+		finally
+		{
+			try {
+				iStream.close();
+			} catch (IOException e) { }
+		}
+
+		FeatureIndex index = FeatureIndex.fromFeatureClass(featureClass, labelAttribute);
+
+		Path outputPath = new Path(args[1]);
+		FSDataOutputStream oStream = outputPath.getFileSystem(config).create(outputPath, true);
+		try {
+			index.write(oStream);
+		}
+		finally
+		{
+			oStream.close();
+		}
+
+		System.out.println("Wrote " + index.size() + " features to " + outputPath);
+	}
+
+	static void print_usage()
+	{
+		System.out.println("***");
+		System.out.println("Usage: hadoop jar aggregation-sample.jar FeatureIndexBuilder -libjars [external jar references] [/hdfs/path/to]/filtergeometry.json [/hdfs/path/to]/filtergeometry.idx [label attribute]");
+		System.out.println("***");
+	}
+}
@@ -0,0 +1,207 @@
+package com.esri.hadoop.examples;
+
+import com.esri.core.geometry.Envelope2D;
+import com.esri.core.geometry.QuadTree;
+import com.esri.core.geometry.QuadTree.QuadTreeIterator;
+
+/**
+ * Bounded cache of point locations by cell, for inputs that repeat the same or nearly the same
+ * coordinates, such as parked cars or fixed stations.
+ *
+ * Coordinates are quantized to square cells of the given precision.  The first point in a cell
+ * classifies the whole cell, slightly enlarged by the geometry tolerance, against the candidate
+ * polygons.  The cell is remembered as inside one feature, as outside all features, or as UNKNOWN
+ * if it touches an edge, overlaps several features, or meets a feature that is not a polygon; points
+ * in UNKNOWN cells still go through the full test, so the answers are the same as without the cache.
+ * Points whose column or row does not fit in an int, which happens when the precision is very small
+ * for the coordinates, are not cached and are treated as UNKNOWN.
+ *
+ * Once full, entries are evicted in clock order: each lookup marks its entry, and the clock hand
+ * evicts the first unmarked entry it reaches, clearing marks on the way.
+ */
+public class LocationCache {
+
+	public static final int UNKNOWN = -2;  // the point must be tested against the features
+
+	final FeatureIndex features;
+	final QuadTree quadTree;
+	final QuadTreeIterator iterator;
+	final PreparedPolygon[] polygons;
+	final double precision, margin;
+
+	// entries, by position on the clock
+	final long[] cellKeys;
+	final int[] cellFeatures;
+	final boolean[] marked;
+	int size, hand;
+
+	// open addressing, with linear probing: entry number + 1 per slot, 0 for an empty slot
+	final int[] table;
+	final int mask;
+
+	final Envelope2D cell = new Envelope2D();
+	final Envelope2D featureEnvelope = new Envelope2D();
+
+	long hits, misses, unknown;
+
+	/**
+	 * @param polygons prepared polygon per feature, with null for features that are not polygons
+	 * @param precision side of the cells, in the units of the coordinates; must be positive
+	 * @param capacity maximum number of cells
+	 * @param tolerance margin around each cell when classifying it
+	 */
+	public LocationCache(FeatureIndex features, QuadTree quadTree, PreparedPolygon[] polygons,
+						 double precision, int capacity, double tolerance) {
+		if (!(precision > 0) || Double.isInfinite(precision)) {
+			throw new IllegalArgumentException("Cache precision must be positive: " + precision);
+		}
+		this.features = features;
+		this.quadTree = quadTree;
+		this.iterator = quadTree.getIterator();
+		this.polygons = polygons;
+		this.precision = precision;
+		this.margin = tolerance;
+
+		cellKeys = new long[capacity];
+		cellFeatures = new int[capacity];
+		marked = new boolean[capacity];
+		table = new int[Integer.highestOneBit(Math.max(1, capacity)) * 4];  // at most half full
+		mask = table.length - 1;
+	}
+
+	/**
+	 * @return index of the feature containing the point, -1 if none does, or UNKNOWN if the point
+	 *         must be tested
+	 */
+	public int lookup(double x, double y) {
+		double columnValue = Math.floor(x / precision), rowValue = Math.floor(y / precision);
+		if (!(columnValue >= Integer.MIN_VALUE && columnValue <= Integer.MAX_VALUE
+			  && rowValue >= Integer.MIN_VALUE && rowValue <= Integer.MAX_VALUE)) {
+			unknown++;  // an int cast would saturate, and distinct cells would share a key
+			return UNKNOWN;
+		}
+		int column = (int)columnValue, row = (int)rowValue;
+		long key = ((long)column << 32) | (row & 0xffffffffL);
+
+		int slot = find(key);
+		int result;
+		if (table[slot] != 0) {
+			int entry = table[slot] - 1;
+			marked[entry] = true;
+			result = cellFeatures[entry];
+			if (result != UNKNOWN) {
+				hits++;
+			}
+		} else {
+			misses++;
+			result = classify(column, row);
+			add(key, result);
+		}
+		if (result == UNKNOWN) {
+			unknown++;
+		}
+		return result;
+	}
+
+	/**
+	 * @return number of points answered by a cell already in the cache
+	 */
+	public long getHits() {
+		return hits;
+	}
+
+	/**
+	 * @return number of points whose cell was not in the cache, and so was classified
+	 */
+	public long getMisses() {
+		return misses;
+	}
+
+	/**
+	 * @return number of points in UNKNOWN cells, tested in full
+	 */
+	public long getUnknown() {
+		return unknown;
+	}
+
+	private int classify(int column, int row) {
+		double xMin = column * precision - margin, yMin = row * precision - margin;
+		double xMax = (column + 1) * precision + margin, yMax = (row + 1) * precision + margin;
+		cell.setCoords(xMin, yMin, xMax, yMax);
+		int result = -1;
+		iterator.resetIterator(cell, 0);
+		for (int handle = iterator.next(); handle >= 0; handle = iterator.next()) {
+			int featureIndex = quadTree.getElement(handle);
+			features.queryEnvelope(featureIndex, featureEnvelope);
+			if (!featureEnvelope.isIntersecting(cell)) {
+				continue;
+			}
+			PreparedPolygon polygon = polygons[featureIndex];
+			if (polygon == null) {
+				return UNKNOWN;
+			}
+			switch (polygon.classify(xMin, yMin, xMax, yMax)) {
+			case PreparedPolygon.BOUNDARY:
+				return UNKNOWN;
+			case PreparedPolygon.INSIDE:
+				if (result >= 0) {
+					return UNKNOWN;  // overlapping features: left to the quadtree query to pick one
+				}
+				result = featureIndex;
+				break;
+			}
+		}
+		return result;
+	}
+
+	private void add(long key, int result) {
+		int entry;
+		if (size < cellKeys.length) {
+			entry = size++;
+		} else {
+			while (marked[hand]) {
+				marked[hand] = false;
+				hand = (hand + 1) % cellKeys.length;
+			}
+			entry = hand;
+			hand = (hand + 1) % cellKeys.length;
+			remove(cellKeys[entry]);
+		}
+		cellKeys[entry] = key;
+		cellFeatures[entry] = result;
+		marked[entry] = false;
+		table[find(key)] = entry + 1;
+	}
+
+	/**
+	 * @return slot of the key, or the empty slot where it would go
+	 */
+	private int find(long key) {
+		int slot = home(key);
+		while (table[slot] != 0 && cellKeys[table[slot] - 1] != key) {
+			slot = (slot + 1) & mask;
+		}
+		return slot;
+	}
+
+	private int home(long key) {
+		return (int)((key * 0x9E3779B97F4A7C15L) >>> 32) & mask;
+	}
+
+	/**
+	 * Remove a key, shifting back the entries after it that would no longer be found
+	 */
+	private void remove(long key) {
+		int hole = find(key);
+		for (int slot = (hole + 1) & mask; table[slot] != 0; slot = (slot + 1) & mask) {
+			int home = home(cellKeys[table[slot] - 1]);
+			// the entry stays if its home lies cyclically in (hole, slot]
+			boolean stays = hole <= slot ? (hole < home && home <= slot) : (hole < home || home <= slot);
+			if (!stays) {
+				table[hole] = table[slot];
+				hole = slot;
+			}
+		}
+		table[hole] = 0;
+	}
+}
@@ -0,0 +1,45 @@
+package com.esri.hadoop.examples;
+
+import org.apache.hadoop.mapreduce.TaskInputOutputContext;
+
+/**
+ * Counts of values in power-of-two buckets, written out as the counters of one group, one counter per
+ * bucket, so that the framework sums the histograms of all the tasks of a job.  The trip-discovery
+ * sample compiles this source into its own jar as well.
+ */
+public class Log2Histogram {
+
+	final long[] buckets = new long[64];  // [0] for values up to 0; [k] for 2^(k-1) up to 2^k - 1
+
+	public void add(long value) {
+		buckets[value <= 0 ? 0 : 64 - Long.numberOfLeadingZeros(value)]++;
+	}
+
+	public void add(Log2Histogram other) {
+		for (int i = 0; i < buckets.length; i++) {
+			buckets[i] += other.buckets[i];
+		}
+	}
+
+	/**
+	 * Add the non-empty buckets to the counters of the group, named by their bounds
+	 */
+	public void writeCounters(TaskInputOutputContext<?, ?, ?, ?> context, String group) {
+		for (int i = 0; i < buckets.length; i++) {
+			if (buckets[i] > 0) {
+				context.getCounter(group, bucketName(i)).increment(buckets[i]);
+			}
+		}
+	}
+
+	/**
+	 * @return name that sorts by bucket, as counters are listed by name
+	 */
+	static String bucketName(int bucket) {
+		if (bucket == 0) {
+			return "00: 0";
+		}
+		long low = 1L << (bucket - 1);
+		return String.format("%02d: %d-%d", bucket, low, 2 * low - 1);
+	}
+}
@@ -1,17 +1,20 @@
 package com.esri.hadoop.examples;
+import java.io.File;
 import java.io.IOException;
 
 import org.apache.hadoop.conf.Configuration;
+import org.apache.hadoop.filecache.DistributedCache;
 import org.apache.hadoop.fs.FSDataInputStream;
 import org.apache.hadoop.fs.FileSystem;
+import org.apache.hadoop.fs.LocalFileSystem;
 import org.apache.hadoop.fs.Path;
 import org.apache.hadoop.io.IntWritable;
 import org.apache.hadoop.io.LongWritable;
 import org.apache.hadoop.io.Text;
 import org.apache.hadoop.mapreduce.Mapper;
+import org.apache.hadoop.mapreduce.TaskInputOutputContext;
 
-import com.esri.core.geometry.Envelope;
-import com.esri.core.geometry.Envelope2D;
+import com.esri.core.geometry.Geometry;
 import com.esri.core.geometry.GeometryEngine;
 import com.esri.core.geometry.Point;
 import com.esri.core.geometry.QuadTree;
@@ -22,6 +25,27 @@ import com.esri.json.EsriFeatureClass;
 
 public class MapperClass extends Mapper<LongWritable, Text, Text, IntWritable> {
 	
+	/**
+	 * Counters of the location cache, with sample.mapper.cache
+	 */
+	public static enum CachedLocations { HITS, MISSES, UNKNOWN }
+	
+	/**
+	 * Counters of the points and of the work to locate them
+	 */
+	public static enum Points {
+		PARSED,          // lines read as a point
+		MALFORMED,       // lines without a numeric longitude and latitude, skipped
+		CANDIDATES,      // features examined, per point, after the quadtree query
+		EXACT_TESTS,     // contains tests, with GeometryEngine or a prepared polygon
+		SETUP_MILLIS     // time to load the features and build the quadtree, prepared polygons and rasters
+	}
+	
+	/**
+	 * Group of the counters of the histogram of the time to locate a point, with sample.metrics.timing
+	 */
+	public static final String LOCATE_NANOS = "Locate time per point (ns)";
+	
 	// column indices for values in the CSV
 	int longitudeIndex;
 	int latitudeIndex;
@@ -30,19 +54,46 @@ public class MapperClass extends Mapper<LongWritable, Text, Text, IntWritable> {
 	// in ca_counties.json, the label for the polygon is "NAME"
 	String labelAttribute;
 	
-	EsriFeatureClass featureClass;
+	FeatureIndex features;
 	SpatialReference spatialReference;
 	QuadTree quadTree;
 	QuadTreeIterator quadTreeIter;
 	
-	private void buildQuadTree(){
-		quadTree = new QuadTree(new Envelope2D(-180, -90, 180, 90), 8);
-		
-		Envelope envelope = new Envelope();
-		for (int i=0;i<featureClass.features.length;i++){
-			featureClass.features[i].geometry.queryEnvelope(envelope);
-			quadTree.insert(i, new Envelope2D(envelope.getXMin(), envelope.getYMin(), envelope.getXMax(), envelope.getYMax()));
-		}
+	// when sample.features.accelerate is set, polygons prepared once for fast point tests
+	PreparedPolygon[] preparedPolygons;
+	
+	// when sample.features.raster is set, a coarse raster per polygon of cells inside, outside or on the boundary
+	PolygonRaster[] rasters;
+	
+	// when sample.mapper.combine is set, counts per feature index, with the last slot for points outside
+	// all features - written out once in cleanup() instead of one record per point
+	int[] featureCounts;
+	
+	// when sample.mapper.threads is above 1, lines go in batches to worker threads that share the quadtree
+	// and polygons, each with its own iterator and counts - merged in cleanup()
+	PointWorkers workers;
+	
+	// when sample.mapper.block is set, points are buffered and located a block at a time
+	PointBlockBuffer block;
+	
+	// when sample.mapper.cache is set, the feature of each cell of repeated coordinates, where exact
+	LocationCache locationCache;
+	
+	// counts of this thread, written out as counters in cleanup(), as counter lookups per point would cost more
+	final QueryStats stats = new QueryStats();
+	
+	// when sample.metrics.timing is N, the time to locate every Nth point, or each block per point
+	int timingInterval;
+	
+	// reused for every record, so that map() allocates nothing per line
+	final CsvFieldScanner scanner = new CsvFieldScanner(',');
+	final Point point = new Point();
+	final IntWritable one = new IntWritable(1);
+	final IntWritable count = new IntWritable();
+	Text[] labels;  // output key per feature, with the last one for points outside all features
+	
+	void buildQuadTree(){
+		quadTree = features.buildQuadTree();
 		
 		quadTreeIter = quadTree.getIterator();
 	}
@@ -51,9 +102,17 @@ public class MapperClass extends Mapper<LongWritable, Text, Text, IntWritable> {
 	 * Query the quadtree for the feature containing the given point
 	 * 
 	 * @param pt point as longitude, latitude
-	 * @return index to feature in featureClass or -1 if not found
+	 * @return index to feature in features or -1 if not found
+	 */
+	int queryQuadTree(Point pt)
+	{
+		return queryQuadTree(pt, quadTreeIter, stats);
+	}
+	
+	/**
+	 * Query the quadtree with an iterator and counts of the calling thread, as the worker threads share the quadtree
 	 */
-	private int queryQuadTree(Point pt)
+	int queryQuadTree(Point pt, QuadTreeIterator quadTreeIter, QueryStats stats)
 	{
 		// reset iterator to the quadrant envelope that contains the point passed
 		quadTreeIter.resetIterator(pt, 0);
@@ -62,12 +121,22 @@ public class MapperClass extends Mapper<LongWritable, Text, Text, IntWritable> {
 		
 		while (elmHandle >= 0){
 			int featureIndex = quadTree.getElement(elmHandle);
+			stats.candidates++;
 			
 			// we know the point and this feature are in the same quadrant, but we need to make sure the feature
-			// actually contains the point
-			if (GeometryEngine.contains(featureClass.features[featureIndex].geometry, pt, spatialReference)){
+			// actually contains the point - exactly, unless the raster of the feature answers for it
+			PolygonRaster raster = rasters == null ? null : rasters[featureIndex];
+			int location = raster == null ? PreparedPolygon.BOUNDARY : raster.locate(pt.getX(), pt.getY());
+			if (location == PreparedPolygon.INSIDE) {
 				return featureIndex;
 			}
+			if (location == PreparedPolygon.BOUNDARY) {
+				stats.exactTests++;
+				PreparedPolygon prepared = preparedPolygons == null ? null : preparedPolygons[featureIndex];
+				if (prepared != null ? prepared.contains(pt.getX(), pt.getY()) : contains(featureIndex, pt)){
+					return featureIndex;
+				}
+			}
 			
 			elmHandle = quadTreeIter.next();
 		}
@@ -76,6 +145,16 @@ public class MapperClass extends Mapper<LongWritable, Text, Text, IntWritable> {
 		return -1;
 	}
 	
+	private boolean contains(int featureIndex, Point pt) {
+		Geometry geometry = features.getGeometry(featureIndex);
+		if (workers == null) {
+			return GeometryEngine.contains(geometry, pt, spatialReference);
+		}
+		synchronized (geometry) {  // not prepared, so not known to be safe to share between threads
+			return GeometryEngine.contains(geometry, pt, spatialReference);
+		}
+	}
+	
 	
 	/**
 	 * Sets up mapper with filter geometry provided as argument[0] to the jar
@@ -83,7 +162,9 @@ public class MapperClass extends Mapper<LongWritable, Text, Text, IntWritable> {
 	@Override
 	public void setup(Context context)
 	{
+		long setupStart = System.currentTimeMillis();
 		Configuration config = context.getConfiguration();
+		checkOptions(config);
 		
 		spatialReference = SpatialReference.create(4326);
 
@@ -92,16 +173,24 @@ public class MapperClass extends Mapper<LongWritable, Text, Text, IntWritable> {
 		labelAttribute = config.get("sample.features.keyattribute", "NAME");
 		latitudeIndex = config.getInt("samples.csvdata.columns.lat", 1);
 		longitudeIndex = config.getInt("samples.csvdata.columns.long", 2);
+		timingInterval = config.getInt("sample.metrics.timing", 0);
+		
+		String indexName = config.get("sample.features.index");
 		
 		FSDataInputStream iStream = null;
 		
 		spatialReference = SpatialReference.create(4326);
 		
 		try {
-			// load the JSON file provided as argument 0
-			FileSystem hdfs = FileSystem.get(config);
-			iStream = hdfs.open(new Path(featuresPath));
-			featureClass = EsriFeatureClass.fromJson(iStream);
+			if (indexName != null) {
+				// map the binary index that the driver put in the distributed cache
+				features = FeatureIndex.load(findIndexFile(config, indexName, featuresPath));
+			} else {
+				// load the JSON file provided as argument 0
+				FileSystem hdfs = FileSystem.get(config);
+				iStream = hdfs.open(new Path(featuresPath));
+				features = FeatureIndex.fromFeatureClass(EsriFeatureClass.fromJson(iStream), labelAttribute);
+			}
 		} 
 		catch (Exception e)
 		{
@@ -118,9 +207,143 @@ public class MapperClass extends Mapper<LongWritable, Text, Text, IntWritable> {
 		}
 		
 		// build a quadtree of our features for fast queries
-		if (featureClass != null){
+		if (features != null){
 			buildQuadTree();
+			
+			if (config.getBoolean("sample.features.accelerate", false)) {
+				preparePolygons();
+			}
+			
+			int rasterResolution = config.getInt("sample.features.raster", 0);
+			if (rasterResolution > 0) {
+				buildRasters(rasterResolution);
+			}
+			
+			labels = new Text[features.size() + 1];
+			for (int i=0;i<features.size();i++){
+				String name = features.getLabel(i);
+				labels[i] = new Text(name == null ? "???" : name);
+			}
+			labels[features.size()] = new Text("*Outside Feature Set");
+			
+			if (config.getBoolean("sample.mapper.combine", false)) {
+				featureCounts = new int[features.size() + 1];
+			}
+			
+			int threads = config.getInt("sample.mapper.threads", 1);
+			int cacheSize = config.getInt("sample.mapper.cache", 0);
+			if (cacheSize > 0) {
+				locationCache = new LocationCache(features, quadTree,
+												  preparedPolygons != null ? preparedPolygons : prepare(features),
+												  Double.parseDouble(config.get("sample.mapper.cache.precision", "0.0001")),
+												  cacheSize, spatialReference.getTolerance());
+			}
+			
+			int blockSize = config.getInt("sample.mapper.block", 0);
+			if (threads > 1) {
+				startWorkers(threads, config.getInt("sample.mapper.batch", 1024), blockSize > 0);
+			} else if (blockSize > 0) {
+				block = new PointBlockBuffer(new PointBlockLocator(features, quadTree, preparedPolygons, rasters, spatialReference),
+											 blockSize);
+			}
+		}
+		
+		context.getCounter(Points.SETUP_MILLIS).increment(System.currentTimeMillis() - setupStart);
+	}
+	
+	/**
+	 * Reject the sample.mapper options that cannot be used together, or that would be ignored, rather
+	 * than run with a mode other than the one asked for
+	 */
+	static void checkOptions(Configuration config) {
+		int threads = config.getInt("sample.mapper.threads", 1);
+		int cacheSize = config.getInt("sample.mapper.cache", 0);
+		if (threads < 1) {
+			throw new IllegalArgumentException("sample.mapper.threads must be at least 1: " + threads);
+		}
+		if (config.getInt("sample.mapper.block", 0) < 0) {
+			throw new IllegalArgumentException("sample.mapper.block must not be negative");
+		}
+		if (cacheSize < 0) {
+			throw new IllegalArgumentException("sample.mapper.cache must not be negative");
+		}
+		if (config.get("sample.mapper.batch") != null) {
+			if (threads == 1) {
+				throw new IllegalArgumentException("sample.mapper.batch only applies with sample.mapper.threads");
+			}
+			if (config.getInt("sample.mapper.batch", 1024) < 1) {
+				throw new IllegalArgumentException("sample.mapper.batch must be at least 1");
+			}
+		}
+		if (cacheSize > 0 && threads > 1) {
+			// the cache is not safe to share, and one per worker would classify each cell once per worker
+			throw new IllegalArgumentException("sample.mapper.cache cannot be used with sample.mapper.threads");
+		}
+		if (cacheSize == 0 && config.get("sample.mapper.cache.precision") != null) {
+			throw new IllegalArgumentException("sample.mapper.cache.precision only applies with sample.mapper.cache");
+		}
+	}
+	
+	/**
+	 * Start the worker threads, with the polygons prepared and the geometries read from the index up front,
+	 * so that the threads only read what they share
+	 */
+	private void startWorkers(int threads, int batchSize, boolean locateBlocks) {
+		for (int i=0;i<features.size();i++){
+			features.getGeometry(i);
+		}
+		if (preparedPolygons == null) {
+			preparePolygons();
 		}
+		workers = new PointWorkers(this, threads, batchSize, locateBlocks);
+	}
+	
+	/**
+	 * Prepare each polygon once, so that each point test only looks at the edges near the point
+	 * rather than going through the full relational operator
+	 */
+	void preparePolygons() {
+		preparedPolygons = prepare(features);
+	}
+	
+	/**
+	 * Classify the cells of a raster over each polygon, with resolution cells along the longer side
+	 */
+	void buildRasters(int resolution) {
+		PreparedPolygon[] polygons = preparedPolygons != null ? preparedPolygons : prepare(features);
+		rasters = new PolygonRaster[features.size()];
+		for (int i=0;i<features.size();i++){
+			rasters[i] = PolygonRaster.create(polygons[i], resolution, spatialReference.getTolerance());
+		}
+	}
+	
+	static PreparedPolygon[] prepare(FeatureIndex features) {
+		PreparedPolygon[] polygons = new PreparedPolygon[features.size()];
+		for (int i=0;i<features.size();i++){
+			polygons[i] = PreparedPolygon.create(features.getGeometry(i));
+		}
+		return polygons;
+	}
+	
+	/**
+	 * Locate the local copy of the feature index in the distributed cache
+	 */
+	private File findIndexFile(Configuration config, String indexName, String featuresPath) throws IOException {
+		Path[] cacheFiles = DistributedCache.getLocalCacheFiles(config);
+		if (cacheFiles != null) {
+			for (Path cacheFile : cacheFiles) {
+				if (cacheFile.getName().equals(indexName)) {
+					return new File(cacheFile.toUri().getPath());
+				}
+			}
+		}
+		
+		// not localized, as when running in-process; usable as-is if already on the local file system
+		Path path = new Path(featuresPath);
+		if (path.getFileSystem(config) instanceof LocalFileSystem) {
+			return new File(path.toUri().getPath());
+		}
+		throw new IOException("Feature index not found in the distributed cache: " + indexName);
 	}
 	
 	@Override
@@ -135,33 +358,147 @@ public class MapperClass extends Mapper<LongWritable, Text, Text, IntWritable> {
 		// We know that the first line of the CSV is just headers, so at byte offset 0 we can just return
 		if (key.get() == 0) return;
 		
+		if (workers != null) {
+			workers.add(val);
+			return;
+		}
 		
-		String line = val.toString();
-		String [] values = line.split(",");
+		scanner.scan(val);
 		
 		// Note: We know the data coming in is clean, but in practice it's best not to
 		//       assume clean data.  This is especially true with big data processing
-		float latitude = Float.parseFloat(values[latitudeIndex]);
-		float longitude = Float.parseFloat(values[longitudeIndex]);
+		double latitude, longitude;
+		try {
+			latitude = scanner.getDouble(latitudeIndex);
+			longitude = scanner.getDouble(longitudeIndex);
+		} catch (NumberFormatException e) {
+			stats.malformed++;
+			return;
+		}
+		stats.parsed++;
+		
+		if (locationCache != null) {
+			int featureIndex = locationCache.lookup(longitude, latitude);
+			if (featureIndex != LocationCache.UNKNOWN) {
+				countPoint(featureIndex, context);
+				return;
+			}
+		}
+		
+		if (block != null) {
+			if (block.add(longitude, latitude)) {
+				locateBlock(context);
+			}
+			return;
+		}
+		
+		// Reuse our Point, setting it directly from longitude and latitude
+		point.setX(longitude);
+		point.setY(latitude);
 		
-		// Create our Point directly from longitude and latitude
-		Point point = new Point(longitude, latitude);
+		if (timingInterval > 0 && stats.parsed % timingInterval == 0) {
+			long start = System.nanoTime();
+			int featureIndex = queryQuadTree(point);
+			stats.locateNanos.add(System.nanoTime() - start);
+			countPoint(featureIndex, context);
+			return;
+		}
+		
+		countPoint(queryQuadTree(point), context);
+	}
+	
+	private void locateBlock(Context context) throws IOException, InterruptedException {
+		int[] located = block.locate(timingInterval > 0 ? stats.locateNanos : null);
+		for (int i = 0; i < block.size(); i++) {
+			countPoint(located[i], context);
+		}
+		block.clear();
+	}
+	
+	private void countPoint(int featureIndex, Context context) throws IOException, InterruptedException {
+		int slot = featureIndex >= 0 ? featureIndex : labels.length - 1;
+		
+		if (featureCounts != null) {
+			if (++featureCounts[slot] == Integer.MAX_VALUE) {  // flush before the count overflows
+				writeCount(slot, context);
+			}
+			return;
+		}
 		
 		// Each map only processes one earthquake record at a time, so we start out with our count 
 		// as 1.  Aggregation will occur in the combine/reduce stages
-		IntWritable one = new IntWritable(1);
+		context.write(labels[slot], one);
+	}
+	
+	/**
+	 * Writes out the counts aggregated in the mapper, if any
+	 */
+	@Override
+	public void cleanup(Context context) throws IOException, InterruptedException {
+		if (block != null) {
+			if (block.size() > 0) {
+				locateBlock(context);
+			}
+			stats.addLocator(block.getLocator());
+		}
+		if (locationCache != null) {
+			context.getCounter(CachedLocations.HITS).increment(locationCache.getHits());
+			context.getCounter(CachedLocations.MISSES).increment(locationCache.getMisses());
+			context.getCounter(CachedLocations.UNKNOWN).increment(locationCache.getUnknown());
+		}
+		if (workers != null) {
+			workers.finish();
+			workers.addStats(stats);
+			for (int slot = 0; slot < labels.length; slot++) {
+				long total = workers.getCount(slot);
+				for (; total > 0; total -= count.get()) {  // in counts that fit an IntWritable
+					count.set((int)Math.min(total, Integer.MAX_VALUE));
+					context.write(labels[slot], count);
+				}
+			}
+		}
+		if (featureCounts != null) {
+			for (int slot = 0; slot < featureCounts.length; slot++) {
+				if (featureCounts[slot] > 0) {
+					writeCount(slot, context);
+				}
+			}
+		}
+		stats.writeCounters(context);
+	}
+	
+	private void writeCount(int slot, Context context) throws IOException, InterruptedException {
+		count.set(featureCounts[slot]);
+		context.write(labels[slot], count);
+		featureCounts[slot] = 0;
+	}
+	
+	/**
+	 * Counts of the points of one thread, summed into counters in cleanup()
+	 */
+	static class QueryStats {
+		long parsed, malformed, candidates, exactTests;
+		final Log2Histogram locateNanos = new Log2Histogram();
 		
-		int featureIndex = queryQuadTree(point);
+		void add(QueryStats other) {
+			parsed += other.parsed;
+			malformed += other.malformed;
+			candidates += other.candidates;
+			exactTests += other.exactTests;
+			locateNanos.add(other.locateNanos);
+		}
 		
-		if (featureIndex >= 0){
-			String name = (String)featureClass.features[featureIndex].attributes.get(labelAttribute);
-			
-			if (name == null) 
-				name = "???";
-			
-			context.write(new Text(name), one);
-		} else {
-			context.write(new Text("*Outside Feature Set"), one);
+		void addLocator(PointBlockLocator locator) {
+			candidates += locator.getCandidates();
+			exactTests += locator.getExactTests();
+		}
+		
+		void writeCounters(TaskInputOutputContext<?, ?, ?, ?> context) {
+			context.getCounter(Points.PARSED).increment(parsed);
+			context.getCounter(Points.MALFORMED).increment(malformed);
+			context.getCounter(Points.CANDIDATES).increment(candidates);
+			context.getCounter(Points.EXACT_TESTS).increment(exactTests);
+			locateNanos.writeCounters(context, LOCATE_NANOS);
 		}
 	}
 }
@@ -0,0 +1,61 @@
+package com.esri.hadoop.examples;
+
+/**
+ * Points buffered until there are enough of them to locate as one block with a PointBlockLocator,
+ * for sample.mapper.block.  The map thread and each worker thread have a buffer of their own.
+ */
+public class PointBlockBuffer {
+
+	final PointBlockLocator locator;
+	final double[] xs, ys;
+	int[] located;
+	int size;
+
+	/**
+	 * @param capacity number of points in a full block
+	 */
+	public PointBlockBuffer(PointBlockLocator locator, int capacity) {
+		this.locator = locator;
+		xs = new double[capacity];
+		ys = new double[capacity];
+	}
+
+	/**
+	 * @return true if the buffer is now full, and must be located and cleared before the next point
+	 */
+	public boolean add(double x, double y) {
+		xs[size] = x;
+		ys[size] = y;
+		return ++size == xs.length;
+	}
+
+	/**
+	 * @return number of points buffered
+	 */
+	public int size() {
+		return size;
+	}
+
+	/**
+	 * Locate the buffered points, which stay buffered until cleared
+	 *
+	 * @param locateNanos histogram of the time per point of the block, or null not to time it
+	 * @return index of the feature containing each buffered point, or -1 if none does, in the first size() entries
+	 */
+	public int[] locate(Log2Histogram locateNanos) {
+		long start = System.nanoTime();
+		located = locator.locate(xs, ys, size, located);
+		if (locateNanos != null && size > 0) {
+			locateNanos.add((System.nanoTime() - start) / size);
+		}
+		return located;
+	}
+
+	public void clear() {
+		size = 0;
+	}
+
+	public PointBlockLocator getLocator() {
+		return locator;
+	}
+}
@@ -0,0 +1,189 @@
+package com.esri.hadoop.examples;
+
+import java.util.Arrays;
+
+import com.esri.core.geometry.Envelope2D;
+import com.esri.core.geometry.Geometry;
+import com.esri.core.geometry.GeometryEngine;
+import com.esri.core.geometry.Point;
+import com.esri.core.geometry.QuadTree;
+import com.esri.core.geometry.QuadTree.QuadTreeIterator;
+import com.esri.core.geometry.SpatialReference;
+
+/**
+ * Locates a block of points in the features at once, rather than one point at a time.
+ *
+ * The points are sorted along a Hilbert curve over the extent of the block and cut into groups of
+ * neighboring points.  The quadtree is queried once per group, with the envelope of the group, and each
+ * candidate feature is then tested against all the points of the group that lie in its envelope - so
+ * that one polygon's edges stay in cache across many points.
+ *
+ * The quadtree, features and prepared polygons may be shared between threads, each with a locator of
+ * its own.  Features that are not prepared are tested with GeometryEngine.contains, holding the lock of
+ * the geometry.  Where features overlap, a point in several of them goes to one of them, as with
+ * MapperClass.queryQuadTree.
+ */
+public class PointBlockLocator {
+
+	static final int GROUP_SIZE = 64;     // points per quadtree query
+	static final int HILBERT_ORDER = 15;  // bits per axis, for Hilbert indices that sort as positive ints
+
+	final FeatureIndex features;
+	final QuadTree quadTree;
+	final QuadTreeIterator iterator;
+	final PreparedPolygon[] preparedPolygons;
+	final PolygonRaster[] rasters;
+	final SpatialReference spatialReference;
+
+	// reused from block to block
+	long[] keys = new long[0];  // Hilbert index in the high 32 bits, point index in the low 32 bits
+	final Envelope2D groupEnvelope = new Envelope2D();
+	final Envelope2D featureEnvelope = new Envelope2D();
+	final Point point = new Point();
+
+	// over all blocks, for counters
+	long candidates, exactTests;
+
+	/**
+	 * @param preparedPolygons prepared polygon per feature, with null for those not prepared; or null for none
+	 * @param rasters raster per feature, with null for those without one; or null for none
+	 */
+	public PointBlockLocator(FeatureIndex features, QuadTree quadTree, PreparedPolygon[] preparedPolygons,
+							 PolygonRaster[] rasters, SpatialReference spatialReference) {
+		this.features = features;
+		this.quadTree = quadTree;
+		this.iterator = quadTree.getIterator();
+		this.preparedPolygons = preparedPolygons;
+		this.rasters = rasters;
+		this.spatialReference = spatialReference;
+	}
+
+	/**
+	 * Locate the first count points of xs, ys
+	 *
+	 * @param result array to fill if long enough, or null
+	 * @return index of the feature containing each point, or -1 if none
+	 */
+	public int[] locate(double[] xs, double[] ys, int count, int[] result) {
+		if (result == null || result.length < count) {
+			result = new int[count];
+		}
+		Arrays.fill(result, 0, count, -1);
+		if (count == 0) {
+			return result;
+		}
+
+		sortPoints(xs, ys, count);
+
+		for (int group = 0; group < count; group += GROUP_SIZE) {
+			int end = Math.min(count, group + GROUP_SIZE);
+			groupEnvelope.setEmpty();
+			for (int i = group; i < end; i++) {
+				int p = (int)keys[i];
+				groupEnvelope.merge(xs[p], ys[p]);
+			}
+
+			int unresolved = end - group;
+			iterator.resetIterator(groupEnvelope, 0);
+			for (int handle = iterator.next(); handle >= 0 && unresolved > 0; handle = iterator.next()) {
+				int featureIndex = quadTree.getElement(handle);
+				features.queryEnvelope(featureIndex, featureEnvelope);
+				if (!featureEnvelope.isIntersecting(groupEnvelope)) {
+					continue;
+				}
+
+				PolygonRaster raster = rasters == null ? null : rasters[featureIndex];
+				PreparedPolygon prepared = preparedPolygons == null ? null : preparedPolygons[featureIndex];
+				Geometry geometry = prepared == null ? features.getGeometry(featureIndex) : null;
+				for (int i = group; i < end; i++) {
+					int p = (int)keys[i];
+					if (result[p] >= 0 || !featureEnvelope.contains(xs[p], ys[p])) {
+						continue;
+					}
+					candidates++;
+					int location = raster == null ? PreparedPolygon.BOUNDARY : raster.locate(xs[p], ys[p]);
+					if (location == PreparedPolygon.BOUNDARY) {
+						exactTests++;
+					}
+					if (location == PreparedPolygon.INSIDE ||
+						location == PreparedPolygon.BOUNDARY &&
+						(prepared != null ? prepared.contains(xs[p], ys[p]) : contains(geometry, xs[p], ys[p]))) {
+						result[p] = featureIndex;
+						unresolved--;
+					}
+				}
+			}
+		}
+		return result;
+	}
+
+	/**
+	 * @return number of points tested against a feature whose envelope holds them, over all blocks
+	 */
+	public long getCandidates() {
+		return candidates;
+	}
+
+	/**
+	 * @return number of exact contains tests, over all blocks
+	 */
+	public long getExactTests() {
+		return exactTests;
+	}
+
+	private boolean contains(Geometry geometry, double x, double y) {
+		point.setXY(x, y);
+		synchronized (geometry) {  // not prepared, so not known to be safe to share between threads
+			return GeometryEngine.contains(geometry, point, spatialReference);
+		}
+	}
+
+	/**
+	 * Sort the point indices into keys, by Hilbert index on a 2^15 x 2^15 grid over the extent of the points
+	 */
+	private void sortPoints(double[] xs, double[] ys, int count) {
+		double xMin = xs[0], yMin = ys[0], xMax = xs[0], yMax = ys[0];
+		for (int i = 1; i < count; i++) {
+			xMin = Math.min(xMin, xs[i]);
+			xMax = Math.max(xMax, xs[i]);
+			yMin = Math.min(yMin, ys[i]);
+			yMax = Math.max(yMax, ys[i]);
+		}
+		int cells = 1 << HILBERT_ORDER;
+		double xScale = xMax > xMin ? (cells - 1) / (xMax - xMin) : 0;
+		double yScale = yMax > yMin ? (cells - 1) / (yMax - yMin) : 0;
+
+		if (keys.length < count) {
+			keys = new long[count];
+		}
+		for (int i = 0; i < count; i++) {
+			int hx = (int)((xs[i] - xMin) * xScale);
+			int hy = (int)((ys[i] - yMin) * yScale);
+			keys[i] = ((long)hilbertIndex(hx, hy, HILBERT_ORDER) << 32) | i;
+		}
+		Arrays.sort(keys, 0, count);
+	}
+
+	/**
+	 * @return distance along the Hilbert curve of the given order to cell x, y
+	 */
+	static int hilbertIndex(int x, int y, int order) {
+		int n = 1 << order, d = 0;
+		for (int s = n >>> 1; s > 0; s >>>= 1) {
+			int rx = (x & s) != 0 ? 1 : 0;
+			int ry = (y & s) != 0 ? 1 : 0;
+			d += s * s * ((3 * rx) ^ ry);
+			// rotate the quadrant, so that the curve within it runs the right way
+			if (ry == 0) {
+				if (rx == 1) {
+					x = n - 1 - x;
+					y = n - 1 - y;
+				}
+				int t = x;
+				x = y;
+				y = t;
+			}
+		}
+		return d;
+	}
+}
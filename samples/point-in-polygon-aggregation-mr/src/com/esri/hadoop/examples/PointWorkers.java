@@ -0,0 +1,233 @@
+package com.esri.hadoop.examples;
+
+import java.io.IOException;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.LinkedBlockingQueue;
+
+import org.apache.hadoop.io.Text;
+
+import com.esri.core.geometry.Point;
+import com.esri.core.geometry.QuadTree.QuadTreeIterator;
+
+/**
+ * Worker threads that locate the points of a map task, for sample.mapper.threads.  The map thread copies
+ * lines into batches and hands each batch to a worker.  The workers share the mapper's quadtree, prepared
+ * polygons and rasters, which they only read, and each has its own scanner, point, quadtree iterator and
+ * counts per feature - or, with sample.mapper.block, its own block buffer, filled with each batch.
+ *
+ * A worker that fails keeps taking batches without reading them, so that the map thread finds the failure
+ * on its next hand-over rather than waits on it.
+ */
+public class PointWorkers {
+
+	final MapperClass mapper;
+	final Worker[] workers;
+	final BlockingQueue<LineBatch> fullBatches, freeBatches;
+	LineBatch batch;
+
+	/**
+	 * Start the workers
+	 *
+	 * @param mapper mapper set up with the features, quadtree and prepared polygons that the workers share
+	 * @param batchSize number of lines per batch
+	 * @param locateBlocks whether each batch is located as one block
+	 */
+	public PointWorkers(MapperClass mapper, int threads, int batchSize, boolean locateBlocks) {
+		this.mapper = mapper;
+
+		// twice as many batches as threads, so that the workers need not wait for the reader
+		freeBatches = new ArrayBlockingQueue<LineBatch>(2 * threads);
+		for (int i=0;i<2*threads;i++){
+			freeBatches.add(new LineBatch(batchSize));
+		}
+		fullBatches = new LinkedBlockingQueue<LineBatch>();
+		batch = new LineBatch(batchSize);
+
+		workers = new Worker[threads];
+		for (int i=0;i<threads;i++){
+			workers[i] = new Worker(mapper.labels.length, locateBlocks ? batchSize : 0);
+			workers[i].setName("point-in-polygon-" + i);
+			workers[i].setDaemon(true);
+			workers[i].start();
+		}
+	}
+
+	/**
+	 * Copy a line into the current batch, handing the batch over once full
+	 */
+	public void add(Text line) throws IOException, InterruptedException {
+		batch.add(line);
+		if (batch.isFull()) {
+			dispatch();
+		}
+	}
+
+	/**
+	 * Hand over the last lines, then wait for the workers to finish them
+	 */
+	public void finish() throws IOException, InterruptedException {
+		if (batch.size() > 0) {
+			dispatch();
+		}
+		for (int i=0;i<workers.length;i++){
+			fullBatches.put(LineBatch.END);
+		}
+		for (Worker worker : workers) {
+			worker.join();
+		}
+		checkWorkers();
+	}
+
+	/**
+	 * @return number of points located in a slot by all the workers, once finished
+	 */
+	public long getCount(int slot) {
+		long total = 0;
+		for (Worker worker : workers) {
+			total += worker.counts[slot];
+		}
+		return total;
+	}
+
+	/**
+	 * Add the counts of the work of all the workers, once finished
+	 */
+	void addStats(MapperClass.QueryStats stats) {
+		for (Worker worker : workers) {
+			stats.add(worker.stats);
+			if (worker.block != null) {
+				stats.addLocator(worker.block.getLocator());
+			}
+		}
+	}
+
+	private void dispatch() throws IOException, InterruptedException {
+		checkWorkers();
+		fullBatches.put(batch);
+		batch = freeBatches.take();
+	}
+
+	private void checkWorkers() throws IOException {
+		for (Worker worker : workers) {
+			if (worker.failure != null) {
+				throw new IOException("Worker thread failed", worker.failure);
+			}
+		}
+	}
+
+	/**
+	 * Lines copied out of the reused Text of map(), end to end
+	 */
+	static class LineBatch {
+		static final LineBatch END = new LineBatch(0);  // no more batches
+
+		byte[] bytes = new byte[64];
+		final int[] ends;
+		int size;
+
+		LineBatch(int capacity) {
+			ends = new int[capacity];
+		}
+
+		void add(Text line) {
+			int start = size == 0 ? 0 : ends[size-1];
+			int end = start + line.getLength();
+			if (end > bytes.length) {
+				byte[] tmp = new byte[Math.max(end, 2 * bytes.length)];
+				System.arraycopy(bytes, 0, tmp, 0, start);
+				bytes = tmp;
+			}
+			System.arraycopy(line.getBytes(), 0, bytes, start, line.getLength());
+			ends[size++] = end;
+		}
+
+		int size() {
+			return size;
+		}
+
+		boolean isFull() {
+			return size == ends.length;
+		}
+	}
+
+	/**
+	 * Worker thread: counts the points of the batches by feature, in the slots of the mapper's labels
+	 */
+	class Worker extends Thread {
+		final long[] counts;
+		final MapperClass.QueryStats stats = new MapperClass.QueryStats();
+		final CsvFieldScanner scanner = new CsvFieldScanner(',');
+		final Point point = new Point();
+		final QuadTreeIterator iterator = mapper.quadTree.getIterator();
+		final PointBlockBuffer block;
+		volatile Throwable failure;
+
+		Worker(int slots, int blockSize) {
+			counts = new long[slots];
+			block = blockSize > 0 ? new PointBlockBuffer(new PointBlockLocator(mapper.features, mapper.quadTree,
+																			   mapper.preparedPolygons, mapper.rasters,
+																			   mapper.spatialReference), blockSize) : null;
+		}
+
+		@Override
+		public void run() {
+			try {
+				for (LineBatch lines = fullBatches.take(); lines != LineBatch.END; lines = fullBatches.take()) {
+					if (failure == null) {
+						try {
+							count(lines);
+						} catch (Throwable e) {
+							failure = e;
+						}
+					}
+					lines.size = 0;
+					freeBatches.put(lines);
+				}
+			} catch (InterruptedException e) {
+				failure = e;
+			}
+		}
+
+		private void count(LineBatch lines) {
+			int timingInterval = mapper.timingInterval;
+			for (int i=0, start=0; i<lines.size; start=lines.ends[i++]){
+				scanner.scan(lines.bytes, start, lines.ends[i] - start);
+				double longitude, latitude;
+				try {
+					longitude = scanner.getDouble(mapper.longitudeIndex);
+					latitude = scanner.getDouble(mapper.latitudeIndex);
+				} catch (NumberFormatException e) {
+					stats.malformed++;
+					continue;
+				}
+				stats.parsed++;
+
+				if (block != null) {
+					block.add(longitude, latitude);
+					continue;
+				}
+
+				point.setX(longitude);
+				point.setY(latitude);
+				int featureIndex;
+				if (timingInterval > 0 && stats.parsed % timingInterval == 0) {
+					long begin = System.nanoTime();
+					featureIndex = mapper.queryQuadTree(point, iterator, stats);
+					stats.locateNanos.add(System.nanoTime() - begin);
+				} else {
+					featureIndex = mapper.queryQuadTree(point, iterator, stats);
+				}
+				counts[featureIndex >= 0 ? featureIndex : counts.length - 1]++;
+			}
+
+			if (block != null && block.size() > 0) {
+				int[] located = block.locate(timingInterval > 0 ? stats.locateNanos : null);
+				for (int i=0; i<block.size(); i++){
+					counts[located[i] >= 0 ? located[i] : counts.length - 1]++;
+				}
+				block.clear();
+			}
+		}
+	}
+}
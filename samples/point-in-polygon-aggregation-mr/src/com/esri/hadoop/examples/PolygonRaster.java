@@ -0,0 +1,72 @@
+package com.esri.hadoop.examples;
+
+/**
+ * Coarse raster over the envelope of a polygon, with each cell classified once as inside, outside or
+ * on the boundary.  Most points of a large polygon fall in inside or outside cells and are answered by
+ * one array lookup; only points in boundary cells need an exact test.
+ *
+ * Cells are classified enlarged by the geometry tolerance, so that an inside or outside cell gets the
+ * same answer as GeometryEngine.contains, or PreparedPolygon.contains, for every point in it.
+ */
+public class PolygonRaster {
+
+	final double xMin, yMin, xMax, yMax;
+	final double xScale, yScale;  // cells per unit
+	final int columns, rows;
+	final byte[] cells;           // PreparedPolygon.INSIDE, OUTSIDE or BOUNDARY, row by row
+
+	/**
+	 * @param resolution number of cells along the longer side of the envelope
+	 * @param tolerance margin around each cell when classifying it
+	 */
+	public static PolygonRaster create(PreparedPolygon polygon, int resolution, double tolerance) {
+		return polygon == null ? null : new PolygonRaster(polygon, resolution, tolerance);
+	}
+
+	private PolygonRaster(PreparedPolygon polygon, int resolution, double tolerance) {
+		xMin = polygon.xMin;
+		yMin = polygon.yMin;
+		xMax = polygon.xMax;
+		yMax = polygon.yMax;
+
+		double cellSize = Math.max(xMax - xMin, yMax - yMin) / resolution;
+		columns = cellSize > 0 ? Math.max(1, (int)Math.ceil((xMax - xMin) / cellSize)) : 1;
+		rows = cellSize > 0 ? Math.max(1, (int)Math.ceil((yMax - yMin) / cellSize)) : 1;
+		xScale = cellSize > 0 ? 1 / cellSize : 0;
+		yScale = xScale;
+
+		cells = new byte[columns * rows];
+		for (int row = 0; row < rows; row++) {
+			double y0 = yMin + row * cellSize - tolerance, y1 = yMin + (row + 1) * cellSize + tolerance;
+			for (int column = 0; column < columns; column++) {
+				double x0 = xMin + column * cellSize - tolerance, x1 = xMin + (column + 1) * cellSize + tolerance;
+				cells[row * columns + column] = (byte)polygon.classify(x0, y0, x1, y1);
+			}
+		}
+	}
+
+	/**
+	 * @return PreparedPolygon.INSIDE or OUTSIDE, or BOUNDARY if the point needs an exact test
+	 */
+	public int locate(double x, double y) {
+		if (x < xMin || x > xMax || y < yMin || y > yMax) {
+			return PreparedPolygon.OUTSIDE;
+		}
+		int column = Math.min((int)((x - xMin) * xScale), columns - 1);
+		int row = Math.min((int)((y - yMin) * yScale), rows - 1);
+		return cells[row * columns + column];
+	}
+
+	/**
+	 * @return fraction of the cells on the boundary
+	 */
+	public double getBoundaryFraction() {
+		int boundary = 0;
+		for (byte cell : cells) {
+			if (cell == PreparedPolygon.BOUNDARY) {
+				boundary++;
+			}
+		}
+		return (double)boundary / cells.length;
+	}
+}
@@ -0,0 +1,167 @@
+package com.esri.hadoop.examples;
+
+import com.esri.core.geometry.Envelope;
+import com.esri.core.geometry.Geometry;
+import com.esri.core.geometry.MultiPath;
+import com.esri.core.geometry.Point;
+
+/**
+ * A polygon prepared once for many point-in-polygon tests.
+ *
+ * The edges are bucketed into horizontal slabs, so a test only runs the ray-crossing (even-odd)
+ * check against the edges in the slab of the point, rather than against every edge of the polygon.
+ * Holes need no special handling with the even-odd rule.
+ *
+ * Each edge is copied into every slab it spans.  For the usual boundary of many short edges that is about
+ * one slab per edge, but memory is O(edges x slabs) in the worst case: a polygon with many long edges
+ * spanning most of its height, such as a comb of thin vertical teeth, holds a copy of each of them in
+ * almost every one of its up to MAX_SLABS slabs.
+ *
+ * Like GeometryEngine.contains, points strictly inside are contained; points lying within the
+ * geometry tolerance of an edge may be classified differently than by GeometryEngine.contains.
+ */
+public class PreparedPolygon {
+
+	static final int SEGMENTS_PER_SLAB = 4;  // target, before counting edges that span several slabs
+	static final int MAX_SLABS = 1 << 16;
+
+	// results of classify
+	public static final int OUTSIDE = 0;
+	public static final int INSIDE = 1;
+	public static final int BOUNDARY = 2;
+
+	final double xMin, yMin, xMax, yMax;
+	final double slabScale;     // slabs per unit of y
+	final int slabCount;
+	final int[] slabStart;      // offsets into slabSegments, per slab
+	final double[] slabSegments;  // x1, y1, x2, y2 of each edge, copied into each slab it spans
+
+	/**
+	 * @return prepared polygon, or null if the geometry is not a polygon
+	 */
+	public static PreparedPolygon create(Geometry geometry) {
+		if (geometry == null || geometry.getType() != Geometry.Type.Polygon || geometry.isEmpty()) {
+			return null;
+		}
+		return new PreparedPolygon((MultiPath)geometry);
+	}
+
+	private PreparedPolygon(MultiPath polygon) {
+		Envelope envelope = new Envelope();
+		polygon.queryEnvelope(envelope);
+		xMin = envelope.getXMin();
+		yMin = envelope.getYMin();
+		xMax = envelope.getXMax();
+		yMax = envelope.getYMax();
+
+		// every ring is implicitly closed, so there are as many edges as vertices
+		int segmentCount = polygon.getPointCount();
+		double[] segments = new double[4 * segmentCount];
+		Point vertex = new Point();
+		int seg = 0;
+		for (int path = 0; path < polygon.getPathCount(); path++) {
+			int start = polygon.getPathStart(path), end = polygon.getPathEnd(path);
+			polygon.getPoint(end - 1, vertex);
+			double prevX = vertex.getX(), prevY = vertex.getY();
+			for (int i = start; i < end; i++) {
+				polygon.getPoint(i, vertex);
+				segments[seg++] = prevX;
+				segments[seg++] = prevY;
+				segments[seg++] = prevX = vertex.getX();
+				segments[seg++] = prevY = vertex.getY();
+			}
+		}
+
+		slabCount = Math.max(1, Math.min(MAX_SLABS, segmentCount / SEGMENTS_PER_SLAB));
+		double height = yMax - yMin;
+		slabScale = height > 0 ? slabCount / height : 0;
+
+		// count, then fill, the edges of each slab
+		slabStart = new int[slabCount + 1];
+		for (seg = 0; seg < segments.length; seg += 4) {
+			int lo = slabOf(Math.min(segments[seg+1], segments[seg+3]));
+			int hi = slabOf(Math.max(segments[seg+1], segments[seg+3]));
+			for (int slab = lo; slab <= hi; slab++) {
+				slabStart[slab + 1]++;
+			}
+		}
+		for (int slab = 0; slab < slabCount; slab++) {
+			slabStart[slab + 1] += slabStart[slab];
+		}
+		slabSegments = new double[4 * slabStart[slabCount]];
+		int[] fill = new int[slabCount];
+		for (seg = 0; seg < segments.length; seg += 4) {
+			int lo = slabOf(Math.min(segments[seg+1], segments[seg+3]));
+			int hi = slabOf(Math.max(segments[seg+1], segments[seg+3]));
+			for (int slab = lo; slab <= hi; slab++) {
+				System.arraycopy(segments, seg, slabSegments, 4 * (slabStart[slab] + fill[slab]++), 4);
+			}
+		}
+	}
+
+	private int slabOf(double y) {
+		int slab = (int)((y - yMin) * slabScale);
+		return slab < 0 ? 0 : (slab < slabCount ? slab : slabCount - 1);
+	}
+
+	/**
+	 * @return whether the point x,y is inside the polygon
+	 */
+	public boolean contains(double x, double y) {
+		if (x < xMin || x > xMax || y < yMin || y > yMax) {
+			return false;
+		}
+
+		int slab = slabOf(y);
+		boolean inside = false;
+		for (int seg = 4 * slabStart[slab], end = 4 * slabStart[slab + 1]; seg < end; seg += 4) {
+			double x1 = slabSegments[seg], y1 = slabSegments[seg+1];
+			double x2 = slabSegments[seg+2], y2 = slabSegments[seg+3];
+			// the edge crosses the horizontal line through the point, to the right of the point
+			if ((y1 > y) != (y2 > y) && x < x1 + (y - y1) * (x2 - x1) / (y2 - y1)) {
+				inside = !inside;
+			}
+		}
+		return inside;
+	}
+
+	/**
+	 * Classify a rectangle against the polygon.  A rectangle that no edge touches lies wholly inside or
+	 * wholly outside, so every point of it gets the same answer from contains.
+	 *
+	 * @return INSIDE, OUTSIDE, or BOUNDARY if an edge touches the rectangle
+	 */
+	public int classify(double rectXMin, double rectYMin, double rectXMax, double rectYMax) {
+		if (rectXMax < xMin || rectXMin > xMax || rectYMax < yMin || rectYMin > yMax) {
+			return OUTSIDE;
+		}
+
+		for (int slab = slabOf(rectYMin), last = slabOf(rectYMax); slab <= last; slab++) {
+			for (int seg = 4 * slabStart[slab], end = 4 * slabStart[slab + 1]; seg < end; seg += 4) {
+				if (touches(slabSegments[seg], slabSegments[seg+1], slabSegments[seg+2], slabSegments[seg+3],
+							rectXMin, rectYMin, rectXMax, rectYMax)) {
+					return BOUNDARY;
+				}
+			}
+		}
+		return contains((rectXMin + rectXMax) / 2, (rectYMin + rectYMax) / 2) ? INSIDE : OUTSIDE;
+	}
+
+	/**
+	 * @return whether the edge x1,y1 - x2,y2 touches the closed rectangle
+	 */
+	private static boolean touches(double x1, double y1, double x2, double y2,
+								   double rectXMin, double rectYMin, double rectXMax, double rectYMax) {
+		if (Math.max(x1, x2) < rectXMin || Math.min(x1, x2) > rectXMax ||
+			Math.max(y1, y2) < rectYMin || Math.min(y1, y2) > rectYMax) {
+			return false;
+		}
+		// the envelopes overlap, so the edge misses only if all four corners are strictly on one side of its line
+		double dx = x2 - x1, dy = y2 - y1;
+		double a = dx * (rectYMin - y1) - dy * (rectXMin - x1);
+		double b = dx * (rectYMin - y1) - dy * (rectXMax - x1);
+		double c = dx * (rectYMax - y1) - dy * (rectXMin - x1);
+		double d = dx * (rectYMax - y1) - dy * (rectXMax - x1);
+		return !((a > 0 && b > 0 && c > 0 && d > 0) || (a < 0 && b < 0 && c < 0 && d < 0));
+	}
+}
@@ -0,0 +1,63 @@
+package com.esri.hadoop.examples;
+
+import java.util.List;
+
+import com.esri.core.geometry.Envelope2D;
+
+/**
+ * A grid of square tiles, in degrees, over the whole world.
+ *
+ * Tiles include their left and bottom edges but not their right and top edges, so that every
+ * point belongs to exactly one tile.  Tile IDs number the tiles row by row from the south-west.
+ */
+public class TileGrid implements Tiling {
+
+	final double tileSize;
+	final int columns, rows;
+
+	public TileGrid(double tileSize) {
+		if (!(tileSize > 0 && tileSize <= 180)) {
+			throw new IllegalArgumentException("Tile size must be between 0 and 180 degrees: " + tileSize);
+		}
+		this.tileSize = tileSize;
+		columns = (int)Math.ceil(360 / tileSize);
+		rows = (int)Math.ceil(180 / tileSize);
+	}
+
+	public int getColumn(double longitude) {
+		int column = (int)Math.floor((longitude + 180) / tileSize);
+		return column < 0 ? 0 : (column < columns ? column : columns - 1);
+	}
+
+	public int getRow(double latitude) {
+		int row = (int)Math.floor((latitude + 90) / tileSize);
+		return row < 0 ? 0 : (row < rows ? row : rows - 1);
+	}
+
+	public long getTile(int column, int row) {
+		return (long)row * columns + column;
+	}
+
+	@Override
+	public long getTile(double longitude, double latitude) {
+		return getTile(getColumn(longitude), getRow(latitude));
+	}
+
+	@Override
+	public void queryTiles(Envelope2D envelope, List<Long> tiles) {
+		int colMin = getColumn(envelope.getLowerLeft().getX()), colMax = getColumn(envelope.getUpperRight().getX());
+		int rowMin = getRow(envelope.getLowerLeft().getY()), rowMax = getRow(envelope.getUpperRight().getY());
+		for (int row = rowMin; row <= rowMax; row++) {
+			for (int col = colMin; col <= colMax; col++) {
+				tiles.add(getTile(col, row));
+			}
+		}
+	}
+
+	@Override
+	public void queryExtent(long tile, Envelope2D extent) {
+		int column = (int)(tile % columns), row = (int)(tile / columns);
+		extent.setCoords(-180 + column * tileSize, -90 + row * tileSize,
+						 -180 + (column + 1) * tileSize, -90 + (row + 1) * tileSize);
+	}
+}
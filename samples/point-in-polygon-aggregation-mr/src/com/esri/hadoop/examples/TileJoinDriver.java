@@ -0,0 +1,162 @@
+package com.esri.hadoop.examples;
+
+import org.apache.hadoop.conf.Configuration;
+import org.apache.hadoop.fs.FSDataOutputStream;
+import org.apache.hadoop.fs.FileSystem;
+import org.apache.hadoop.fs.Path;
+import org.apache.hadoop.io.IntWritable;
+import org.apache.hadoop.io.Text;
+import org.apache.hadoop.mapred.JobClient;
+import org.apache.hadoop.mapred.RunningJob;
+import org.apache.hadoop.mapred.lib.MultipleInputs;
+import org.apache.hadoop.mapreduce.Counters;
+import org.apache.hadoop.mapreduce.Job;
+import org.apache.hadoop.mapreduce.Mapper;
+import org.apache.hadoop.mapreduce.lib.input.SequenceFileInputFormat;
+import org.apache.hadoop.mapreduce.lib.output.TextOutputFormat;
+import org.apache.hadoop.util.GenericOptionsParser;
+
+import com.esri.json.hadoop.EnclosedJsonInputFormat;
+import com.esri.json.hadoop.UnenclosedJsonInputFormat;
+
+/**
+ * Same aggregation as AggregationSampleDriver, for polygon layers too large to give every mapper a copy.
+ *
+ * The first job partitions both the points and the polygons by tile, copying each polygon to every
+ * tile it overlaps, and each reducer finds the polygon containing each point one tile at a time.
+ * The second job sums the counts of each label over all tiles.
+ *
+ * The first job reads the features with the JSON input formats of the spatial SDK, which use the
+ * org.apache.hadoop.mapred API, hence MultipleInputs from that API to read points and polygons together.
+ * That API is deprecated in this Hadoop version, so the classes of the first job suppress the deprecation
+ * warnings, and name its deprecated classes in full rather than import them, as a suppression does not
+ * cover imports when compiling for Java 8.
+ */
+@SuppressWarnings("deprecation")
+public class TileJoinDriver
+{
+	public static void main(String[] init_args) throws Exception {
+		Configuration config = new Configuration();
+
+		String [] args = new GenericOptionsParser(config, init_args).getRemainingArgs();
+
+		/*
+		 * Args
+		 *  [0] path to Esri JSON file of features - one JSON object of features with
+		 *      -D sample.features.unenclosed=false (the default), or one feature per record if true
+		 *  [1] path(s) to the input data source
+		 *  [2] path to write the output of the MapReduce jobs
+		 *
+		 * Options
+		 *  -D sample.tiles.size=[degrees]  side of the tiles, 1 degree by default
+		 *  -D sample.tiles.balance=true  instead of a uniform grid, sample the points first and
+		 *     split the world into tiles by point density, balancing the reducers by points
+		 *  -D sample.tiles.samples=[count]  points to sample, 100000 by default
+		 */
+		if (args.length != 3)
+		{
+			System.out.println("Invalid Arguments");
+			print_usage();
+			throw new IllegalArgumentException();
+		}
+
+		config.setInt("samples.csvdata.columns.lat", 1);
+		config.setInt("samples.csvdata.columns.long", 2);
+
+		Path outputPath = new Path(args[2]);
+		Path tilesPath = new Path(outputPath.getParent(), outputPath.getName() + "-tiles");
+		Path splitsPath = new Path(outputPath.getParent(), outputPath.getName() + "-splits");
+
+		// Job 1: points in polygons, tile by tile
+		org.apache.hadoop.mapred.JobConf tileJob = new org.apache.hadoop.mapred.JobConf(config, TileJoinDriver.class);
+		tileJob.setJobName("Earthquake Data Aggregation Sample - Tile Join");
+
+		MultipleInputs.addInputPath(tileJob, new Path(args[0]),
+									config.getBoolean("sample.features.unenclosed", false) ?
+									UnenclosedJsonInputFormat.class : EnclosedJsonInputFormat.class,
+									TilePolygonMapper.class);
+		MultipleInputs.addInputPath(tileJob, new Path(args[1]),
+									org.apache.hadoop.mapred.TextInputFormat.class, TilePointMapper.class);
+
+		tileJob.setMapOutputKeyClass(TileKey.class);
+		tileJob.setMapOutputValueClass(TileRecord.class);
+		if (config.getBoolean("sample.tiles.balance", false)) {
+			// pre-pass: tiles and their reducers from a sample of the points
+			TileSplitSampler sampler = new TileSplitSampler(config.getInt("sample.tiles.samples", 100000), 10);
+			TileSplits splits = sampler.sample(tileJob, args[1], tileJob.getNumReduceTasks(), 8);
+			FileSystem splitsFs = splitsPath.getFileSystem(config);
+			FSDataOutputStream oStream = splitsFs.create(splitsPath, true);
+			try {
+				splits.write(oStream);
+			} finally {
+				oStream.close();
+			}
+			System.out.println("Split the points into " + splits.getTileCount() + " tiles for "
+							   + splits.getPartitionCount() + " reducers");
+
+			String splitsName = splitsFs.makeQualified(splitsPath).toString();
+			tileJob.set("sample.tiles.splits", splitsName);
+			tileJob.setPartitionerClass(TileSplitPartitioner.class);
+		} else {
+			tileJob.setPartitionerClass(TilePartitioner.class);
+		}
+		tileJob.setOutputValueGroupingComparator(TileKey.GroupingComparator.class);
+		tileJob.setReducerClass(TileJoinReducer.class);
+
+		tileJob.setOutputKeyClass(Text.class);
+		tileJob.setOutputValueClass(IntWritable.class);
+		tileJob.setOutputFormat(org.apache.hadoop.mapred.SequenceFileOutputFormat.class);
+		org.apache.hadoop.mapred.SequenceFileOutputFormat.setOutputPath(tileJob, tilesPath);
+
+		RunningJob tileRun = JobClient.runJob(tileJob);
+		splitsPath.getFileSystem(config).delete(splitsPath, false);
+		if (!tileRun.isSuccessful()) {
+			System.exit(1);
+		}
+		AggregationSampleDriver.printSummary(toCounters(tileRun.getCounters()), System.out);
+
+		// Job 2: total per label, over all the tiles
+		Job job = new Job(config);
+		job.setJobName("Earthquake Data Aggregation Sample - Totals");
+
+		job.setOutputKeyClass(Text.class);
+		job.setOutputValueClass(IntWritable.class);
+
+		job.setMapperClass(Mapper.class);
+		job.setCombinerClass(ReducerClass.class);
+		job.setReducerClass(ReducerClass.class);
+
+		job.setInputFormatClass(SequenceFileInputFormat.class);
+		job.setOutputFormatClass(TextOutputFormat.class);
+
+		SequenceFileInputFormat.setInputPaths(job, tilesPath);
+		TextOutputFormat.setOutputPath(job, outputPath);
+
+		job.setJarByClass(TileJoinDriver.class);
+
+		boolean success = job.waitForCompletion(true);
+		tilesPath.getFileSystem(config).delete(tilesPath, true);
+		System.exit(success ? 0 : 1);
+	}
+
+	/**
+	 * Copy the counters of an old API job into the new API counters, by group and counter name, which
+	 * are those of the enum class and constant in both
+	 */
+	static Counters toCounters(org.apache.hadoop.mapred.Counters oldCounters) {
+		Counters counters = new Counters();
+		for (org.apache.hadoop.mapred.Counters.Group group : oldCounters) {
+			for (org.apache.hadoop.mapred.Counters.Counter counter : group) {
+				counters.findCounter(group.getName(), counter.getName()).increment(counter.getValue());
+			}
+		}
+		return counters;
+	}
+
+	static void print_usage()
+	{
+		System.out.println("***");
+		System.out.println("Usage: hadoop jar aggregation-sample.jar TileJoinDriver -libjars [external jar references] [-D sample.tiles.size=degrees | -D sample.tiles.balance=true] [/hdfs/path/to]/filtergeometry.json [/hdfs/path/to]/earthquakes.csv [/hdfs/path/to/user]/output.out");
+		System.out.println("***");
+	}
+}
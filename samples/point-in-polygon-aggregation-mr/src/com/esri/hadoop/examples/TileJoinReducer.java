@@ -0,0 +1,160 @@
+package com.esri.hadoop.examples;
+
+import java.io.IOException;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.Map;
+
+import org.apache.hadoop.io.IntWritable;
+import org.apache.hadoop.io.Text;
+import org.apache.hadoop.mapred.OutputCollector;
+import org.apache.hadoop.mapred.Reporter;
+
+import com.esri.core.geometry.Envelope2D;
+import com.esri.core.geometry.Geometry;
+import com.esri.core.geometry.GeometryEngine;
+import com.esri.core.geometry.Point;
+import com.esri.core.geometry.QuadTree;
+import com.esri.core.geometry.QuadTree.QuadTreeIterator;
+import com.esri.core.geometry.SpatialReference;
+
+/**
+ * Tile join: for one tile at a time, index the polygons overlapping the tile, then find the polygon
+ * containing each point of the tile.  Memory use depends on the polygons of one tile, not of the whole layer.
+ *
+ * Each point belongs to exactly one tile, so although a polygon is copied to every tile it overlaps,
+ * a point and polygon pair is only ever tested in the tile of the point and cannot be counted twice.
+ *
+ * Counts are summed per label over all the tiles of this reducer, and written when the reducer closes.
+ */
+@SuppressWarnings("deprecation")
+public class TileJoinReducer extends org.apache.hadoop.mapred.MapReduceBase
+	implements org.apache.hadoop.mapred.Reducer<TileKey, TileRecord, Text, IntWritable> {
+
+	static final String OUTSIDE = "*Outside Feature Set";
+
+	Tiling tiling;
+	SpatialReference spatialReference;
+	boolean accelerate;
+
+	// polygons of the current tile
+	Geometry[] geometries = new Geometry[16];
+	String[] labels = new String[16];
+
+	final Map<String, int[]> labelCounts = new HashMap<String, int[]>();
+	OutputCollector<Text, IntWritable> output;
+
+	@Override
+	public void configure(org.apache.hadoop.mapred.JobConf config) {
+		try {
+			tiling = TileSplits.getTiling(config);
+		} catch (IOException e) {
+			throw new RuntimeException("Failed to read the tile splits", e);
+		}
+		spatialReference = SpatialReference.create(4326);
+		accelerate = config.getBoolean("sample.features.accelerate", false);
+	}
+
+	@Override
+	public void reduce(TileKey key, Iterator<TileRecord> values, OutputCollector<Text, IntWritable> output,
+					   Reporter reporter) throws IOException {
+		this.output = output;
+
+		// polygons sort before points within a tile, so collect them until the first point
+		int polygonCount = 0;
+		TileRecord record = null;
+		while (values.hasNext()) {
+			record = values.next();
+			if (!record.isPolygon())
+				break;
+			if (polygonCount == geometries.length) {
+				Geometry[] moreGeometries = new Geometry[2 * polygonCount];
+				System.arraycopy(geometries, 0, moreGeometries, 0, polygonCount);
+				geometries = moreGeometries;
+				String[] moreLabels = new String[2 * polygonCount];
+				System.arraycopy(labels, 0, moreLabels, 0, polygonCount);
+				labels = moreLabels;
+			}
+			geometries[polygonCount] = record.getGeometry();
+			labels[polygonCount] = record.getLabel();
+			polygonCount++;
+			record = null;
+		}
+		if (record == null)  // polygons with no points
+			return;
+
+		int[] counts = new int[polygonCount + 1];  // last slot for points outside all polygons
+		if (polygonCount == 0) {
+			counts[0]++;
+			while (values.hasNext()) {
+				values.next();
+				counts[0]++;
+			}
+		} else {
+			FeatureIndex features = FeatureIndex.fromFeatures(geometries, labels, polygonCount);
+			Envelope2D extent = new Envelope2D();
+			tiling.queryExtent(key.getTile(), extent);
+			QuadTree quadTree = features.buildQuadTree(extent);
+			QuadTreeIterator quadTreeIter = quadTree.getIterator();
+
+			PreparedPolygon[] preparedPolygons = null;
+			if (accelerate) {
+				preparedPolygons = new PreparedPolygon[polygonCount];
+				for (int i=0;i<polygonCount;i++){
+					preparedPolygons[i] = PreparedPolygon.create(geometries[i]);
+				}
+			}
+
+			Point point = new Point();
+			long candidates = 0;
+			do {
+				point.setX(record.getX());
+				point.setY(record.getY());
+				int featureIndex = -1;
+				quadTreeIter.resetIterator(point, 0);
+				for (int elmHandle = quadTreeIter.next(); elmHandle >= 0; elmHandle = quadTreeIter.next()) {
+					int candidate = quadTree.getElement(elmHandle);
+					candidates++;  // every candidate gets an exact test, as there are no rasters here
+					PreparedPolygon prepared = preparedPolygons == null ? null : preparedPolygons[candidate];
+					if (prepared != null ? prepared.contains(point.getX(), point.getY())
+							: GeometryEngine.contains(geometries[candidate], point, spatialReference)) {
+						featureIndex = candidate;
+						break;
+					}
+				}
+				counts[featureIndex >= 0 ? featureIndex : polygonCount]++;
+				record = values.hasNext() ? values.next() : null;
+			} while (record != null);
+			// the counters of MapperClass, for the same summary; counted per tile rather than per point
+			reporter.incrCounter(MapperClass.Points.CANDIDATES, candidates);
+			reporter.incrCounter(MapperClass.Points.EXACT_TESTS, candidates);
+		}
+
+		for (int i=0;i<=polygonCount;i++){
+			if (counts[i] > 0) {
+				String label = i < polygonCount ? labels[i] : OUTSIDE;
+				int[] total = labelCounts.get(label);
+				if (total == null) {
+					labelCounts.put(label, new int[] { counts[i] });
+				} else {
+					total[0] += counts[i];
+				}
+			}
+		}
+		Arrays.fill(geometries, 0, polygonCount, null);
+	}
+
+	@Override
+	public void close() throws IOException {
+		if (output == null)
+			return;
+		Text label = new Text();
+		IntWritable count = new IntWritable();
+		for (Map.Entry<String, int[]> entry : labelCounts.entrySet()) {
+			label.set(entry.getKey());
+			count.set(entry.getValue()[0]);
+			output.collect(label, count);
+		}
+	}
+}
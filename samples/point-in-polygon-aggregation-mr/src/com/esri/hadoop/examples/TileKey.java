@@ -0,0 +1,107 @@
+package com.esri.hadoop.examples;
+
+import java.io.DataInput;
+import java.io.DataOutput;
+import java.io.IOException;
+
+import org.apache.hadoop.io.WritableComparable;
+import org.apache.hadoop.io.WritableComparator;
+
+/**
+ * Map output key of the tile join: the tile, then the kind of record, so that within a tile
+ * the reducer receives all the polygons before any of the points.
+ */
+public class TileKey implements WritableComparable<TileKey> {
+
+	public static final byte POLYGON = 0;
+	public static final byte POINT = 1;
+
+	static final int SIZE = 9;  // long tile + byte kind
+
+	private long tile;
+	private byte kind;
+
+	public TileKey() { }
+
+	public void set(long tile, byte kind) {
+		this.tile = tile;
+		this.kind = kind;
+	}
+
+	public long getTile() { return tile; }
+	public byte getKind() { return kind; }
+
+	@Override
+	public void readFields(DataInput in) throws IOException {
+		tile = in.readLong();
+		kind = in.readByte();
+	}
+
+	@Override
+	public void write(DataOutput out) throws IOException {
+		out.writeLong(tile);
+		out.writeByte(kind);
+	}
+
+	@Override
+	public int compareTo(TileKey that) {
+		if (tile != that.tile)
+			return tile < that.tile ? -1 : 1;
+		return kind - that.kind;
+	}
+
+	@Override
+	public boolean equals(Object obj) {
+		return obj instanceof TileKey && compareTo((TileKey)obj) == 0;
+	}
+
+	@Override
+	public int hashCode() {
+		return (int)(tile ^ (tile >>> 32)) * 31 + kind;
+	}
+
+	@Override
+	public String toString() {
+		return tile + "\t" + kind;
+	}
+
+	/**
+	 * Sorts serialized keys by tile and kind, without deserializing them
+	 */
+	public static class Comparator extends WritableComparator {
+		public Comparator() { super(TileKey.class); }
+
+		@Override
+		public int compare(byte[] b1, int s1, int l1, byte[] b2, int s2, int l2) {
+			long tile1 = readLong(b1, s1), tile2 = readLong(b2, s2);
+			if (tile1 != tile2)
+				return tile1 < tile2 ? -1 : 1;
+			return b1[s1 + 8] - b2[s2 + 8];
+		}
+	}
+
+	/**
+	 * Groups serialized keys by tile only, so that one reduce call sees the polygons and the points of a tile
+	 */
+	public static class GroupingComparator extends WritableComparator {
+		public GroupingComparator() { super(TileKey.class); }
+
+		@Override
+		public int compare(byte[] b1, int s1, int l1, byte[] b2, int s2, int l2) {
+			long tile1 = readLong(b1, s1), tile2 = readLong(b2, s2);
+			return tile1 == tile2 ? 0 : (tile1 < tile2 ? -1 : 1);
+		}
+
+		// the old API reduce task groups deserialized keys
+		@Override
+		@SuppressWarnings("rawtypes")
+		public int compare(WritableComparable a, WritableComparable b) {
+			long tile1 = ((TileKey)a).tile, tile2 = ((TileKey)b).tile;
+			return tile1 == tile2 ? 0 : (tile1 < tile2 ? -1 : 1);
+		}
+	}
+
+	static {
+		WritableComparator.define(TileKey.class, new Comparator());
+	}
+}
@@ -0,0 +1,18 @@
+package com.esri.hadoop.examples;
+
+
+/**
+ * Sends all the records of a tile - polygons and points - to the same reducer
+ */
+@SuppressWarnings("deprecation")
+public class TilePartitioner implements org.apache.hadoop.mapred.Partitioner<TileKey, TileRecord> {
+
+	@Override
+	public void configure(org.apache.hadoop.mapred.JobConf conf) { }
+
+	@Override
+	public int getPartition(TileKey key, TileRecord value, int numPartitions) {
+		long tile = key.getTile();
+		return (int)((tile ^ (tile >>> 32)) & Integer.MAX_VALUE) % numPartitions;
+	}
+}
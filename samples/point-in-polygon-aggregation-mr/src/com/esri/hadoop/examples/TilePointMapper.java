@@ -0,0 +1,65 @@
+package com.esri.hadoop.examples;
+
+import java.io.IOException;
+
+import org.apache.hadoop.io.LongWritable;
+import org.apache.hadoop.io.Text;
+import org.apache.hadoop.mapred.OutputCollector;
+import org.apache.hadoop.mapred.Reporter;
+
+/**
+ * Tile join: sends each point of the CSV to the one tile containing it.  Lines without a numeric
+ * longitude and latitude are skipped, and counted in the same counters as MapperClass.
+ */
+@SuppressWarnings("deprecation")
+public class TilePointMapper extends org.apache.hadoop.mapred.MapReduceBase
+	implements org.apache.hadoop.mapred.Mapper<LongWritable, Text, TileKey, TileRecord> {
+
+	// column indices for values in the CSV
+	int longitudeIndex;
+	int latitudeIndex;
+
+	Tiling tiling;
+
+	final CsvFieldScanner scanner = new CsvFieldScanner(',');
+	final TileKey outKey = new TileKey();
+	final TileRecord outValue = new TileRecord();
+
+	@Override
+	public void configure(org.apache.hadoop.mapred.JobConf config) {
+		latitudeIndex = config.getInt("samples.csvdata.columns.lat", 1);
+		longitudeIndex = config.getInt("samples.csvdata.columns.long", 2);
+		try {
+			tiling = TileSplits.getTiling(config);
+		} catch (IOException e) {
+			throw new RuntimeException("Failed to read the tile splits", e);
+		}
+	}
+
+	@Override
+	public void map(LongWritable key, Text val, OutputCollector<TileKey, TileRecord> output, Reporter reporter)
+			throws IOException {
+
+		// We know that the first line of the CSV is just headers, so at byte offset 0 we can just return
+		if (key.get() == 0) return;
+
+		scanner.scan(val);
+		double latitude, longitude;
+		try {
+			latitude = scanner.getDouble(latitudeIndex);
+			longitude = scanner.getDouble(longitudeIndex);
+		} catch (NumberFormatException e) {
+			reporter.incrCounter(MapperClass.Points.MALFORMED, 1);
+			return;
+		}
+		if (Double.isNaN(latitude) || Double.isNaN(longitude)) {  // no tile to send it to
+			reporter.incrCounter(MapperClass.Points.MALFORMED, 1);
+			return;
+		}
+		reporter.incrCounter(MapperClass.Points.PARSED, 1);
+
+		outKey.set(tiling.getTile(longitude, latitude), TileKey.POINT);
+		outValue.setPoint(longitude, latitude);
+		output.collect(outKey, outValue);
+	}
+}
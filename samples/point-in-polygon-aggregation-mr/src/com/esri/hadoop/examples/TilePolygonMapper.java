@@ -0,0 +1,107 @@
+package com.esri.hadoop.examples;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+
+import org.apache.hadoop.io.LongWritable;
+import org.apache.hadoop.io.Text;
+import org.apache.hadoop.mapred.OutputCollector;
+import org.apache.hadoop.mapred.Reporter;
+import org.codehaus.jackson.JsonFactory;
+import org.codehaus.jackson.JsonParser;
+import org.codehaus.jackson.JsonToken;
+
+import com.esri.core.geometry.Envelope;
+import com.esri.core.geometry.Envelope2D;
+import com.esri.core.geometry.Geometry;
+import com.esri.core.geometry.GeometryEngine;
+
+/**
+ * Tile join: sends each polygon, one JSON feature per record, to every tile its envelope overlaps
+ */
+@SuppressWarnings("deprecation")
+public class TilePolygonMapper extends org.apache.hadoop.mapred.MapReduceBase
+	implements org.apache.hadoop.mapred.Mapper<LongWritable, Text, TileKey, TileRecord> {
+
+	String labelAttribute;
+	Tiling tiling;
+
+	final JsonFactory jsonFactory = new JsonFactory();
+	final Envelope envelope = new Envelope();
+	final Envelope2D envelope2D = new Envelope2D();
+	final List<Long> tiles = new ArrayList<Long>();
+	final TileKey outKey = new TileKey();
+	final TileRecord outValue = new TileRecord();
+
+	// fields of the feature being mapped
+	Geometry geometry;
+	String label;
+
+	@Override
+	public void configure(org.apache.hadoop.mapred.JobConf config) {
+		labelAttribute = config.get("sample.features.keyattribute", "NAME");
+		try {
+			tiling = TileSplits.getTiling(config);
+		} catch (IOException e) {
+			throw new RuntimeException("Failed to read the tile splits", e);
+		}
+	}
+
+	@Override
+	public void map(LongWritable key, Text val, OutputCollector<TileKey, TileRecord> output, Reporter reporter)
+			throws IOException {
+
+		parseFeature(val);
+		if (geometry == null || geometry.isEmpty())
+			return;
+
+		outValue.setPolygon(label == null ? "???" : label, GeometryEngine.geometryToEsriShape(geometry));
+
+		// a copy for each tile that the polygon may overlap
+		geometry.queryEnvelope(envelope);
+		envelope2D.setCoords(envelope.getXMin(), envelope.getYMin(), envelope.getXMax(), envelope.getYMax());
+		tiles.clear();
+		tiling.queryTiles(envelope2D, tiles);
+		for (Long tile : tiles) {
+			outKey.set(tile, TileKey.POLYGON);
+			output.collect(outKey, outValue);
+		}
+	}
+
+	/**
+	 * Read the geometry and the label attribute of a feature in Esri JSON
+	 */
+	private void parseFeature(Text val) throws IOException {
+		geometry = null;
+		label = null;
+
+		JsonParser parser = jsonFactory.createJsonParser(val.getBytes(), 0, val.getLength());
+		try {
+			if (parser.nextToken() != JsonToken.START_OBJECT)
+				throw new IOException("Expected a JSON feature object");
+
+			while (parser.nextToken() == JsonToken.FIELD_NAME) {
+				String name = parser.getCurrentName();
+				JsonToken token = parser.nextToken();
+				if ("geometry".equals(name) && token == JsonToken.START_OBJECT) {
+					geometry = GeometryEngine.jsonToGeometry(parser).getGeometry();
+				} else if ("attributes".equals(name) && token == JsonToken.START_OBJECT) {
+					while (parser.nextToken() == JsonToken.FIELD_NAME) {
+						String attribute = parser.getCurrentName();
+						token = parser.nextToken();
+						if (attribute.equals(labelAttribute) && token != JsonToken.VALUE_NULL) {
+							label = parser.getText();
+						} else {
+							parser.skipChildren();
+						}
+					}
+				} else {
+					parser.skipChildren();
+				}
+			}
+		} finally {
+			parser.close();
+		}
+	}
+}
@@ -0,0 +1,78 @@
+package com.esri.hadoop.examples;
+
+import java.io.DataInput;
+import java.io.DataOutput;
+import java.io.IOException;
+
+import org.apache.hadoop.io.Text;
+import org.apache.hadoop.io.Writable;
+import org.apache.hadoop.io.WritableUtils;
+
+import com.esri.core.geometry.Geometry;
+import com.esri.core.geometry.GeometryEngine;
+
+/**
+ * Map output value of the tile join: either a point as longitude and latitude,
+ * or a polygon as its label and Esri shape bytes.
+ */
+public class TileRecord implements Writable {
+
+	private byte kind;  // TileKey.POLYGON or TileKey.POINT
+	private double x, y;
+	private final Text label = new Text();
+	private byte[] shape = new byte[0];
+	private int shapeLength;
+
+	public void setPoint(double x, double y) {
+		kind = TileKey.POINT;
+		this.x = x;
+		this.y = y;
+	}
+
+	public void setPolygon(String label, byte[] shape) {
+		kind = TileKey.POLYGON;
+		this.label.set(label);
+		this.shape = shape;
+		shapeLength = shape.length;
+	}
+
+	public boolean isPolygon() { return kind == TileKey.POLYGON; }
+	public double getX() { return x; }
+	public double getY() { return y; }
+	public String getLabel() { return label.toString(); }
+
+	public Geometry getGeometry() {
+		byte[] bytes = new byte[shapeLength];
+		System.arraycopy(shape, 0, bytes, 0, shapeLength);
+		return GeometryEngine.geometryFromEsriShape(bytes, Geometry.Type.Unknown);
+	}
+
+	@Override
+	public void readFields(DataInput in) throws IOException {
+		kind = in.readByte();
+		if (kind == TileKey.POINT) {
+			x = in.readDouble();
+			y = in.readDouble();
+		} else {
+			label.readFields(in);
+			shapeLength = WritableUtils.readVInt(in);
+			if (shape.length < shapeLength) {
+				shape = new byte[shapeLength];
+			}
+			in.readFully(shape, 0, shapeLength);
+		}
+	}
+
+	@Override
+	public void write(DataOutput out) throws IOException {
+		out.writeByte(kind);
+		if (kind == TileKey.POINT) {
+			out.writeDouble(x);
+			out.writeDouble(y);
+		} else {
+			label.write(out);
+			WritableUtils.writeVInt(out, shapeLength);
+			out.write(shape, 0, shapeLength);
+		}
+	}
+}
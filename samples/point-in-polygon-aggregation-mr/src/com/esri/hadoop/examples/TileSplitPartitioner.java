@@ -0,0 +1,34 @@
+package com.esri.hadoop.examples;
+
+import java.io.IOException;
+
+
+/**
+ * Sends each tile to the reducer assigned by the tile split file, which balances the reducers
+ * by the number of sampled points rather than by the number of tiles
+ */
+@SuppressWarnings("deprecation")
+public class TileSplitPartitioner implements org.apache.hadoop.mapred.Partitioner<TileKey, TileRecord> {
+
+	TileSplits splits;
+
+	@Override
+	public void configure(org.apache.hadoop.mapred.JobConf config) {
+		try {
+			Tiling tiling = TileSplits.getTiling(config);
+			if (!(tiling instanceof TileSplits)) {
+				throw new IllegalArgumentException("sample.tiles.splits is not set");
+			}
+			splits = (TileSplits)tiling;
+		} catch (IOException e) {
+			throw new RuntimeException("Failed to read the tile splits", e);
+		}
+	}
+
+	@Override
+	public int getPartition(TileKey key, TileRecord value, int numPartitions) {
+		int partition = splits.getPartition(key.getTile());
+		// the splits were built for the configured number of reducers; fold them if that changed
+		return partition < numPartitions ? partition : partition % numPartitions;
+	}
+}
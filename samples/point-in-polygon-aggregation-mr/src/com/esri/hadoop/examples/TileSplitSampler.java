@@ -0,0 +1,78 @@
+package com.esri.hadoop.examples;
+
+import java.io.IOException;
+
+import org.apache.hadoop.io.LongWritable;
+import org.apache.hadoop.io.Text;
+import org.apache.hadoop.mapred.RecordReader;
+import org.apache.hadoop.mapred.Reporter;
+
+/**
+ * Pre-pass of the tile join: reads a sample of the points of the CSV, from evenly spaced input
+ * splits, and builds the tile splits from it.
+ *
+ * Reading the first records of several splits, like InputSampler.SplitSampler, is cheap but
+ * assumes that the order of the lines is not strongly related to their location.
+ */
+@SuppressWarnings("deprecation")
+public class TileSplitSampler {
+
+	final int maxSamples;
+	final int maxSplits;
+
+	public TileSplitSampler(int maxSamples, int maxSplits) {
+		this.maxSamples = maxSamples;
+		this.maxSplits = maxSplits;
+	}
+
+	/**
+	 * @param config configuration of the tile join, with the CSV among its inputs
+	 * @param partitions number of reducers to balance the tiles over
+	 * @param tilesPerPartition how many tiles a reducer should get on average, so that
+	 *        dense tiles are split before they outweigh a whole reducer
+	 */
+	public TileSplits sample(org.apache.hadoop.mapred.JobConf config, String pointsPath, int partitions, int tilesPerPartition)
+			throws IOException {
+		int latitudeIndex = config.getInt("samples.csvdata.columns.lat", 1);
+		int longitudeIndex = config.getInt("samples.csvdata.columns.long", 2);
+
+		org.apache.hadoop.mapred.JobConf sampleConf = new org.apache.hadoop.mapred.JobConf(config);
+		org.apache.hadoop.mapred.FileInputFormat.setInputPaths(sampleConf, pointsPath);
+		org.apache.hadoop.mapred.TextInputFormat inputFormat = new org.apache.hadoop.mapred.TextInputFormat();
+		inputFormat.configure(sampleConf);
+		org.apache.hadoop.mapred.InputSplit[] splits = inputFormat.getSplits(sampleConf, maxSplits);
+
+		int splitsToSample = Math.min(maxSplits, splits.length);
+		int perSplit = Math.max(1, maxSamples / Math.max(1, splitsToSample));
+		double[] xs = new double[maxSamples], ys = new double[maxSamples];
+		int count = 0;
+
+		CsvFieldScanner scanner = new CsvFieldScanner(',');
+		LongWritable key = new LongWritable();
+		Text value = new Text();
+		for (int i = 0; i < splitsToSample && count < maxSamples; i++) {
+			org.apache.hadoop.mapred.InputSplit split = splits[(int)((long)i * splits.length / splitsToSample)];
+			RecordReader<LongWritable, Text> reader = inputFormat.getRecordReader(split, sampleConf, Reporter.NULL);
+			try {
+				for (int n = 0; n < perSplit && count < maxSamples && reader.next(key, value); ) {
+					if (key.get() == 0)  // header line
+						continue;
+					scanner.scan(value);
+					try {
+						xs[count] = scanner.getDouble(longitudeIndex);
+						ys[count] = scanner.getDouble(latitudeIndex);
+					} catch (NumberFormatException e) {
+						continue;
+					}
+					count++;
+					n++;
+				}
+			} finally {
+				reader.close();
+			}
+		}
+
+		int capacity = (int)Math.ceil((double)count / ((long)partitions * tilesPerPartition));
+		return TileSplits.build(xs, ys, count, capacity, partitions);
+	}
+}
@@ -0,0 +1,317 @@
+package com.esri.hadoop.examples;
+
+import java.io.BufferedReader;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InputStreamReader;
+import java.io.OutputStream;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
+import java.util.List;
+
+import org.apache.hadoop.conf.Configuration;
+import org.apache.hadoop.fs.FSDataInputStream;
+import org.apache.hadoop.fs.Path;
+
+import com.esri.core.geometry.Envelope2D;
+
+/**
+ * Tiles that adapt to the density of the points: the leaves of a quadtree over the whole world,
+ * built from a sample of the points, where a quadrant holding too many sampled points is split again.
+ * Dense areas end up with small tiles, and sparse areas keep large ones.
+ *
+ * Each tile is also assigned to a reducer.  Tile IDs number the leaves in Z-order, and consecutive
+ * leaves are packed into each partition up to an equal share of the sample, so a partition is a
+ * compact region holding about as many points as any other.
+ *
+ * Like TileGrid, quadrants include their left and bottom edges but not their right and top edges.
+ *
+ * The split file is text, one line per node of the quadtree in pre-order: "S" for a node split
+ * into its south-west, south-east, north-west and north-east quadrants, or "L partition" for a leaf.
+ */
+public class TileSplits implements Tiling {
+
+	static final String HEADER = "tile-splits 1";
+	static final int MAX_DEPTH = 24;
+
+	// quadtree nodes in pre-order: the four children of a split node, or -1 for a leaf
+	final int[] children;
+	final int[] nodeTile;       // tile ID of a leaf node, or -1
+	final int[] tilePartition;  // partition of each tile
+	final double[] tileExtents; // xmin, ymin, xmax, ymax of each tile
+	final int partitionCount;
+
+	private TileSplits(int[] children, int[] nodeTile, int[] tilePartition, double[] tileExtents) {
+		this.children = children;
+		this.nodeTile = nodeTile;
+		this.tilePartition = tilePartition;
+		this.tileExtents = tileExtents;
+		int max = -1;
+		for (int partition : tilePartition)
+			max = Math.max(max, partition);
+		partitionCount = max + 1;
+	}
+
+	/**
+	 * The tiling of a tile join job: the split file named by sample.tiles.splits if there is one,
+	 * otherwise a uniform grid of sample.tiles.size degrees
+	 */
+	public static Tiling getTiling(Configuration config) throws IOException {
+		String splits = config.get("sample.tiles.splits");
+		if (splits == null) {
+			return new TileGrid(Double.parseDouble(config.get("sample.tiles.size", "1")));
+		}
+		Path path = new Path(splits);
+		FSDataInputStream iStream = path.getFileSystem(config).open(path);
+		try {
+			return read(iStream);
+		} finally {
+			iStream.close();
+		}
+	}
+
+	/**
+	 * Split the world until no leaf holds more than capacity of the sampled points, then pack the
+	 * leaves into partitions of equal sample weight.
+	 *
+	 * @param xs longitudes of the sample, which is reordered
+	 * @param ys latitudes of the sample, which is reordered
+	 */
+	public static TileSplits build(double[] xs, double[] ys, int count, int capacity, int partitions) {
+		Builder builder = new Builder(xs, ys, capacity);
+		builder.split(0, count, -180, -90, 180, 90, 0);
+
+		// Z-order packing: leaf i goes to the partition holding the middle of its share of the sample
+		int[] tilePartition = new int[builder.tileCount];
+		long before = 0;
+		for (int tile = 0; tile < builder.tileCount; tile++) {
+			int weight = builder.tileWeights.get(tile);
+			long middle = 2 * before + weight;  // twice the middle of the leaf, to stay in integers
+			int partition = count == 0 ? 0 : (int)(middle * partitions / (2L * count));
+			tilePartition[tile] = Math.min(partition, partitions - 1);
+			before += weight;
+		}
+		return create(builder.nodes.toArray(), tilePartition);
+	}
+
+	// from the pre-order node list, where a leaf holds its tile ID and a split node holds -1
+	private static TileSplits create(int[] nodes, int[] tilePartition) {
+		int nodeCount = nodes.length;
+		int[] children = new int[4 * nodeCount];
+		double[] tileExtents = new double[4 * tilePartition.length];
+		int next = fill(nodes, 0, children, tileExtents, -180, -90, 180, 90);
+		if (next != nodeCount) {
+			throw new IllegalArgumentException("Malformed tile splits: " + nodeCount + " nodes, " + next + " in the tree");
+		}
+		return new TileSplits(children, nodes, tilePartition, tileExtents);
+	}
+
+	// set the links and extents of the subtree at node, returning the node following the subtree
+	private static int fill(int[] nodes, int node, int[] children, double[] tileExtents,
+							double xmin, double ymin, double xmax, double ymax) {
+		if (node >= nodes.length) {
+			throw new IllegalArgumentException("Malformed tile splits: truncated tree");
+		}
+		if (nodes[node] >= 0) {
+			children[4*node] = children[4*node+1] = children[4*node+2] = children[4*node+3] = -1;
+			int tile = nodes[node];
+			tileExtents[4*tile] = xmin;
+			tileExtents[4*tile+1] = ymin;
+			tileExtents[4*tile+2] = xmax;
+			tileExtents[4*tile+3] = ymax;
+			return node + 1;
+		}
+		double xmid = (xmin + xmax) / 2, ymid = (ymin + ymax) / 2;
+		int next = children[4*node] = node + 1;
+		next = children[4*node+1] = fill(nodes, next, children, tileExtents, xmin, ymin, xmid, ymid);
+		next = children[4*node+2] = fill(nodes, next, children, tileExtents, xmid, ymin, xmax, ymid);
+		next = children[4*node+3] = fill(nodes, next, children, tileExtents, xmin, ymid, xmid, ymax);
+		return fill(nodes, next, children, tileExtents, xmid, ymid, xmax, ymax);
+	}
+
+	public int getTileCount() {
+		return tilePartition.length;
+	}
+
+	public int getPartitionCount() {
+		return partitionCount;
+	}
+
+	/**
+	 * @return partition of the tile, for as many partitions as the splits were built for
+	 */
+	public int getPartition(long tile) {
+		return tilePartition[(int)tile];
+	}
+
+	@Override
+	public long getTile(double longitude, double latitude) {
+		double xmin = -180, ymin = -90, xmax = 180, ymax = 90;
+		int node = 0;
+		while (children[4*node] >= 0) {
+			double xmid = (xmin + xmax) / 2, ymid = (ymin + ymax) / 2;
+			int quadrant = 0;
+			if (longitude >= xmid) {
+				quadrant += 1;
+				xmin = xmid;
+			} else {
+				xmax = xmid;
+			}
+			if (latitude >= ymid) {
+				quadrant += 2;
+				ymin = ymid;
+			} else {
+				ymax = ymid;
+			}
+			node = children[4*node + quadrant];
+		}
+		return nodeTile[node];
+	}
+
+	@Override
+	public void queryTiles(Envelope2D envelope, List<Long> tiles) {
+		queryTiles(0, -180, -90, 180, 90,
+				   envelope.getLowerLeft().getX(), envelope.getLowerLeft().getY(),
+				   envelope.getUpperRight().getX(), envelope.getUpperRight().getY(), tiles);
+	}
+
+	private void queryTiles(int node, double xmin, double ymin, double xmax, double ymax,
+						   double qxmin, double qymin, double qxmax, double qymax, List<Long> tiles) {
+		if (children[4*node] < 0) {
+			tiles.add((long)nodeTile[node]);
+			return;
+		}
+		double xmid = (xmin + xmax) / 2, ymid = (ymin + ymax) / 2;
+		// the same half-open quadrants as getTile, so that every point of the envelope is covered
+		boolean west = qxmin < xmid, east = qxmax >= xmid;
+		boolean south = qymin < ymid, north = qymax >= ymid;
+		if (south && west)
+			queryTiles(children[4*node], xmin, ymin, xmid, ymid, qxmin, qymin, qxmax, qymax, tiles);
+		if (south && east)
+			queryTiles(children[4*node+1], xmid, ymin, xmax, ymid, qxmin, qymin, qxmax, qymax, tiles);
+		if (north && west)
+			queryTiles(children[4*node+2], xmin, ymid, xmid, ymax, qxmin, qymin, qxmax, qymax, tiles);
+		if (north && east)
+			queryTiles(children[4*node+3], xmid, ymid, xmax, ymax, qxmin, qymin, qxmax, qymax, tiles);
+	}
+
+	@Override
+	public void queryExtent(long tile, Envelope2D extent) {
+		int t = (int)tile;
+		extent.setCoords(tileExtents[4*t], tileExtents[4*t+1], tileExtents[4*t+2], tileExtents[4*t+3]);
+	}
+
+	public void write(OutputStream oStream) throws IOException {
+		Writer writer = new OutputStreamWriter(oStream, "UTF-8");
+		writer.write(HEADER);
+		writer.write('\n');
+		for (int node = 0; node < nodeTile.length; node++) {
+			if (nodeTile[node] < 0) {
+				writer.write("S\n");
+			} else {
+				writer.write("L " + tilePartition[nodeTile[node]] + "\n");
+			}
+		}
+		writer.flush();
+	}
+
+	public static TileSplits read(InputStream iStream) throws IOException {
+		BufferedReader reader = new BufferedReader(new InputStreamReader(iStream, "UTF-8"));
+		String line = reader.readLine();
+		if (!HEADER.equals(line)) {
+			throw new IOException("Not a tile split file: " + line);
+		}
+		IntList nodes = new IntList();
+		IntList partitions = new IntList();
+		while ((line = reader.readLine()) != null) {
+			if (line.equals("S")) {
+				nodes.add(-1);
+			} else if (line.startsWith("L ")) {
+				nodes.add(partitions.size());
+				partitions.add(Integer.parseInt(line.substring(2)));
+			} else if (line.length() > 0) {
+				throw new IOException("Malformed line in tile split file: " + line);
+			}
+		}
+		try {
+			return create(nodes.toArray(), partitions.toArray());
+		} catch (IllegalArgumentException e) {
+			throw new IOException(e.getMessage());
+		}
+	}
+
+	private static class Builder {
+		final double[] xs, ys;
+		final int capacity;
+		final IntList nodes = new IntList();
+		final IntList tileWeights = new IntList();
+		int tileCount;
+
+		Builder(double[] xs, double[] ys, int capacity) {
+			this.xs = xs;
+			this.ys = ys;
+			this.capacity = Math.max(1, capacity);
+		}
+
+		// the sample points from start to end lie in the quadrant
+		void split(int start, int end, double xmin, double ymin, double xmax, double ymax, int depth) {
+			if (end - start <= capacity || depth == MAX_DEPTH) {
+				nodes.add(tileCount++);
+				tileWeights.add(end - start);
+				return;
+			}
+			nodes.add(-1);
+			double xmid = (xmin + xmax) / 2, ymid = (ymin + ymax) / 2;
+			int southEnd = partition(start, end, ys, xs, ymid);
+			int southMid = partition(start, southEnd, xs, ys, xmid);
+			int northMid = partition(southEnd, end, xs, ys, xmid);
+			split(start, southMid, xmin, ymin, xmid, ymid, depth + 1);
+			split(southMid, southEnd, xmid, ymin, xmax, ymid, depth + 1);
+			split(southEnd, northMid, xmin, ymid, xmid, ymax, depth + 1);
+			split(northMid, end, xmid, ymid, xmax, ymax, depth + 1);
+		}
+
+		// move the points with key below mid before those at or above it, returning the boundary
+		int partition(int start, int end, double[] keys, double[] others, double mid) {
+			int i = start, j = end - 1;
+			while (i <= j) {
+				if (keys[i] < mid) {
+					i++;
+				} else {
+					double tmp = keys[i]; keys[i] = keys[j]; keys[j] = tmp;
+					tmp = others[i]; others[i] = others[j]; others[j] = tmp;
+					j--;
+				}
+			}
+			return i;
+		}
+	}
+
+	private static class IntList {
+		int[] values = new int[64];
+		int size;
+
+		void add(int value) {
+			if (size == values.length) {
+				int[] tmp = new int[2 * size];
+				System.arraycopy(values, 0, tmp, 0, size);
+				values = tmp;
+			}
+			values[size++] = value;
+		}
+
+		int get(int index) {
+			return values[index];
+		}
+
+		int size() {
+			return size;
+		}
+
+		int[] toArray() {
+			int[] array = new int[size];
+			System.arraycopy(values, 0, array, 0, size);
+			return array;
+		}
+	}
+}
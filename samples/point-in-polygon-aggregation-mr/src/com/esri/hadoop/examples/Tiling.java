@@ -0,0 +1,29 @@
+package com.esri.hadoop.examples;
+
+import java.util.List;
+
+import com.esri.core.geometry.Envelope2D;
+
+/**
+ * A partition of the world into tiles, for the tile join.
+ *
+ * Every point must belong to exactly one tile, and the tiles reported for an envelope must include
+ * the tile of every point within the envelope.
+ */
+public interface Tiling {
+
+	/**
+	 * @return ID of the tile containing the point
+	 */
+	long getTile(double longitude, double latitude);
+
+	/**
+	 * Add the IDs of the tiles that an envelope overlaps to a list
+	 */
+	void queryTiles(Envelope2D envelope, List<Long> tiles);
+
+	/**
+	 * Set the envelope to the extent of a tile
+	 */
+	void queryExtent(long tile, Envelope2D extent);
+}
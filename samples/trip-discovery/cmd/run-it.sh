@@ -51,6 +51,9 @@ env HADOOP_CLASSPATH=$LIB_DIR/$GEOM_LIB:$LIB_DIR/$SPATIAL_SDK \
            $INTER_DIR/p'*' \
            $OUTPUT_DIR
 
+echo "* sample of the intermediate trips"
+env HADOOP_CLASSPATH=../$TRIP_LIB hadoop fs -text $INTER_DIR/p'*' | head -5
+
 echo "* pulling down results"
 rm $RESULTS
 hadoop fs -getmerge $OUTPUT_DIR $RESULTS
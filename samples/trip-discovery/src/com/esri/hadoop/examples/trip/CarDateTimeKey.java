@@ -0,0 +1,239 @@
+package com.esri.hadoop.examples.trip;
+
+import java.io.DataInput;
+import java.io.DataOutput;
+import java.io.IOException;
+
+import org.apache.hadoop.io.Text;
+import org.apache.hadoop.io.WritableComparable;
+import org.apache.hadoop.io.WritableComparator;
+import org.apache.hadoop.io.WritableUtils;
+import org.apache.hadoop.mapreduce.Partitioner;
+
+/**
+ * Composite key of the positions of a car: car ID, day and time of day, for a secondary sort.
+ * The framework sorts the positions of each car by time, and the grouping comparators hand the
+ * reducer all the positions of a car-day - or of a car, for trips that run overnight - in one call.
+ *
+ * The day is a count of days since 1970-01-01, so that times compare and subtract across the
+ * ends of months and years.  Serialized as the Text of the car ID, then the day and the second
+ * of the day as ints, which the raw comparators compare without deserializing.
+ */
+public class CarDateTimeKey implements WritableComparable<CarDateTimeKey> {
+
+	private final Text car = new Text();
+	private int day;      // days since 1970-01-01
+	private int seconds;  // seconds after midnight
+
+	public CarDateTimeKey() { }
+
+	public Text getCar() { return car; }
+	public int getDay() { return day; }
+	public int getSeconds() { return seconds; }
+
+	/**
+	 * @return seconds since 1970-01-01 at midnight, in the local time of the positions
+	 */
+	public long getTime() { return 86400L * day + seconds; }
+
+	/**
+	 * @param car bytes of the car ID
+	 * @param yymmdd date as in the input, YYMMDD of the years 2000 to 2099
+	 * @param hhmmss time as in the input, HHMMSS
+	 */
+	public void set(byte[] car, int start, int length, int yymmdd, int hhmmss) {
+		this.car.set(car, start, length);
+		day = dayNumber(yymmdd);
+		seconds = secondOfDay(hhmmss);
+	}
+
+	/**
+	 * @return whether a date in YYMMDD has a month and day in range, and so a day number of the years 2000 to 2099
+	 */
+	public static boolean isDate(int yymmdd) {
+		int month = yymmdd / 100 % 100, dayOfMonth = yymmdd % 100;
+		return yymmdd >= 0 && yymmdd <= 991231 && month >= 1 && month <= 12 && dayOfMonth >= 1 && dayOfMonth <= 31;
+	}
+
+	/**
+	 * @return whether a time in HHMMSS is one of the seconds of a day
+	 */
+	public static boolean isTime(int hhmmss) {
+		return hhmmss >= 0 && hhmmss / 10000 < 24 && hhmmss / 100 % 100 < 60 && hhmmss % 100 < 60;
+	}
+
+	/**
+	 * @return days since 1970-01-01 of a date in YYMMDD, in the years 2000 to 2099
+	 */
+	public static int dayNumber(int yymmdd) {
+		int year = 2000 + yymmdd / 10000, month = yymmdd / 100 % 100, dayOfMonth = yymmdd % 100;
+		// days from civil, counting years from March so that the leap day is last
+		if (month <= 2)
+			year--;
+		int era = year / 400;  // no negative years here
+		int yearOfEra = year - era * 400;
+		int dayOfYear = (153 * (month > 2 ? month - 3 : month + 9) + 2) / 5 + dayOfMonth - 1;
+		int dayOfEra = yearOfEra * 365 + yearOfEra / 4 - yearOfEra / 100 + dayOfYear;
+		return era * 146097 + dayOfEra - 719468;
+	}
+
+	/**
+	 * @return seconds after midnight of a time in HHMMSS
+	 */
+	public static int secondOfDay(int hhmmss) {
+		return 3600 * (hhmmss / 10000) + 60 * (hhmmss / 100 % 100) + hhmmss % 100;
+	}
+
+	/**
+	 * @return time in HHMMSS of seconds after midnight
+	 */
+	public static int timeOfDay(int secondOfDay) {
+		return 10000 * (secondOfDay / 3600) + 100 * (secondOfDay / 60 % 60) + secondOfDay % 60;
+	}
+
+	@Override
+	public void readFields(DataInput in) throws IOException {
+		car.readFields(in);
+		day = in.readInt();
+		seconds = in.readInt();
+	}
+
+	@Override
+	public void write(DataOutput out) throws IOException {
+		car.write(out);
+		out.writeInt(day);
+		out.writeInt(seconds);
+	}
+
+	@Override
+	public int compareTo(CarDateTimeKey that) {
+		int cmp = car.compareTo(that.car);
+		if (cmp != 0)
+			return cmp;
+		if (day != that.day)
+			return day < that.day ? -1 : 1;
+		return seconds < that.seconds ? -1 : (seconds == that.seconds ? 0 : 1);
+	}
+
+	@Override
+	public int hashCode() {
+		return car.hashCode() * 31 + day * 86400 + seconds;
+	}
+
+	@Override
+	public boolean equals(Object o) {
+		return o instanceof CarDateTimeKey && compareTo((CarDateTimeKey)o) == 0;
+	}
+
+	@Override
+	public String toString() {
+		return car + "," + day + "," + seconds;
+	}
+
+	/**
+	 * Sorts by car ID, then day, then time of day, on the serialized bytes
+	 */
+	public static class Comparator extends WritableComparator {
+		public Comparator() {
+			super(CarDateTimeKey.class);
+		}
+
+		@Override
+		public int compare(byte[] b1, int s1, int l1, byte[] b2, int s2, int l2) {
+			int cmp = compareCars(b1, s1, b2, s2);
+			if (cmp != 0)
+				return cmp;
+			int n1 = carLength(b1, s1), n2 = carLength(b2, s2);
+			return compareInts(b1, s1 + n1, b2, s2 + n2, 2);
+		}
+	}
+
+	static {
+		WritableComparator.define(CarDateTimeKey.class, new Comparator());
+	}
+
+	/**
+	 * Groups the positions of a car on one day, for one call of the reducer
+	 */
+	public static class CarDateGroupingComparator extends WritableComparator {
+		public CarDateGroupingComparator() {
+			super(CarDateTimeKey.class);
+		}
+
+		@Override
+		public int compare(byte[] b1, int s1, int l1, byte[] b2, int s2, int l2) {
+			int cmp = compareCars(b1, s1, b2, s2);
+			if (cmp != 0)
+				return cmp;
+			int n1 = carLength(b1, s1), n2 = carLength(b2, s2);
+			return compareInts(b1, s1 + n1, b2, s2 + n2, 1);
+		}
+
+		@Override
+		@SuppressWarnings("rawtypes")
+		public int compare(WritableComparable w1, WritableComparable w2) {
+			CarDateTimeKey k1 = (CarDateTimeKey)w1, k2 = (CarDateTimeKey)w2;
+			int cmp = k1.car.compareTo(k2.car);
+			return cmp != 0 ? cmp : (k1.day < k2.day ? -1 : (k1.day == k2.day ? 0 : 1));
+		}
+	}
+
+	/**
+	 * Groups all the positions of a car, for trips that run past midnight
+	 */
+	public static class CarGroupingComparator extends WritableComparator {
+		public CarGroupingComparator() {
+			super(CarDateTimeKey.class);
+		}
+
+		@Override
+		public int compare(byte[] b1, int s1, int l1, byte[] b2, int s2, int l2) {
+			return compareCars(b1, s1, b2, s2);
+		}
+
+		@Override
+		@SuppressWarnings("rawtypes")
+		public int compare(WritableComparable w1, WritableComparable w2) {
+			return ((CarDateTimeKey)w1).car.compareTo(((CarDateTimeKey)w2).car);
+		}
+	}
+
+	/**
+	 * Sends all the positions of a car to the same reducer, whichever the grouping
+	 */
+	public static class CarPartitioner<V> extends Partitioner<CarDateTimeKey, V> {
+		@Override
+		public int getPartition(CarDateTimeKey key, V value, int numPartitions) {
+			return (key.car.hashCode() & Integer.MAX_VALUE) % numPartitions;
+		}
+	}
+
+	// length of the serialized Text of the car ID, including its length prefix
+	private static int carLength(byte[] b, int s) {
+		try {
+			return WritableUtils.decodeVIntSize(b[s]) + WritableComparator.readVInt(b, s);
+		} catch (IOException e) {
+			throw new IllegalArgumentException(e);
+		}
+	}
+
+	private static int compareCars(byte[] b1, int s1, byte[] b2, int s2) {
+		try {
+			int v1 = WritableUtils.decodeVIntSize(b1[s1]), v2 = WritableUtils.decodeVIntSize(b2[s2]);
+			return WritableComparator.compareBytes(b1, s1 + v1, WritableComparator.readVInt(b1, s1),
+												   b2, s2 + v2, WritableComparator.readVInt(b2, s2));
+		} catch (IOException e) {
+			throw new IllegalArgumentException(e);
+		}
+	}
+
+	// compare count big-endian ints, as signed values
+	private static int compareInts(byte[] b1, int s1, byte[] b2, int s2, int count) {
+		for (int i = 0; i < count; i++, s1 += 4, s2 += 4) {
+			int v1 = WritableComparator.readInt(b1, s1), v2 = WritableComparator.readInt(b2, s2);
+			if (v1 != v2)
+				return v1 < v2 ? -1 : 1;
+		}
+		return 0;
+	}
+}
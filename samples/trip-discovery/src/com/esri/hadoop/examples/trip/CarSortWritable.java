@@ -1,51 +1,138 @@
 package com.esri.hadoop.examples.trip;
 
-import org.apache.hadoop.io.ArrayWritable;
-import org.apache.hadoop.io.Text;
-import org.apache.hadoop.io.Writable;
+import java.io.DataInput;
+import java.io.DataOutput;
+import java.io.IOException;
 
-public class CarSortWritable extends ArrayWritable implements Comparable<CarSortWritable> {
-	public CarSortWritable() { super(Text.class); }
+import org.apache.hadoop.io.WritableComparable;
+import org.apache.hadoop.io.WritableComparator;
+
+/**
+ * One position of a car, packed into a fixed-width record of 37 bytes: date, time of day,
+ * position already converted from DMS to decimal degrees, bearing, speed, road type and
+ * the ID of the cell containing the position, as assigned by the mapper.
+ * Sorts by date then time, and the registered raw comparator does so on the serialized bytes.
+ */
+public class CarSortWritable implements WritableComparable<CarSortWritable> {
+
+	static final int SIZE = 4 + 4 + 8 + 8 + 2 + 2 + 1 + 8;
+
+	private int date;       // YYMMDD
+	private int seconds;    // seconds after midnight
+	private double lon;     // decimal degrees
+	private double lat;
+	private short bearing;  // compass orientation in degrees, or -1 if unknown
+	private short speed;    // km/h
+	private byte road;      // road type code, or -1 if unknown
+	private long cell;      // ID in the CellIndex, or <0 if outside
+
+	public CarSortWritable() { }
 
 	public CarSortWritable(CarSortWritable that) {
-	    super(Text.class, new Writable[] {
-				new Text(that.getDate()), new Text(that.getTime()),
-				new Text(that.getLon()), new Text(that.getLat()),
-				new Text(that.getBearing()), new Text(that.getSpeed()),
-				new Text(that.getRoad())
-			});
-	}
-	
-    public CarSortWritable(String ymd, String hms, String longitude, String latitude,
-						   String orientation, String speed, String roadType) {
-	    super(Text.class, new Writable[] {
-				new Text(ymd),
-				new Text(hms),
-				new Text(longitude),
-				new Text(latitude),
-				new Text(orientation),
-				new Text(speed),
-				new Text(roadType)
-		});
+		set(that.date, that.seconds, that.lon, that.lat, that.bearing, that.speed, that.road, that.cell);
+	}
+
+	public CarSortWritable(int ymd, int seconds, double longitude, double latitude,
+						   int orientation, int speed, int roadType, long cell) {
+		set(ymd, seconds, longitude, latitude, orientation, speed, roadType, cell);
+	}
+
+	/**
+	 * @return whether a bearing, speed and road type fit their fields, with -1 for an unknown bearing or road type
+	 */
+	public static boolean fits(int orientation, int speed, int roadType) {
+		return orientation >= -1 && orientation <= Short.MAX_VALUE
+			&& speed >= 0 && speed <= Short.MAX_VALUE
+			&& roadType >= -1 && roadType <= Byte.MAX_VALUE;
+	}
+
+	public void set(int ymd, int seconds, double longitude, double latitude,
+					int orientation, int speed, int roadType, long cell) {
+		this.date = ymd;
+		this.seconds = seconds;
+		this.lon = longitude;
+		this.lat = latitude;
+		this.bearing = (short)orientation;
+		this.speed = (short)speed;
+		this.road = (byte)roadType;
+		this.cell = cell;
+	}
+
+	public int getDate() { return date; }
+	public int getSeconds() { return seconds; }
+	public double getLon() { return lon; }
+	public double getLat() { return lat; }
+	public int getBearing() { return bearing; }
+	public int getSpeed() { return speed; }
+	public int getRoad() { return road; }
+	public long getCell() { return cell; }
+
+	@Override
+	public void readFields(DataInput in) throws IOException {
+		date = in.readInt();
+		seconds = in.readInt();
+		lon = in.readDouble();
+		lat = in.readDouble();
+		bearing = in.readShort();
+		speed = in.readShort();
+		road = in.readByte();
+		cell = in.readLong();
+	}
+
+	@Override
+	public void write(DataOutput out) throws IOException {
+		out.writeInt(date);
+		out.writeInt(seconds);
+		out.writeDouble(lon);
+		out.writeDouble(lat);
+		out.writeShort(bearing);
+		out.writeShort(speed);
+		out.writeByte(road);
+		out.writeLong(cell);
 	}
 
 	@Override
 	public int compareTo(CarSortWritable that) {
-		//String thisDate = this.getDate(), thatDate = that.getDate()
-		return
-			// (thisDate.equals(that.getDate()) ?
-			this.getTime().compareTo(that.getTime())
-			// : thisDate.compareTo(thatDate)
-			;
-	}
-
-	public String getDate() { return ((Text)this.get()[0]).toString(); }
-	public String getTime() { return ((Text)this.get()[1]).toString(); }
-	public String getLon() { return ((Text)this.get()[2]).toString(); }
-	public String getLat() { return ((Text)this.get()[3]).toString(); }
-	public String getBearing() { return ((Text)this.get()[4]).toString(); }
-	public String getSpeed() { return ((Text)this.get()[5]).toString(); }
-	public String getRoad() { return ((Text)this.get()[6]).toString(); }
+		if (this.date != that.date)
+			return this.date < that.date ? -1 : 1;
+		return this.seconds < that.seconds ? -1 : (this.seconds == that.seconds ? 0 : 1);
+	}
+
+	@Override
+	public int hashCode() {
+		return date * 86400 + seconds;
+	}
+
+	@Override
+	public boolean equals(Object o) {
+		if (!(o instanceof CarSortWritable))
+			return false;
+		CarSortWritable that = (CarSortWritable)o;
+		return date == that.date && seconds == that.seconds && lon == that.lon && lat == that.lat
+			&& bearing == that.bearing && speed == that.speed && road == that.road && cell == that.cell;
+	}
+
+	/**
+	 * Compares the date then the time of day, the leading ints of the serialized record
+	 */
+	public static class Comparator extends WritableComparator {
+		public Comparator() {
+			super(CarSortWritable.class);
+		}
+
+		@Override
+		public int compare(byte[] b1, int s1, int l1, byte[] b2, int s2, int l2) {
+			int d1 = readInt(b1, s1), d2 = readInt(b2, s2);
+			if (d1 != d2)
+				return d1 < d2 ? -1 : 1;
+			int t1 = readInt(b1, s1 + 4), t2 = readInt(b2, s2 + 4);
+			return t1 < t2 ? -1 : (t1 == t2 ? 0 : 1);
+		}
+	}
+
+	static {
+		WritableComparator.define(CarSortWritable.class, new Comparator());
+	}
 
 	/**
 	 * This is a record of output of our MapReduce job.
@@ -53,8 +140,9 @@ public class CarSortWritable extends ArrayWritable implements Comparable<CarSort
 	@Override
 	public String toString()
 	{
-		return String.format("%s\t%s\t%s\t%s\t%s\t%s\t%s", getDate(), getTime(), getLon(), getLat(),
-							 getBearing(), getSpeed(), getRoad());
+		return String.format("%06d\t%06d\t%s\t%s\t%d\t%d\t%d\t%d", date, CarDateTimeKey.timeOfDay(seconds),
+							 DegreeMinuteSecondUtility.formatDms(lon), DegreeMinuteSecondUtility.formatDms(lat),
+							 bearing, speed, road, cell);
 	}
 
 }
@@ -0,0 +1,41 @@
+package com.esri.hadoop.examples.trip;
+
+/**
+ * Numbering of the cells over the study area, by which positions and trips are counted.  A point gets
+ * the 64-bit ID of its cell in constant time, and an ID turns back into the bounds of its cell.
+ *
+ * A hierarchical index also numbers coarser levels of cells, each cell the union of four cells of the
+ * level below, with IDs two bits shorter: the ID of the cell a level up is the ID shifted right by two.
+ * So the counts by fine cell add up to the counts at every coarser level by truncating IDs, in one
+ * pass, rather than by rerunning the jobs at each cell size.  IDs of different levels may be equal;
+ * the level goes along with the ID.
+ *
+ * Implementations are built by CellIndexes.fromConfiguration, from the definition the driver puts in
+ * the job configuration.
+ */
+public interface CellIndex {
+
+	/**
+	 * @return ID of the cell containing the point, at the finest level; -1 if outside the study area,
+	 *         -2 if inside but in no cell
+	 */
+	long queryCell(double longitude, double latitude);
+
+	/**
+	 * Compute the bounds of a cell - left, bottom, right, top - into an array, which may be reused
+	 *
+	 * @param level levels above the finest, 0 for the cells of queryCell
+	 * @return the array
+	 */
+	double[] getCell(long cell, int level, double[] bounds);
+
+	/**
+	 * @return number of levels above the finest, 0 if the index is not hierarchical
+	 */
+	int getLevels();
+
+	/**
+	 * @return ID of the cell the given number of levels up that contains the cell
+	 */
+	long getParent(long cell, int levels);
+}
@@ -0,0 +1,68 @@
+package com.esri.hadoop.examples.trip;
+
+import java.io.IOException;
+
+import org.apache.hadoop.conf.Configuration;
+
+import com.esri.core.geometry.Envelope;
+
+/**
+ * The cell index of the job configuration: com.esri.trip.grid.type selects
+ *  rectangular  EqualAreaGrid - rows and columns of cells of about equal area (the default);
+ *  hexagonal    HexCellIndex - hexagons, with com.esri.trip.grid.levels coarser levels above them;
+ *  quad         QuadCellIndex - squares of a quadtree, numbered along a Hilbert curve.
+ */
+public final class CellIndexes {
+
+	static final String TYPE = "com.esri.trip.grid.type";
+	static final String LEVELS = "com.esri.trip.grid.levels";
+
+	/**
+	 * Names of the properties that define the cell index, kept in the _grid file of TripCellDriver
+	 */
+	static final String[] DEFINITION = {
+		EqualAreaGrid.LON_MIN, EqualAreaGrid.LAT_MIN, EqualAreaGrid.LON_MAX, EqualAreaGrid.LAT_MAX,
+		EqualAreaGrid.CELL_SIZE, TYPE, LEVELS
+	};
+
+	private CellIndexes() { }
+
+	/**
+	 * Cell index of the definition in the configuration, as set by setDefinition.  Without one, falls
+	 * back to the study area of com.esri.trip.input, with cells of com.esri.trip.cellsize.
+	 */
+	public static CellIndex fromConfiguration(Configuration config) throws IOException {
+		Envelope envelope;
+		double gridSide;
+		if (config.get(EqualAreaGrid.LON_MIN) == null) {
+			envelope = EqualAreaGrid.loadStudyArea(config);
+			gridSide = EqualAreaGrid.getCellSize(config);
+		} else {
+			envelope = new Envelope(Double.parseDouble(config.get(EqualAreaGrid.LON_MIN)),
+									Double.parseDouble(config.get(EqualAreaGrid.LAT_MIN)),
+									Double.parseDouble(config.get(EqualAreaGrid.LON_MAX)),
+									Double.parseDouble(config.get(EqualAreaGrid.LAT_MAX)));
+			gridSide = Double.parseDouble(config.get(EqualAreaGrid.CELL_SIZE));
+		}
+
+		String type = config.get(TYPE, "rectangular");
+		if (type.equals("rectangular")) {
+			return new EqualAreaGrid(envelope, gridSide);
+		} else if (type.equals("hexagonal")) {
+			return new HexCellIndex(envelope, gridSide, config.getInt(LEVELS, 6));
+		} else if (type.equals("quad")) {
+			return new QuadCellIndex(envelope, gridSide);
+		}
+		throw new IllegalArgumentException("Unknown " + TYPE + ": " + type);
+	}
+
+	/**
+	 * Put the definition of the cell index in the configuration, for tasks to build it without reading
+	 * the study area: its envelope, the cell size, and the type and levels, by default a rectangular grid.
+	 */
+	public static void setDefinition(Configuration config, Envelope envelope, double gridSide) {
+		EqualAreaGrid.setDefinition(config, envelope, gridSide);
+		config.set(TYPE, config.get(TYPE, "rectangular"));
+		config.set(LEVELS, config.get(LEVELS, "6"));
+	}
+}
@@ -1,18 +1,127 @@
 package com.esri.hadoop.examples.trip;
 
+/**
+ * Coordinates in DMS text, DDD.MMSSss: degrees, a point, two digits of minutes, then the
+ * seconds in hundredths - 136.073543 for 136 degrees 07' 35.43".
+ *
+ * The parsers read the characters or bytes in place, without allocating, and validate the form
+ * and the ranges of minutes and seconds.  Rather than an exception or a plausible value such as 0,
+ * malformed input parses as NaN, for the caller to count and skip - one test of Double.isNaN.
+ */
 public class DegreeMinuteSecondUtility {
 
-	public static double parseDms(String inVal) {  // DMS string to decimal degrees
-		try {
-			String[] tmp = inVal.split("\\.");
-			double outVal = Double.parseDouble(tmp[0])
-				+ Double.parseDouble(tmp[1].substring(0,2)) / 60
-				+ Double.parseDouble(tmp[1].substring(2)) / 360000 ;
-			return outVal;
-		} catch (Exception dmsx) {
-			// log?  System.out.println("parseDms: " + inVal);
-			return 0;
+	private static final int MAX_DEGREE_DIGITS = 3;
+	private static final int MAX_SECOND_DIGITS = 4;  // hundredths of seconds
+
+	/**
+	 * DMS string to decimal degrees
+	 *
+	 * @return decimal degrees, or NaN if malformed
+	 */
+	public static double parseDms(String inVal) {
+		return inVal == null ? Double.NaN : parseDms(inVal, 0, inVal.length());
+	}
+
+	/**
+	 * DMS characters in [start, end) to decimal degrees
+	 *
+	 * @return decimal degrees, or NaN if malformed
+	 */
+	public static double parseDms(CharSequence text, int start, int end) {
+		int i = start;
+		boolean negative = i < end && text.charAt(i) == '-';
+		if (negative)
+			i++;
+		int degrees = 0, count = 0;
+		for (char c; i < end && (c = text.charAt(i)) != '.'; i++, count++) {
+			if (c < '0' || c > '9' || count == MAX_DEGREE_DIGITS)
+				return Double.NaN;
+			degrees = 10 * degrees + (c - '0');
+		}
+		if (count == 0 || end - i < 4)  // point, two digits of minutes, one or more of seconds
+			return Double.NaN;
+		i++;
+		int minutes = 0;
+		for (int stop = i + 2; i < stop; i++) {
+			char c = text.charAt(i);
+			if (c < '0' || c > '9')
+				return Double.NaN;
+			minutes = 10 * minutes + (c - '0');
+		}
+		if (end - i > MAX_SECOND_DIGITS)
+			return Double.NaN;
+		int hundredths = 0;
+		for (; i < end; i++) {
+			char c = text.charAt(i);
+			if (c < '0' || c > '9')
+				return Double.NaN;
+			hundredths = 10 * hundredths + (c - '0');
+		}
+		return toDegrees(negative, degrees, minutes, hundredths);
+	}
+
+	/**
+	 * DMS in ASCII bytes [start, end), such as a field of a CsvFieldScanner, to decimal degrees
+	 *
+	 * @return decimal degrees, or NaN if malformed
+	 */
+	public static double parseDms(byte[] bytes, int start, int end) {
+		int i = start;
+		boolean negative = i < end && bytes[i] == '-';
+		if (negative)
+			i++;
+		int degrees = 0, count = 0;
+		for (byte b; i < end && (b = bytes[i]) != '.'; i++, count++) {
+			if (b < '0' || b > '9' || count == MAX_DEGREE_DIGITS)
+				return Double.NaN;
+			degrees = 10 * degrees + (b - '0');
+		}
+		if (count == 0 || end - i < 4)  // point, two digits of minutes, one or more of seconds
+			return Double.NaN;
+		i++;
+		int minutes = 0;
+		for (int stop = i + 2; i < stop; i++) {
+			byte b = bytes[i];
+			if (b < '0' || b > '9')
+				return Double.NaN;
+			minutes = 10 * minutes + (b - '0');
+		}
+		if (end - i > MAX_SECOND_DIGITS)
+			return Double.NaN;
+		int hundredths = 0;
+		for (; i < end; i++) {
+			byte b = bytes[i];
+			if (b < '0' || b > '9')
+				return Double.NaN;
+			hundredths = 10 * hundredths + (b - '0');
+		}
+		return toDegrees(negative, degrees, minutes, hundredths);
+	}
+
+	// the same sum as parsing each part as a double, so that values are unchanged from the former parser
+	private static double toDegrees(boolean negative, int degrees, int minutes, int hundredths) {
+		if (degrees > 180 || minutes >= 60 || hundredths >= 6000)
+			return Double.NaN;
+		double value = degrees + minutes / 60. + hundredths / 360000.;
+		if (value > 180)
+			return Double.NaN;
+		return negative ? -value : value;
+	}
+
+	/**
+	 * Decimal degrees to DMS text as read by parseDms: degrees, then two digits of minutes and
+	 * four digits of seconds in hundredths, such as 136.073543 for 136 degrees 07' 35.43".
+	 * A negative value is the DMS of its magnitude after a minus sign.
+	 */
+	public static String formatDms(double degrees) {
+		double magnitude = Math.abs(degrees);
+		long whole = (long)Math.floor(magnitude);
+		long hundredths = Math.round((magnitude - whole) * 360000);  // hundredths of seconds
+		if (hundredths >= 360000) {  // rounded up to the next degree
+			whole++;
+			hundredths -= 360000;
 		}
+		return String.format("%s%d.%02d%04d", degrees < 0 ? "-" : "", whole, hundredths / 6000, hundredths % 6000);
 	}
 
 }
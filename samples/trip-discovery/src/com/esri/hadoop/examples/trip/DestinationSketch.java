@@ -0,0 +1,243 @@
+package com.esri.hadoop.examples.trip;
+
+import java.io.DataInput;
+import java.io.DataOutput;
+import java.io.IOException;
+import java.util.Arrays;
+import java.util.Comparator;
+
+import org.apache.hadoop.io.Writable;
+import org.apache.hadoop.io.WritableUtils;
+
+/**
+ * Space-Saving sketch of the destination cells of the trips from an origin cell: at most a fixed
+ * number of counters, each a cell with a count that may overestimate its trips by at most its error.
+ * A cell with more than total / capacity trips is sure to have a counter.
+ *
+ * Sketches merge as by Agarwal et al., "Mergeable Summaries": a cell missing from a full sketch is
+ * taken to have had the smallest count of that sketch, as both count and error, and only the largest
+ * counters of the union are kept.  Merging a sketch of one trip into another is the plain Space-Saving
+ * update, which replaces the smallest counter once the sketch is full.  So the sketches of single trips,
+ * merged in a combiner and then in the reducer, come to the same guarantee whatever the order.
+ *
+ * The counters are kept sorted by cell ID, so that two sketches merge in one pass.  Serialized as
+ * variable-length longs, only the counters in use.
+ */
+public class DestinationSketch implements Writable {
+
+	private int capacity;
+	private int size;
+	private long[] cells = new long[0], counts = new long[0], errors = new long[0];
+	private long total;  // trips summarized, exactly
+
+	// the union of two sketches, before the smallest counters are dropped
+	private long[] unionCells = new long[0], unionCounts = new long[0], unionErrors = new long[0];
+	private long[] sorted = new long[0];
+
+	public DestinationSketch() { }
+
+	/**
+	 * @param capacity number of counters - the more, the smaller the errors
+	 */
+	public DestinationSketch(int capacity) {
+		reset(capacity);
+	}
+
+	/**
+	 * Forget all the trips, as for another origin cell
+	 */
+	public void reset(int capacity) {
+		if (capacity < 1) {
+			throw new IllegalArgumentException("Sketch capacity: " + capacity);
+		}
+		if (cells.length < capacity) {
+			cells = new long[capacity];
+			counts = new long[capacity];
+			errors = new long[capacity];
+		}
+		this.capacity = capacity;
+		size = 0;
+		total = 0;
+	}
+
+	public int getCapacity() { return capacity; }
+	public int size() { return size; }
+	public long getTotal() { return total; }
+	public long getCell(int i) { return cells[i]; }
+	public long getCount(int i) { return counts[i]; }
+	public long getError(int i) { return errors[i]; }
+
+	/**
+	 * Set the sketch to one trip to the cell
+	 */
+	public void set(long cell) {
+		size = 1;
+		cells[0] = cell;
+		counts[0] = 1;
+		errors[0] = 0;
+		total = 1;
+	}
+
+	/**
+	 * @return smallest count, which a cell missing from the sketch may have had, or 0 if not full
+	 */
+	public long getMinimum() {
+		if (size < capacity) {
+			return 0;
+		}
+		long min = Long.MAX_VALUE;
+		for (int i = 0; i < size; i++) {
+			min = Math.min(min, counts[i]);
+		}
+		return min;
+	}
+
+	/**
+	 * Merge the trips of another sketch of the same capacity into this one
+	 */
+	public void merge(DestinationSketch that) {
+		if (that.capacity != capacity) {
+			throw new IllegalArgumentException("Sketches of " + capacity + " and " + that.capacity + " counters");
+		}
+		if (that.size == 1 && that.size < that.capacity) {
+			add(that.cells[0], that.counts[0], that.errors[0]);
+		} else {
+			mergeAll(that);
+		}
+		total += that.total;
+	}
+
+	// Space-Saving update
+	private void add(long cell, long count, long error) {
+		int i = Arrays.binarySearch(cells, 0, size, cell);
+		if (i >= 0) {
+			counts[i] += count;
+			errors[i] += error;
+			return;
+		}
+		i = -i - 1;
+		long min = 0;
+		if (size == capacity) {  // replace the smallest counter
+			int smallest = 0;
+			for (int j = 1; j < size; j++) {
+				if (counts[j] < counts[smallest]) {
+					smallest = j;
+				}
+			}
+			min = counts[smallest];
+			remove(smallest);
+			if (smallest < i) {
+				i--;
+			}
+		}
+		System.arraycopy(cells, i, cells, i + 1, size - i);
+		System.arraycopy(counts, i, counts, i + 1, size - i);
+		System.arraycopy(errors, i, errors, i + 1, size - i);
+		cells[i] = cell;
+		counts[i] = min + count;
+		errors[i] = min + error;
+		size++;
+	}
+
+	private void remove(int i) {
+		System.arraycopy(cells, i + 1, cells, i, size - i - 1);
+		System.arraycopy(counts, i + 1, counts, i, size - i - 1);
+		System.arraycopy(errors, i + 1, errors, i, size - i - 1);
+		size--;
+	}
+
+	private void mergeAll(DestinationSketch that) {
+		long min1 = getMinimum(), min2 = that.getMinimum();
+		int n = size + that.size;
+		if (unionCells.length < n) {
+			unionCells = new long[n];
+			unionCounts = new long[n];
+			unionErrors = new long[n];
+			sorted = new long[n];
+		}
+		int i = 0, j = 0, u = 0;
+		while (i < size || j < that.size) {
+			if (j == that.size || (i < size && cells[i] < that.cells[j])) {
+				unionCells[u] = cells[i];
+				unionCounts[u] = counts[i] + min2;
+				unionErrors[u++] = errors[i++] + min2;
+			} else if (i == size || that.cells[j] < cells[i]) {
+				unionCells[u] = that.cells[j];
+				unionCounts[u] = that.counts[j] + min1;
+				unionErrors[u++] = that.errors[j++] + min1;
+			} else {
+				unionCells[u] = cells[i];
+				unionCounts[u] = counts[i] + that.counts[j];
+				unionErrors[u++] = errors[i++] + that.errors[j++];
+			}
+		}
+
+		// keep the capacity largest counts: all above the threshold, and as many equal to it as fit
+		long threshold = Long.MIN_VALUE;
+		int equalToKeep = 0;
+		if (u > capacity) {
+			System.arraycopy(unionCounts, 0, sorted, 0, u);
+			Arrays.sort(sorted, 0, u);
+			threshold = sorted[u - capacity];
+			equalToKeep = capacity;
+			for (int k = 0; k < u; k++) {
+				if (unionCounts[k] > threshold) {
+					equalToKeep--;
+				}
+			}
+		}
+		size = 0;
+		for (int k = 0; k < u; k++) {
+			if (unionCounts[k] > threshold || (unionCounts[k] == threshold && equalToKeep-- > 0)) {
+				cells[size] = unionCells[k];
+				counts[size] = unionCounts[k];
+				errors[size++] = unionErrors[k];
+			}
+		}
+	}
+
+	/**
+	 * @return indexes of the counters by descending count, then ascending cell ID, at most k of them
+	 */
+	public int[] top(int k) {
+		Integer[] order = new Integer[size];
+		for (int i = 0; i < size; i++) {
+			order[i] = i;
+		}
+		Arrays.sort(order, new Comparator<Integer>() {
+			public int compare(Integer i1, Integer i2) {
+				long c1 = counts[i1], c2 = counts[i2];
+				return c1 != c2 ? (c1 > c2 ? -1 : 1) : (cells[i1] < cells[i2] ? -1 : (cells[i1] == cells[i2] ? 0 : 1));
+			}
+		});
+		int[] top = new int[Math.min(k, size)];
+		for (int i = 0; i < top.length; i++) {
+			top[i] = order[i];
+		}
+		return top;
+	}
+
+	@Override
+	public void readFields(DataInput in) throws IOException {
+		reset(WritableUtils.readVInt(in));
+		total = WritableUtils.readVLong(in);
+		size = WritableUtils.readVInt(in);
+		for (int i = 0; i < size; i++) {
+			cells[i] = WritableUtils.readVLong(in);
+			counts[i] = WritableUtils.readVLong(in);
+			errors[i] = WritableUtils.readVLong(in);
+		}
+	}
+
+	@Override
+	public void write(DataOutput out) throws IOException {
+		WritableUtils.writeVInt(out, capacity);
+		WritableUtils.writeVLong(out, total);
+		WritableUtils.writeVInt(out, size);
+		for (int i = 0; i < size; i++) {
+			WritableUtils.writeVLong(out, cells[i]);
+			WritableUtils.writeVLong(out, counts[i]);
+			WritableUtils.writeVLong(out, errors[i]);
+		}
+	}
+}
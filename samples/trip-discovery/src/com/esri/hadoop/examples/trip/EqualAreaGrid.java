@@ -0,0 +1,254 @@
+package com.esri.hadoop.examples.trip;
+
+import java.io.IOException;
+
+import org.apache.hadoop.conf.Configuration;
+import org.apache.hadoop.fs.FSDataInputStream;
+import org.apache.hadoop.fs.FileSystem;
+import org.apache.hadoop.fs.Path;
+
+import com.esri.core.geometry.Envelope;
+import com.esri.core.geometry.GeometryEngine;
+import com.esri.core.geometry.Point;
+import com.esri.json.EsriFeatureClass;
+
+/**
+ * Grid of cells of about equal area over the envelope of the study area.  All cells share
+ * one arc of longitude; the arc of latitude of each row grows with latitude to keep the area.
+ *
+ * Cells are numbered row by row from the south-west: cellIndex = xIdx + xCount * yIdx.
+ * The grid is held as the breakpoints of the columns and of the rows, so memory grows with
+ * the number of rows and columns rather than of cells, and the bounds of a cell are computed
+ * when asked for.  A table of latitude buckets, each no taller than the shortest row, gives the
+ * row of a latitude in constant time.  The grid is not hierarchical.
+ */
+public class EqualAreaGrid implements CellIndex {
+
+	double lonMin, lonMax, arcLon, latMin, latMax, latExtent;
+	int xCount, yCount;
+	double[] colLon;  // left of each column, then right of the last
+	double[] rowLat;  // bottom of each row, then top of the last
+	int[] bucketRow;  // row at the bottom of each latitude bucket
+	double bucketScale;  // buckets per degree of latitude
+
+	/**
+	 * @param envelope envelope of the study area
+	 * @param gridSide nominal length of side of grid cell (meters)
+	 */
+	public EqualAreaGrid(Envelope envelope, double gridSide) {
+		double cellArea = gridSide*gridSide;
+		latMax = envelope.getYMax() + .005;  // +.005 to catch nearby outliers
+		latMin = envelope.getYMin() - .005;  // -.005 to catch nearby outliers
+		final double latMid = (latMax + latMin) / 2;  // idea: latitude of half area (ctry or envp?)
+		latExtent = latMax-latMin;
+		lonMin = envelope.getXMin() - .005;  // -.005 to catch nearby outliers (approx. 500m)
+		lonMax = envelope.getXMax() + .005;  // +.005 to catch nearby outliers
+		final double lonOneDeg = lonMin + 1;  // arbitrary longitude for establishing lenOneDegBaseline
+		Point fromPt = new Point(lonMin, latMid),
+			toPt = new Point(lonOneDeg, latMid);
+		// geodesicDistanceOnWGS84 is an approximation as we are using a different GCS, but expect it
+		// to be a good approximation as we are using proportions only, not positions, with it.
+		final double lenOneDegBaseline = GeometryEngine.geodesicDistanceOnWGS84(fromPt, toPt);
+		// GeometryEngine.distance "Calculates the 2D planar distance between two geometries."
+		//angle// final double lenOneDegBaseline = GeometryEngine.distance(fromPt, toPt, spatialReference);
+		arcLon = gridSide / lenOneDegBaseline;  // longitude arc of grid cell
+		final double latOneDeg = latMid + 1;
+		toPt.setXY(lonMin, latOneDeg);
+		final double htOneDeg = GeometryEngine.geodesicDistanceOnWGS84(fromPt, toPt);
+
+		// the same columns in every row
+		colLon = new double[(int)(Math.ceil(.000001 + (lonMax-lonMin)/arcLon)) + 2];
+		double xlon;
+		for (xlon = lonMin, xCount = 0;  xlon < lonMax;  xlon += arcLon, xCount++) {
+			colLon = ensureCapacity(colLon, xCount + 2);
+			colLon[xCount] = xlon;
+		}
+		colLon[xCount] = xlon;
+
+		rowLat = new double[(int)(Math.ceil(.000001 + latExtent*htOneDeg/gridSide)) + 2];
+		double ylat;
+		// If using quadtree, could filter out cells that do not overlap country polygon
+		for (ylat = latMin, yCount = 0;  ylat < latMax;  yCount++) {
+			fromPt.setXY(lonMin, ylat);
+			toPt.setXY(lonMin+arcLon, ylat);
+			double xlen = GeometryEngine.geodesicDistanceOnWGS84(fromPt, toPt);
+			double height = cellArea/xlen;  // meters
+			double arcLat = height / htOneDeg;
+			rowLat = ensureCapacity(rowLat, yCount + 2);
+			rowLat[yCount] = ylat;
+			ylat += arcLat;
+		}
+		rowLat[yCount] = ylat;
+
+		double minArcLat = Double.MAX_VALUE;
+		for (int row = 0; row < yCount; row++) {
+			minArcLat = Math.min(minArcLat, rowLat[row + 1] - rowLat[row]);
+		}
+		bucketScale = 1 / minArcLat;
+		bucketRow = new int[(int)Math.ceil((rowLat[yCount] - latMin) * bucketScale) + 1];
+		for (int bucket = 0, row = 0; bucket < bucketRow.length; bucket++) {
+			double bottom = latMin + bucket / bucketScale;
+			while (row < yCount - 1 && rowLat[row + 1] <= bottom)
+				row++;
+			bucketRow[bucket] = row;
+		}
+	}
+
+	private static double[] ensureCapacity(double[] array, int length) {
+		if (array.length >= length)
+			return array;
+		double[] tmp = new double[Math.max(length, 2 * array.length)];
+		System.arraycopy(array, 0, tmp, 0, array.length);
+		return tmp;
+	}
+
+	// definition of the study area and cell size in the job configuration, set once by the driver;
+	// CellIndexes builds the grid, or another cell index, from it
+	static final String LON_MIN = "com.esri.trip.grid.lonmin";
+	static final String LAT_MIN = "com.esri.trip.grid.latmin";
+	static final String LON_MAX = "com.esri.trip.grid.lonmax";
+	static final String LAT_MAX = "com.esri.trip.grid.latmax";
+	static final String CELL_SIZE = "com.esri.trip.grid.cellsize";
+
+	/**
+	 * Put the definition of the grid in the configuration, for tasks to build the grid without
+	 * reading the study area: its envelope and the cell size.  Doubles are written so as to
+	 * read back exactly, for every task to build the very same grid.
+	 */
+	public static void setDefinition(Configuration config, Envelope envelope, double gridSide) {
+		config.set(LON_MIN, Double.toString(envelope.getXMin()));
+		config.set(LAT_MIN, Double.toString(envelope.getYMin()));
+		config.set(LON_MAX, Double.toString(envelope.getXMax()));
+		config.set(LAT_MAX, Double.toString(envelope.getYMax()));
+		config.set(CELL_SIZE, Double.toString(gridSide));
+	}
+
+	/**
+	 * @return envelope of the study area of com.esri.trip.input
+	 */
+	public static Envelope loadStudyArea(Configuration config) throws IOException {
+		String featuresPath = config.get("com.esri.trip.input");
+		FSDataInputStream iStream = null;
+		EsriFeatureClass country;
+		try {
+			// load the JSON file provided as argument
+			FileSystem hdfs = FileSystem.get(config);
+			iStream = hdfs.open(new Path(featuresPath));
+			country = EsriFeatureClass.fromJson(iStream);
+		}
+		finally
+		{
+			if (iStream != null)
+			{
+				try {
+					iStream.close();
+				} catch (IOException e) { }
+			}
+		}
+
+		Envelope envelope = new Envelope();
+		country.features[0].geometry.queryEnvelope(envelope);
+		return envelope;
+	}
+
+	/**
+	 * @return nominal/average/target length of side of grid cell (meters), from com.esri.trip.cellsize
+	 */
+	public static double getCellSize(Configuration config) {
+		double gridSide = 1000.;
+		String sizeArg = config.get("com.esri.trip.cellsize", "1000");
+		if (sizeArg.length() > 0 && sizeArg.charAt(0) != '-') {
+			double trySize = Double.parseDouble(sizeArg);
+			if (trySize >= 100)  //likely unrealistic smaller than about 200m to 500m
+				gridSide = trySize;  // input as meters
+			else if (trySize > 0)
+				gridSide = 1000 * trySize;  // input as km
+		}
+		return gridSide;
+	}
+
+	/**
+	 * Query the grid for the cell containing the given lon-lat
+	 *
+	 * @param longitude
+	 * @param latitude
+	 * @return index to cell in array; -1 if outside the study area, -2 if past the last column.  The row
+	 *         search stays within the rows, which span latMin to latMax, so there is no code for a row
+	 *         out of range, the -3 of the former search that stepped one row at a time from an estimate
+	 */
+	public int queryGrid(double longitude, double latitude) {
+		int cellIndex; // xIdx + xCount * yIdx
+		if (longitude >= lonMin && longitude <= lonMax  &&
+			latitude >= latMin  && latitude <= latMax)  {   // avoid outliers
+			int xIdx = (int)((longitude-lonMin)/arcLon);
+			if (xIdx >= 0 && xIdx < xCount) {
+				// the row whose bottom is the greatest not above the latitude: that of the bucket, or
+				// the next, as no row is shorter than a bucket - or the one before, after rounding
+				int row = bucketRow[Math.min((int)((latitude-latMin)*bucketScale), bucketRow.length - 1)];
+				while (row > 0 && rowLat[row] > latitude)
+					row--;
+				while (row < yCount - 1 && rowLat[row + 1] <= latitude)
+					row++;
+				cellIndex = xIdx + xCount * row;
+			} else {  // bug
+				cellIndex = -2;
+			}
+		} else {  // outlier
+			cellIndex = -1;
+		}
+		return cellIndex;
+	}
+
+	public long queryCell(double longitude, double latitude) {
+		return queryGrid(longitude, latitude);
+	}
+
+	/**
+	 * @return bounds of the cell - left, bottom, right, top
+	 */
+	public double[] getCell(int cellIndex) {
+		return getCell(cellIndex, new double[4]);
+	}
+
+	/**
+	 * Compute the bounds of the cell - left, bottom, right, top - into an array, which may be reused
+	 *
+	 * @return the array
+	 */
+	public double[] getCell(int cellIndex, double[] bounds) {
+		if (cellIndex < 0 || cellIndex >= getCellCount()) {
+			throw new IndexOutOfBoundsException("No cell " + cellIndex + " in grid of " + getCellCount());
+		}
+		int xIdx = cellIndex % xCount, yIdx = cellIndex / xCount;
+		bounds[0] = colLon[xIdx];
+		bounds[1] = rowLat[yIdx];
+		bounds[2] = colLon[xIdx + 1];
+		bounds[3] = rowLat[yIdx + 1];
+		return bounds;
+	}
+
+	public double[] getCell(long cell, int level, double[] bounds) {
+		if (level != 0) {
+			throw new IllegalArgumentException("No level " + level + " in grid of one level");
+		}
+		if (cell < 0 || cell >= getCellCount()) {
+			throw new IndexOutOfBoundsException("No cell " + cell + " in grid of " + getCellCount());
+		}
+		return getCell((int)cell, bounds);
+	}
+
+	public int getLevels() {
+		return 0;
+	}
+
+	public long getParent(long cell, int levels) {
+		if (levels != 0) {
+			throw new IllegalArgumentException("No level " + levels + " in grid of one level");
+		}
+		return cell;
+	}
+
+	public int getCellCount() {
+		return xCount * yCount;
+	}
+}
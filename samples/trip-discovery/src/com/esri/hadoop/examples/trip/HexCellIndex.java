@@ -0,0 +1,108 @@
+package com.esri.hadoop.examples.trip;
+
+import com.esri.core.geometry.Envelope;
+
+/**
+ * Hexagons over the study area, in a hierarchy of aperture 4 - in the manner of H3, on the plane of the
+ * study area rather than on an icosahedron.  The finest hexagons have the area of a square of the
+ * nominal cell size; each level up doubles the spacing of the centers.
+ *
+ * The centers of a level are the lattice a u + b v, for integers a and b, of u = (w, 0) and
+ * v = (w / 2, w sqrt(3) / 2), with w the spacing of the level.  The centers of the level above are
+ * those of even a and b, and every other center of this level is the midpoint of two of them.  Each
+ * hexagon has as parent the hexagon of the level above at its center, or - at a midpoint - the first of
+ * the two, so that each parent has four children: its own center, digit 0, and the midpoints toward
+ * +u, +v and v - u, digits 1 to 3.  As in H3, a parent is only about the union of its children, so
+ * the bounds of a coarser hexagon are those of the finest hexagons under it, not of the hexagon itself.
+ *
+ * The ID of a hexagon is the index of its ancestor at the top level, among those over the study area,
+ * then two bits of digit per level down.  The ID of the hexagon a level up is the ID shifted right by two.
+ */
+public class HexCellIndex extends PlanarCellIndex {
+
+	static final int MAX_LEVELS = 24;
+	static final double SQRT3 = Math.sqrt(3);
+
+	final int levels;       // above the finest
+	final double spacing;   // of the centers of the finest hexagons, in meters
+	final long aMin, bMin;  // lattice coordinates of the first top-level hexagon
+	final long columns;     // top-level hexagons per row of the index
+
+	/**
+	 * @param gridSide side of the square of the area of the finest hexagons (meters)
+	 * @param levels number of levels above the finest
+	 */
+	public HexCellIndex(Envelope envelope, double gridSide, int levels) {
+		super(envelope);
+		if (levels < 0 || levels > MAX_LEVELS) {
+			throw new IllegalArgumentException("Levels of hexagons: " + levels);
+		}
+		this.levels = levels;
+		spacing = gridSide * Math.sqrt(2 / SQRT3);  // hexagon area = spacing^2 * sqrt(3) / 2
+
+		// top-level hexagons over the envelope, with a margin for the parents of hexagons at its edges
+		double topSpacing = spacing * (1L << levels);
+		double bMax = getHeight() / (topSpacing * SQRT3 / 2);
+		bMin = -3;
+		aMin = (long)Math.floor(-bMax / 2) - 3;
+		columns = (long)Math.ceil(getWidth() / topSpacing) + 3 - aMin + 1;
+	}
+
+	public long queryCell(double longitude, double latitude) {
+		if (!contains(longitude, latitude)) {
+			return -1;
+		}
+		// fractional lattice coordinates, rounded to the nearest center by way of cube coordinates
+		double fb = toY(latitude) / (spacing * SQRT3 / 2), fa = toX(longitude) / spacing - fb / 2;
+		double fc = -fa - fb;
+		long a = Math.round(fa), b = Math.round(fb), c = Math.round(fc);
+		double da = Math.abs(a - fa), db = Math.abs(b - fb), dc = Math.abs(c - fc);
+		if (da > db && da > dc) {
+			a = -b - c;
+		} else if (db > dc) {
+			b = -a - c;
+		}
+
+		long digits = 0;
+		for (int level = 0; level < levels; level++) {
+			long digit = (a & 1) + 2 * (b & 1);  // 0 for the center of the parent, else toward +u, +v, v - u
+			digits |= digit << (2 * level);
+			a = digit == 3 ? (a >> 1) + 1 : a >> 1;
+			b >>= 1;
+		}
+		long column = a - aMin, row = b - bMin;
+		if (column < 0 || column >= columns || row < 0) {
+			return -2;  // beyond the margin - not expected
+		}
+		return (row * columns + column) << (2 * levels) | digits;
+	}
+
+	public double[] getCell(long cell, int level, double[] bounds) {
+		if (level < 0 || level > levels || cell < 0) {
+			throw new IndexOutOfBoundsException("No cell " + cell + " at level " + level);
+		}
+		int down = levels - level;  // levels from the top to that of the cell
+		long top = cell >>> (2 * down);
+		long a = aMin + top % columns, b = bMin + top / columns;
+		for (int i = down - 1; i >= 0; i--) {
+			long digit = (cell >>> (2 * i)) & 3;
+			a = 2 * a + (digit == 1 ? 1 : digit == 3 ? -1 : 0);
+			b = 2 * b + (digit >= 2 ? 1 : 0);
+		}
+		double w = spacing * (1L << level);
+		double x = (a + b / 2.) * w, y = b * w * SQRT3 / 2;
+		// the finest hexagons under it are offset from its center by the sum, over the levels down, of
+		// 0, u, v or v - u at the spacing of each level: from -1/2 to 1 spacing across, 0 to sqrt(3)/2 up
+		double span = spacing * ((1L << level) - 1);
+		double halfWidth = spacing / 2, halfHeight = spacing / SQRT3;  // pointy-top hexagon
+		bounds[0] = toLongitude(x - span / 2 - halfWidth);
+		bounds[1] = toLatitude(y - halfHeight);
+		bounds[2] = toLongitude(x + span + halfWidth);
+		bounds[3] = toLatitude(y + span * SQRT3 / 2 + halfHeight);
+		return bounds;
+	}
+
+	public int getLevels() {
+		return levels;
+	}
+}
@@ -0,0 +1,55 @@
+package com.esri.hadoop.examples.trip;
+
+import java.io.IOException;
+
+import org.apache.hadoop.conf.Configuration;
+import org.apache.hadoop.fs.FileSystem;
+import org.apache.hadoop.fs.Path;
+import org.apache.hadoop.io.MapFile;
+import org.apache.hadoop.io.SequenceFile.CompressionType;
+import org.apache.hadoop.io.Writable;
+import org.apache.hadoop.io.WritableComparable;
+import org.apache.hadoop.io.compress.CompressionCodec;
+import org.apache.hadoop.io.compress.DefaultCodec;
+import org.apache.hadoop.mapreduce.RecordWriter;
+import org.apache.hadoop.mapreduce.TaskAttemptContext;
+import org.apache.hadoop.mapreduce.lib.output.SequenceFileOutputFormat;
+import org.apache.hadoop.util.ReflectionUtils;
+
+/**
+ * Writes each part of the output as a MapFile - a sorted SequenceFile with an index of its keys - for
+ * lookups by key.  Hadoop 0.20 has this only in the old mapred API.  The compression options are those
+ * of SequenceFileOutputFormat.  To read the output back with SequenceFileInputFormat, give it the data
+ * files of the MapFiles: in Hadoop 0.20 it would read their index files too.
+ */
+public class MapFileOutputFormat<K extends WritableComparable<?>, V extends Writable>
+	extends SequenceFileOutputFormat<K, V> {
+
+	@Override
+	public RecordWriter<K, V> getRecordWriter(TaskAttemptContext context) throws IOException {
+		Configuration conf = context.getConfiguration();
+		CompressionCodec codec = null;
+		CompressionType compressionType = CompressionType.NONE;
+		if (getCompressOutput(context)) {
+			compressionType = getOutputCompressionType(context);
+			codec = ReflectionUtils.newInstance(getOutputCompressorClass(context, DefaultCodec.class), conf);
+		}
+		Path file = getDefaultWorkFile(context, "");
+		FileSystem fs = file.getFileSystem(conf);
+		final MapFile.Writer out = new MapFile.Writer(conf, fs, file.toString(),
+			context.getOutputKeyClass().asSubclass(WritableComparable.class),
+			context.getOutputValueClass(), compressionType, codec, context);
+
+		return new RecordWriter<K, V>() {
+			@Override
+			public void write(K key, V value) throws IOException {
+				out.append(key, value);
+			}
+
+			@Override
+			public void close(TaskAttemptContext context) throws IOException {
+				out.close();
+			}
+		};
+	}
+}
@@ -0,0 +1,26 @@
+package com.esri.hadoop.examples.trip;
+
+import java.io.IOException;
+import org.apache.hadoop.io.LongWritable;
+import org.apache.hadoop.mapreduce.Reducer;
+
+/**
+ * Sum the counts of an origin-destination pair - of new trips, or of the runs being compacted.
+ * Also the combiner of TripInCommonDriver and of the jobs on the store.
+ */
+public class ODCountReducer extends Reducer<OriginDestKey, LongWritable, OriginDestKey, LongWritable> {
+
+	final LongWritable sum = new LongWritable();
+
+	@Override
+	public void reduce(OriginDestKey key, Iterable<LongWritable> values, Context ctx)
+		throws IOException, InterruptedException {
+		long count = 0;
+		for (LongWritable value : values) {
+			count += value.get();
+		}
+		sum.set(count);
+		ctx.write(key, sum);
+	}
+
+}
@@ -0,0 +1,214 @@
+package com.esri.hadoop.examples.trip;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.List;
+import java.util.Map;
+import java.util.Properties;
+
+import org.apache.hadoop.conf.Configuration;
+import org.apache.hadoop.fs.FSDataInputStream;
+import org.apache.hadoop.fs.FileStatus;
+import org.apache.hadoop.fs.FileSystem;
+import org.apache.hadoop.fs.Path;
+import org.apache.hadoop.io.LongWritable;
+import org.apache.hadoop.io.MapFile;
+
+/**
+ * On-disk layout of the origin-destination store: a directory of sorted runs of counts, keyed by
+ * OriginDestKey, and the _grid file of the cell IDs.
+ *
+ * Each run is the output of one job of ODStoreDriver - a MapFile per reducer, partitioned by origin
+ * cell with OriginPartitioner - and covers a range of deltas, numbered from 1 in the order they were
+ * added: run-00000007-00000007 holds the counts of delta 7 alone, and run-00000001-00000007 the sum of
+ * deltas 1 to 7, after a compaction.  A compaction writes its run before deleting the runs it merged,
+ * so a run whose range lies within that of another is left over from an interrupted compaction, and
+ * is ignored until the next update of the store deletes it.
+ */
+class ODStore {
+
+	static final String RUN_PREFIX = "run-";
+	static final String PART_PREFIX = "part-";
+	static final String TEMP_PREFIX = "_tmp-";
+
+	final Configuration config;
+	final FileSystem fs;
+	final Path dir;
+
+	/**
+	 * One sorted run of the store
+	 */
+	static class Run {
+		final long first, last;  // range of deltas
+		final Path path;
+
+		Run(long first, long last, Path path) {
+			this.first = first;
+			this.last = last;
+			this.path = path;
+		}
+
+		boolean covers(Run that) {
+			return first <= that.first && that.last <= last && this != that;
+		}
+	}
+
+	ODStore(Configuration config, Path dir) throws IOException {
+		this.config = config;
+		this.fs = dir.getFileSystem(config);
+		this.dir = dir;
+	}
+
+	/**
+	 * @return the runs of the store, oldest deltas first, without those left over from an interrupted
+	 *         compaction
+	 */
+	List<Run> listRuns() throws IOException {
+		List<Run> runs = listAllRuns(), live = new ArrayList<Run>();
+		for (Run run : runs) {
+			if (!isCovered(run, runs)) {
+				live.add(run);
+			}
+		}
+		Collections.sort(live, new Comparator<Run>() {
+			public int compare(Run r1, Run r2) {
+				return r1.first < r2.first ? -1 : (r1.first == r2.first ? 0 : 1);
+			}
+		});
+		return live;
+	}
+
+	/**
+	 * Delete the runs left over from an interrupted compaction, and its temporary output
+	 */
+	void deleteLeftovers() throws IOException {
+		List<Run> runs = listAllRuns();
+		for (Run run : runs) {
+			if (isCovered(run, runs)) {
+				fs.delete(run.path, true);
+			}
+		}
+		FileStatus[] temps = fs.globStatus(new Path(dir, TEMP_PREFIX + "*"));
+		if (temps != null) {
+			for (FileStatus temp : temps) {
+				fs.delete(temp.getPath(), true);
+			}
+		}
+	}
+
+	private List<Run> listAllRuns() throws IOException {
+		List<Run> runs = new ArrayList<Run>();
+		FileStatus[] statuses = fs.globStatus(new Path(dir, RUN_PREFIX + "*"));
+		if (statuses != null) {
+			for (FileStatus status : statuses) {
+				String[] range = status.getPath().getName().substring(RUN_PREFIX.length()).split("-");
+				if (range.length == 2) {
+					runs.add(new Run(Long.parseLong(range[0]), Long.parseLong(range[1]), status.getPath()));
+				}
+			}
+		}
+		return runs;
+	}
+
+	private static boolean isCovered(Run run, List<Run> runs) {
+		for (Run other : runs) {
+			if (other.covers(run)) {
+				return true;
+			}
+		}
+		return false;
+	}
+
+	/**
+	 * @return number of the next delta to add
+	 */
+	long nextDelta(List<Run> runs) {
+		long last = 0;
+		for (Run run : runs) {
+			last = Math.max(last, run.last);
+		}
+		return last + 1;
+	}
+
+	Path runPath(long first, long last) {
+		return new Path(dir, String.format("%s%08d-%08d", RUN_PREFIX, first, last));
+	}
+
+	/**
+	 * @return where a job writes a run before it is renamed into the store - hidden from listRuns,
+	 *         and from FileInputFormat
+	 */
+	Path tempPath(long first, long last) {
+		return new Path(dir, String.format("%s%08d-%08d", TEMP_PREFIX, first, last));
+	}
+
+	/**
+	 * @return the MapFile directories of a run, in partition order
+	 */
+	Path[] listParts(Run run) throws IOException {
+		FileStatus[] statuses = fs.globStatus(new Path(run.path, PART_PREFIX + "*"));
+		Path[] parts = new Path[statuses == null ? 0 : statuses.length];
+		for (int i = 0; i < parts.length; i++) {
+			parts[i] = statuses[i].getPath();
+		}
+		Arrays.sort(parts);
+		return parts;
+	}
+
+	/**
+	 * @return the grid definition of the store, or null if nothing was added yet
+	 */
+	Properties readGrid() throws IOException {
+		Path gridPath = new Path(dir, TripCellDriver.GRID_FILE);
+		if (!fs.exists(gridPath)) {
+			return null;
+		}
+		Properties grid = new Properties();
+		FSDataInputStream iStream = fs.open(gridPath);
+		try {
+			grid.load(iStream);
+		} finally {
+			iStream.close();
+		}
+		return grid;
+	}
+
+	void writeGrid(Configuration config) throws IOException {
+		TripCellDriver.writeGridDefinition(config, new Path(dir, TripCellDriver.GRID_FILE));
+	}
+
+	/**
+	 * Add up the counts of the trips from an origin cell, by destination cell, over all the runs.
+	 * Each run is read only in the part of the origin cell, from the index entry before the cell.
+	 *
+	 * @return total number of trips from the cell
+	 */
+	long readCounts(long origin, Map<Long, Long> destinations) throws IOException {
+		long total = 0;
+		OriginDestKey first = new OriginDestKey(origin, Long.MIN_VALUE), key = new OriginDestKey();
+		LongWritable count = new LongWritable();
+		for (Run run : listRuns()) {
+			Path[] parts = listParts(run);
+			if (parts.length == 0) {
+				continue;
+			}
+			Path part = parts[OriginDestKey.OriginPartitioner.partition(0, origin, parts.length)];
+			MapFile.Reader reader = new MapFile.Reader(fs, part.toString(), config);
+			try {
+				OriginDestKey next = (OriginDestKey)reader.getClosest(first, count);
+				while (next != null && next.getLevel() == 0 && next.getOrigin() == origin) {
+					Long sum = destinations.get(next.getDestination());
+					destinations.put(next.getDestination(), sum == null ? count.get() : sum + count.get());
+					total += count.get();
+					next = reader.next(key, count) ? key : null;
+				}
+			} finally {
+				reader.close();
+			}
+		}
+		return total;
+	}
+}
@@ -0,0 +1,293 @@
+package com.esri.hadoop.examples.trip;
+
+import java.io.IOException;
+import java.io.PrintStream;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Properties;
+
+import org.apache.hadoop.conf.Configuration;
+import org.apache.hadoop.conf.Configured;
+import org.apache.hadoop.fs.Path;
+import org.apache.hadoop.io.LongWritable;
+import org.apache.hadoop.io.MapFile;
+import org.apache.hadoop.io.SequenceFile.CompressionType;
+import org.apache.hadoop.io.Text;
+import org.apache.hadoop.mapreduce.Counters;
+import org.apache.hadoop.mapreduce.Job;
+import org.apache.hadoop.mapreduce.Mapper;
+import org.apache.hadoop.mapreduce.lib.input.SequenceFileInputFormat;
+import org.apache.hadoop.mapreduce.lib.output.TextOutputFormat;
+import org.apache.hadoop.util.Tool;
+import org.apache.hadoop.util.ToolRunner;
+
+	/**
+	 * Keep the counts of trips by origin and destination cell in a store that grows by deltas, so that
+	 * each batch of trips from TripCellDriver is counted once, and the report of TripInCommonDriver is
+	 * had from the counts rather than from all the trips so far
+	 */
+public class ODStoreDriver extends Configured implements Tool {
+
+	public static void main(String[] args) throws Exception {
+        System.exit(ToolRunner.run(new ODStoreDriver(), args));
+    }
+
+	/*
+	 * Command-line parameters
+	 *  add store trips              count the trips of TripCellDriver output into a new run of the store
+	 *  compact store                merge all the runs of the store into one
+	 *  report minCount store output the report of TripInCommonDriver, from the store
+	 *  query store lon lat [count]  the most common destinations of the cell of a point, from the store
+	 *
+	 * Options
+	 *  -D com.esri.trip.od.runs=8   after an add, compact the store once it has more runs than this
+	 */
+	public int run(String[] args) throws Exception {
+        Configuration config = getConf();
+
+		String command = args.length > 0 ? args[0] : "";
+		if (command.equals("add") && args.length == 3) {
+			return add(config, new Path(args[1]), new Path(args[2])) ? 0 : 1;
+		} else if (command.equals("compact") && args.length == 2) {
+			return compact(config, new Path(args[1])) ? 0 : 1;
+		} else if (command.equals("report") && args.length == 4) {
+			Job job = createReportJob(config, args[1], new Path(args[2]), new Path(args[3]));
+			if (!job.waitForCompletion(true)) {
+				return 1;
+			}
+			TripInCommonDriver.printSummary(job.getCounters(), System.out);
+			return 0;
+		} else if (command.equals("query") && (args.length == 4 || args.length == 5)) {
+			query(config, new Path(args[1]), Double.parseDouble(args[2]), Double.parseDouble(args[3]),
+				  args.length == 5 ? Integer.parseInt(args[4]) : 10, System.out);
+			return 0;
+		}
+		System.out.println("Invalid Arguments");
+		print_usage();
+		return 2;
+	}
+
+	/**
+	 * Count a batch of trips into a new run of the store, then compact the store if it has too many runs
+	 */
+	static boolean add(Configuration config, Path store, Path trips) throws Exception {
+		if (!TripInCommonDriver.readGridDefinition(config, trips)) {
+			System.out.println("No " + TripCellDriver.GRID_FILE + " file found beside the trips; set -D com.esri.trip.input and -D com.esri.trip.cellsize");
+			throw new IllegalArgumentException();
+		}
+		if (config.get(EqualAreaGrid.LON_MIN) == null) {
+			// no _grid file: the grid of the study area and cell size, as TripCellDriver defines it
+			CellIndexes.setDefinition(config, EqualAreaGrid.loadStudyArea(config), EqualAreaGrid.getCellSize(config));
+		}
+		ODStore od = new ODStore(config, store);
+		Properties grid = od.readGrid();
+		if (grid != null) {
+			// the counts of another grid would add up cells that have the same ID but not the same bounds
+			for (String name : TripCellDriver.GRID_PROPERTIES) {
+				if (!grid.getProperty(name, "").equals(config.get(name))) {
+					System.out.println("The grid of the trips is not the grid of the store, at " + name + ": " +
+									   config.get(name) + " vs. " + grid.getProperty(name));
+					throw new IllegalArgumentException();
+				}
+			}
+		}
+		od.deleteLeftovers();
+
+		List<ODStore.Run> runs = od.listRuns();
+		long delta = od.nextDelta(runs);
+		Path temp = od.tempPath(delta, delta);
+		Job job = createRunJob(config, "Automobile Trip Origin & Destination Counts: Delta " + delta, temp);
+		job.setMapperClass(TripInCommonMapper.class);
+		SequenceFileInputFormat.setInputPaths(job, trips);
+		if (!job.waitForCompletion(true)) {
+			return false;
+		}
+		if (grid == null) {
+			od.writeGrid(config);
+		}
+		rename(od, temp, od.runPath(delta, delta));
+		printSummary(job.getCounters(), od, System.out);
+
+		if (runs.size() + 1 > config.getInt("com.esri.trip.od.runs", 8)) {
+			return compact(config, store);
+		}
+		return true;
+	}
+
+	/**
+	 * Merge all the runs of the store into one, summing the counts of each origin-destination pair
+	 */
+	static boolean compact(Configuration config, Path store) throws Exception {
+		ODStore od = new ODStore(config, store);
+		od.deleteLeftovers();
+		List<ODStore.Run> runs = od.listRuns();
+		if (runs.size() < 2) {
+			return true;
+		}
+
+		long first = runs.get(0).first, last = od.nextDelta(runs) - 1;
+		Path temp = od.tempPath(first, last);
+		Job job = createRunJob(config, "Automobile Trip Origin & Destination Counts: Deltas " + first + "-" + last, temp);
+		job.setMapperClass(Mapper.class);  // identity
+		addRunInputs(job, runs);
+		if (!job.waitForCompletion(true)) {
+			return false;
+		}
+		// the compacted run covers the runs it merged, which are ignored from here on
+		rename(od, temp, od.runPath(first, last));
+		od.deleteLeftovers();
+		printSummary(job.getCounters(), od, System.out);
+		return true;
+	}
+
+	/**
+	 * Move the output of a job into place as a run, failing rather than leaving it for deleteLeftovers
+	 */
+	private static void rename(ODStore od, Path temp, Path run) throws IOException {
+		if (!od.fs.rename(temp, run)) {
+			throw new IOException("Failed to rename " + temp + " to " + run);
+		}
+	}
+
+	/**
+	 * A job that writes a run of the store: summed counts keyed by OriginDestKey, partitioned by origin
+	 * cell into sorted MapFiles
+	 */
+	private static Job createRunJob(Configuration config, String name, Path output) throws IOException {
+		Job job = new Job(config);
+		job.setJobName(name);
+		job.setMapOutputKeyClass(OriginDestKey.class);
+		job.setMapOutputValueClass(LongWritable.class);
+		job.setOutputKeyClass(OriginDestKey.class);
+		job.setOutputValueClass(LongWritable.class);
+
+		job.setCombinerClass(ODCountReducer.class);
+		job.setReducerClass(ODCountReducer.class);
+		job.setPartitionerClass(OriginDestKey.OriginPartitioner.class);
+
+		job.setInputFormatClass(SequenceFileInputFormat.class);
+		job.setOutputFormatClass(MapFileOutputFormat.class);
+		MapFileOutputFormat.setCompressOutput(job, true);
+		MapFileOutputFormat.setOutputCompressionType(job, CompressionType.BLOCK);
+		MapFileOutputFormat.setOutputPath(job, output);
+
+		job.setJarByClass(ODStoreDriver.class);
+		return job;
+	}
+
+	private static void addRunInputs(Job job, List<ODStore.Run> runs) throws IOException {
+		for (ODStore.Run run : runs) {
+			// the data files of the MapFiles of the run - the new SequenceFileInputFormat of Hadoop 0.20
+			// would read their index files as well
+			SequenceFileInputFormat.addInputPath(job, new Path(run.path, ODStore.PART_PREFIX + "*/" + MapFile.DATA_FILE_NAME));
+		}
+	}
+
+	/**
+	 * Configure the job for the report of TripInCommonDriver, read from the runs of the store rather
+	 * than from the trips
+	 */
+	public static Job createReportJob(Configuration config, String minCount, Path store, Path output) throws IOException {
+		config.set("com.esri.trip.threshold", minCount);
+		if (!TripInCommonDriver.readGridDefinition(config, store)) {
+			System.out.println("No " + TripCellDriver.GRID_FILE + " file found in the store; add trips first");
+			throw new IllegalArgumentException();
+		}
+		ODStore od = new ODStore(config, store);
+
+		Job job = new Job(config);
+		job.setJobName("Automobile Trip Origin & Destination by Grid Cell, from Counts");
+		job.setMapOutputKeyClass(OriginDestKey.class);
+		job.setMapOutputValueClass(LongWritable.class);
+		job.setOutputKeyClass(Text.class);
+		job.setOutputValueClass(Text.class);
+
+		job.setMapperClass(Mapper.class);  // identity
+		job.setCombinerClass(ODCountReducer.class);
+		job.setReducerClass(TripInCommonReducer.class);
+
+		// secondary sort: the counts of an origin cell reach one reducer call, sorted by destination
+		job.setPartitionerClass(OriginDestKey.OriginPartitioner.class);
+		job.setSortComparatorClass(OriginDestKey.Comparator.class);
+		job.setGroupingComparatorClass(OriginDestKey.OriginGroupingComparator.class);
+
+		job.setInputFormatClass(SequenceFileInputFormat.class);
+		job.setOutputFormatClass(TextOutputFormat.class);
+		addRunInputs(job, od.listRuns());
+		TextOutputFormat.setOutputPath(job, output);
+
+		job.setJarByClass(ODStoreDriver.class);
+		return job;
+	}
+
+	/**
+	 * Print the most common destinations of the cell of a point, looked up in each run of the store
+	 */
+	static void query(Configuration config, Path store, double longitude, double latitude, int count,
+					  PrintStream out) throws IOException {
+		ODStore od = new ODStore(config, store);
+		Properties definition = od.readGrid();
+		if (definition == null) {
+			out.println("Nothing added to the store yet");
+			return;
+		}
+		for (String name : TripCellDriver.GRID_PROPERTIES) {
+			config.set(name, definition.getProperty(name));
+		}
+		CellIndex index = CellIndexes.fromConfiguration(config);
+		long origin = index.queryCell(longitude, latitude);
+		if (origin < 0) {
+			out.println("The point is outside the grid");
+			return;
+		}
+
+		final Map<Long, Long> destinations = new HashMap<Long, Long>();
+		long total = od.readCounts(origin, destinations);
+		out.printf("Origin cell %d (%s): %d trips to %d destination cells%n",
+				   origin, formatCell(index, origin), total, destinations.size());
+		List<Long> cells = new ArrayList<Long>(destinations.keySet());
+		Collections.sort(cells, new Comparator<Long>() {
+			public int compare(Long c1, Long c2) {
+				int cmp = destinations.get(c2).compareTo(destinations.get(c1));
+				return cmp != 0 ? cmp : c1.compareTo(c2);  // most trips first, then by cell ID
+			}
+		});
+		for (Long cell : cells.subList(0, Math.min(count, cells.size()))) {
+			long trips = destinations.get(cell);
+			out.printf("%d\t%s\t%d\t%f%n", cell, formatCell(index, cell), trips, 100. * trips / total);
+		}
+	}
+
+	private static String formatCell(CellIndex index, long cellIndex) {
+		double[] cell = index.getCell(cellIndex, 0, new double[4]);
+		return String.format("%f\t%f\t%f\t%f", cell[0], cell[1], cell[2], cell[3]);
+	}
+
+	/**
+	 * Print the trips counted by the job, and the runs of the store after it
+	 */
+	static void printSummary(Counters counters, ODStore od, PrintStream out) throws IOException {
+		long trips = counters.findCounter(TripInCommonMapper.Trips.COUNTED).getValue();
+		if (trips > 0) {
+			out.printf("Trips counted: %d%n", trips);
+		}
+		List<ODStore.Run> runs = od.listRuns();
+		out.printf("Store: %d runs, deltas %d to %d%n", runs.size(),
+				   runs.isEmpty() ? 0 : runs.get(0).first, od.nextDelta(runs) - 1);
+	}
+
+	static void print_usage()
+	{
+		System.out.println("***");
+		System.out.println("Usage: hadoop jar trip-discovery.jar ODStoreDriver -libjars [external jar references] add [/hdfs/path/to]/od-store [/hdfs/path/to]/trip-cells");
+		System.out.println("       hadoop jar trip-discovery.jar ODStoreDriver -libjars [external jar references] compact [/hdfs/path/to]/od-store");
+		System.out.println("       hadoop jar trip-discovery.jar ODStoreDriver -libjars [external jar references] report minCount [/hdfs/path/to]/od-store [/hdfs/path/to/user]/vehicle-output");
+		System.out.println("       hadoop jar trip-discovery.jar ODStoreDriver -libjars [external jar references] query [/hdfs/path/to]/od-store longitude latitude [count]");
+		System.out.println("***");
+	}
+
+}
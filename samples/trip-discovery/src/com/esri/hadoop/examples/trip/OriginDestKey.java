@@ -0,0 +1,150 @@
+package com.esri.hadoop.examples.trip;
+
+import java.io.DataInput;
+import java.io.DataOutput;
+import java.io.IOException;
+
+import org.apache.hadoop.io.WritableComparable;
+import org.apache.hadoop.io.WritableComparator;
+import org.apache.hadoop.mapreduce.Partitioner;
+
+/**
+ * Key of the origin-destination counts: level of the cells in the cell index, origin cell ID, then
+ * destination cell ID.  Sorted by level, origin, then destination, so that all the counts of an origin
+ * cell are adjacent in a run of the store, and reach one reducer call with their destinations in order.
+ * The level is 0, that of the cells of the trips, but for counts by coarser cells of a hierarchical
+ * index.
+ *
+ * Serialized as an int and two longs, which the raw comparators compare without deserializing.
+ */
+public class OriginDestKey implements WritableComparable<OriginDestKey> {
+
+	private int level;
+	private long origin;
+	private long destination;
+
+	public OriginDestKey() { }
+
+	public OriginDestKey(long origin, long destination) {
+		set(0, origin, destination);
+	}
+
+	public int getLevel() { return level; }
+	public long getOrigin() { return origin; }
+	public long getDestination() { return destination; }
+
+	public void set(int level, long origin, long destination) {
+		this.level = level;
+		this.origin = origin;
+		this.destination = destination;
+	}
+
+	@Override
+	public void readFields(DataInput in) throws IOException {
+		level = in.readInt();
+		origin = in.readLong();
+		destination = in.readLong();
+	}
+
+	@Override
+	public void write(DataOutput out) throws IOException {
+		out.writeInt(level);
+		out.writeLong(origin);
+		out.writeLong(destination);
+	}
+
+	@Override
+	public int compareTo(OriginDestKey that) {
+		if (level != that.level)
+			return level < that.level ? -1 : 1;
+		if (origin != that.origin)
+			return origin < that.origin ? -1 : 1;
+		return destination < that.destination ? -1 : (destination == that.destination ? 0 : 1);
+	}
+
+	@Override
+	public int hashCode() {
+		return (int)(origin * 31 + destination) + level;
+	}
+
+	@Override
+	public boolean equals(Object o) {
+		return o instanceof OriginDestKey && compareTo((OriginDestKey)o) == 0;
+	}
+
+	@Override
+	public String toString() {
+		return level + ":" + origin + "," + destination;
+	}
+
+	/**
+	 * Sorts by level, origin, then destination, on the serialized bytes
+	 */
+	public static class Comparator extends WritableComparator {
+		public Comparator() {
+			super(OriginDestKey.class);
+		}
+
+		@Override
+		public int compare(byte[] b1, int s1, int l1, byte[] b2, int s2, int l2) {
+			return compareKeys(b1, s1, b2, s2, 2);
+		}
+	}
+
+	static {
+		WritableComparator.define(OriginDestKey.class, new Comparator());
+	}
+
+	/**
+	 * Groups the counts of an origin cell at a level, for one call of the reducer
+	 */
+	public static class OriginGroupingComparator extends WritableComparator {
+		public OriginGroupingComparator() {
+			super(OriginDestKey.class);
+		}
+
+		@Override
+		public int compare(byte[] b1, int s1, int l1, byte[] b2, int s2, int l2) {
+			return compareKeys(b1, s1, b2, s2, 1);
+		}
+
+		@Override
+		@SuppressWarnings("rawtypes")
+		public int compare(WritableComparable a, WritableComparable b) {
+			OriginDestKey k1 = (OriginDestKey)a, k2 = (OriginDestKey)b;
+			if (k1.level != k2.level)
+				return k1.level < k2.level ? -1 : 1;
+			return k1.origin < k2.origin ? -1 : (k1.origin == k2.origin ? 0 : 1);
+		}
+	}
+
+	/**
+	 * Sends all the counts of an origin cell at a level to the same reducer, and so to the same part
+	 * of a run
+	 */
+	public static class OriginPartitioner<V> extends Partitioner<OriginDestKey, V> {
+		@Override
+		public int getPartition(OriginDestKey key, V value, int numPartitions) {
+			return partition(key.level, key.origin, numPartitions);
+		}
+
+		static int partition(int level, long origin, int numPartitions) {
+			return ((int)(origin ^ (origin >>> 32)) + 31 * level & Integer.MAX_VALUE) % numPartitions;
+		}
+	}
+
+	// compare the level, then count big-endian longs, as signed values
+	private static int compareKeys(byte[] b1, int s1, byte[] b2, int s2, int count) {
+		int v1 = WritableComparator.readInt(b1, s1), v2 = WritableComparator.readInt(b2, s2);
+		if (v1 != v2)
+			return v1 < v2 ? -1 : 1;
+		s1 += 4;
+		s2 += 4;
+		for (int i = 0; i < count; i++, s1 += 8, s2 += 8) {
+			long l1 = WritableComparator.readLong(b1, s1), l2 = WritableComparator.readLong(b2, s2);
+			if (l1 != l2)
+				return l1 < l2 ? -1 : 1;
+		}
+		return 0;
+	}
+}
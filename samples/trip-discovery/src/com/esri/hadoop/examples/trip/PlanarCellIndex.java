@@ -0,0 +1,48 @@
+package com.esri.hadoop.examples.trip;
+
+import com.esri.core.geometry.Envelope;
+import com.esri.core.geometry.GeometryEngine;
+import com.esri.core.geometry.Point;
+
+/**
+ * Base of the cell indexes that lay their cells out in meters, on an equirectangular projection of
+ * the envelope of the study area at its middle latitude - as EqualAreaGrid measures its columns.
+ * Over a study area of a few degrees, the cells keep about the nominal size.
+ */
+abstract class PlanarCellIndex implements CellIndex {
+
+	final double lonMin, latMin, lonMax, latMax;
+	final double metersPerLon, metersPerLat;  // at the middle latitude
+
+	PlanarCellIndex(Envelope envelope) {
+		lonMin = envelope.getXMin() - .005;  // as EqualAreaGrid, to catch nearby outliers
+		latMin = envelope.getYMin() - .005;
+		lonMax = envelope.getXMax() + .005;
+		latMax = envelope.getYMax() + .005;
+		double latMid = (latMin + latMax) / 2;
+		Point from = new Point(lonMin, latMid);
+		metersPerLon = GeometryEngine.geodesicDistanceOnWGS84(from, new Point(lonMin + 1, latMid));
+		metersPerLat = GeometryEngine.geodesicDistanceOnWGS84(from, new Point(lonMin, latMid + 1));
+	}
+
+	boolean contains(double longitude, double latitude) {
+		return longitude >= lonMin && longitude <= lonMax && latitude >= latMin && latitude <= latMax;
+	}
+
+	// meters east and north of the south-west corner of the envelope
+	double toX(double longitude) { return (longitude - lonMin) * metersPerLon; }
+	double toY(double latitude) { return (latitude - latMin) * metersPerLat; }
+
+	double toLongitude(double x) { return lonMin + x / metersPerLon; }
+	double toLatitude(double y) { return latMin + y / metersPerLat; }
+
+	double getWidth() { return toX(lonMax); }
+	double getHeight() { return toY(latMax); }
+
+	public long getParent(long cell, int levels) {
+		if (levels < 0 || levels > getLevels()) {
+			throw new IllegalArgumentException("No level " + levels + " of " + getLevels());
+		}
+		return cell >>> (2 * levels);  // two bits per level
+	}
+}
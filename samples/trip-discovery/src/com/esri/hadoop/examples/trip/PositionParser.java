@@ -0,0 +1,70 @@
+package com.esri.hadoop.examples.trip;
+
+import com.esri.hadoop.examples.CsvFieldScanner;
+import com.esri.hadoop.examples.trip.TripCellMapper.Skipped;
+
+/**
+ * Reads a line of the vehicle CSV into the key and position of TripCellMapper, with the cell of the
+ * position in the grid.  Shared by TripCellMapper and TripStreamer.
+ */
+class PositionParser {
+
+	// column indices for values in the vehicle CSV
+	static final int COL_CAR = 0;  // vehicle ID
+	static final int COL_DAT = 1;  // date in YYMMDD
+	static final int COL_TIM = 2;  // time in HHMMSS
+	static final int COL_LON = 3;  // longitude in DMS
+	static final int COL_LAT = 4;  // latitude in DMS
+	static final int COL_DIR = 5;  // compass orientation in degrees
+	static final int COL_SPD = 6;  // speed in km/h
+	static final int COL_ROD = 7;  // road type code
+
+	private final CsvFieldScanner scanner = new CsvFieldScanner(',');  // no comma in quoted string in input
+	private final CellIndex grid;
+
+	PositionParser(CellIndex grid) {
+		this.grid = grid;
+	}
+
+	/**
+	 * @return null if the line was read into key and position, or why it was skipped
+	 */
+	Skipped parse(byte[] bytes, int start, int length, CarDateTimeKey key, CarSortWritable position) {
+		scanner.scan(bytes, start, length);
+		// The key is car ID, date and time, for the framework to sort the positions of each car by time
+		try {
+			int date = scanner.getInt(COL_DAT), time = scanner.getInt(COL_TIM);
+			int bearing = getCode(COL_DIR), speed = scanner.getInt(COL_SPD), road = getCode(COL_ROD);
+			if (!CarDateTimeKey.isDate(date) || !CarDateTimeKey.isTime(time) || !CarSortWritable.fits(bearing, speed, road)) {
+				return Skipped.MALFORMED_LINE;  // would be truncated in the key or position, or sorted out of order
+			}
+			key.set(scanner.getBytes(), scanner.getStart(COL_CAR), scanner.getEnd(COL_CAR) - scanner.getStart(COL_CAR),
+					date, time);
+			double lon = getDms(COL_LON), lat = getDms(COL_LAT);
+			if (Double.isNaN(lon) || Double.isNaN(lat)) {
+				return Skipped.MALFORMED_DMS;  // no position to place in a cell
+			}
+			position.set(date, CarDateTimeKey.secondOfDay(time), lon, lat, bearing, speed, road, grid.queryCell(lon, lat));
+		} catch (NumberFormatException e) {
+			return Skipped.MALFORMED_LINE;  // no date, time or speed - cannot place the position in a trip
+		}
+		return null;
+	}
+
+	// decimal degrees of a DMS field, parsed in place; NaN if malformed
+	private double getDms(int field) {
+		if (field >= scanner.getFieldCount())
+			return Double.NaN;
+		return DegreeMinuteSecondUtility.parseDms(scanner.getBytes(), scanner.getStart(field), scanner.getEnd(field));
+	}
+
+	// a field not needed to find trips, -1 if missing or not a number
+	private int getCode(int field) {
+		try {
+			return scanner.getInt(field);
+		} catch (NumberFormatException e) {
+			return -1;
+		}
+	}
+
+}
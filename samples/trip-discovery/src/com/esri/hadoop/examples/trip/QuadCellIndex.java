@@ -0,0 +1,97 @@
+package com.esri.hadoop.examples.trip;
+
+import com.esri.core.geometry.Envelope;
+
+/**
+ * Squares of a quadtree over the study area, numbered along a Hilbert curve - as quadkeys are, but in
+ * an order that keeps cells that are near in ID near in space.  The root square covers the envelope
+ * of the study area; the finest squares have the nominal cell size as side, and each level up doubles
+ * the side.  The Hilbert curve of a level passes through the four squares of each square of the level
+ * above one after the other, so the ID of the square a level up is the ID shifted right by two.
+ */
+public class QuadCellIndex extends PlanarCellIndex {
+
+	static final int MAX_ORDER = 30;  // levels below the root, for IDs of at most 60 bits
+
+	final int order;       // levels below the root square, that of the finest squares
+	final double side;     // of the finest squares, in meters
+
+	/**
+	 * @param gridSide side of the finest squares (meters)
+	 */
+	public QuadCellIndex(Envelope envelope, double gridSide) {
+		super(envelope);
+		double extent = Math.max(getWidth(), getHeight());
+		int levels = 0;
+		while (levels < MAX_ORDER && gridSide * (1L << levels) < extent) {
+			levels++;
+		}
+		order = levels;
+		side = gridSide;
+	}
+
+	public long queryCell(double longitude, double latitude) {
+		if (!contains(longitude, latitude)) {
+			return -1;
+		}
+		long n = 1L << order;
+		long x = Math.min((long)(toX(longitude) / side), n - 1);
+		long y = Math.min((long)(toY(latitude) / side), n - 1);
+		return hilbertIndex(order, x, y);
+	}
+
+	public double[] getCell(long cell, int level, double[] bounds) {
+		int cellOrder = order - level;
+		if (level < 0 || cellOrder < 0 || cell < 0 || cell >= 1L << (2 * cellOrder)) {
+			throw new IndexOutOfBoundsException("No cell " + cell + " at level " + level);
+		}
+		double cellSide = side * (1L << level);
+		// invert hilbertIndex, from the finest bits up
+		long x = 0, y = 0, d = cell;
+		for (long s = 1; s < 1L << cellOrder; s <<= 1) {
+			long rx = 1 & (d >>> 1), ry = 1 & (d ^ rx);
+			if (ry == 0) {  // rotate back
+				if (rx == 1) {
+					x = s - 1 - x;
+					y = s - 1 - y;
+				}
+				long t = x;
+				x = y;
+				y = t;
+			}
+			x += s * rx;
+			y += s * ry;
+			d >>>= 2;
+		}
+		bounds[0] = toLongitude(x * cellSide);
+		bounds[1] = toLatitude(y * cellSide);
+		bounds[2] = toLongitude((x + 1) * cellSide);
+		bounds[3] = toLatitude((y + 1) * cellSide);
+		return bounds;
+	}
+
+	public int getLevels() {
+		return order;
+	}
+
+	/**
+	 * @return distance along the Hilbert curve through the 2^order by 2^order squares of the square
+	 */
+	static long hilbertIndex(int order, long x, long y) {
+		long d = 0;
+		for (long s = (1L << order) >>> 1; s > 0; s >>>= 1) {
+			long rx = (x & s) != 0 ? 1 : 0, ry = (y & s) != 0 ? 1 : 0;
+			d += s * s * ((3 * rx) ^ ry);
+			if (ry == 0) {  // rotate the quadrant, for the curve within it to run the same way
+				if (rx == 1) {
+					x = s - 1 - x;
+					y = s - 1 - y;
+				}
+				long t = x;
+				x = y;
+				y = t;
+			}
+		}
+		return d;
+	}
+}
@@ -0,0 +1,30 @@
+package com.esri.hadoop.examples.trip;
+
+import java.io.IOException;
+import org.apache.hadoop.io.LongWritable;
+import org.apache.hadoop.mapreduce.Reducer;
+
+/**
+ * Merge the sketches of the destinations of an origin cell within a map task, so that each task
+ * sends at most one fixed-size sketch per origin cell to the reducer
+ */
+public class TopDestinationCombiner extends Reducer<LongWritable, DestinationSketch, LongWritable, DestinationSketch> {
+
+	DestinationSketch merged;
+
+	@Override
+	public void setup(Context context) {
+		merged = new DestinationSketch(TopDestinationReducer.getCapacity(context.getConfiguration()));
+	}
+
+	@Override
+	public void reduce(LongWritable key, Iterable<DestinationSketch> values, Context ctx)
+		throws IOException, InterruptedException {
+		merged.reset(merged.getCapacity());
+		for (DestinationSketch sketch : values) {
+			merged.merge(sketch);
+		}
+		ctx.write(key, merged);
+	}
+
+}
@@ -0,0 +1,30 @@
+package com.esri.hadoop.examples.trip;
+
+import java.io.IOException;
+import org.apache.hadoop.io.LongWritable;
+import org.apache.hadoop.io.Text;
+import org.apache.hadoop.mapreduce.Mapper;
+
+/**
+ * Key each trip by the ID of its origin cell, with a sketch of its one destination cell as the value,
+ * for TopDestinationCombiner and TopDestinationReducer to merge
+ */
+public class TopDestinationMapper extends Mapper<Text, TripCellWritable, LongWritable, DestinationSketch> {
+
+	final LongWritable origin = new LongWritable();
+	DestinationSketch destination;
+
+	@Override
+	public void setup(Context context) {
+		destination = new DestinationSketch(TopDestinationReducer.getCapacity(context.getConfiguration()));
+	}
+
+	@Override
+	public void map(Text key, TripCellWritable val, Context context)
+			throws IOException, InterruptedException {
+		origin.set(val.getCell1());
+		destination.set(val.getCell2());
+		context.write(origin, destination);
+	}
+
+}
@@ -0,0 +1,73 @@
+package com.esri.hadoop.examples.trip;
+
+import java.io.IOException;
+
+import org.apache.hadoop.conf.Configuration;
+import org.apache.hadoop.io.LongWritable;
+import org.apache.hadoop.io.Text;
+import org.apache.hadoop.mapreduce.Reducer;
+
+/**
+ * Merge the sketches of the destinations of an origin cell, and write its K most common destination
+ * cells - one line each, with the count, the most it may overestimate the trips, and the percentage
+ * of the trips from the origin cell.  Memory per origin cell is that of the sketch, however many
+ * destination cells its trips go to.
+ */
+public class TopDestinationReducer extends Reducer<LongWritable, DestinationSketch, Text, Text> {
+
+	CellIndex index;  // only to write the bounds of cells
+	final double[] bounds = new double[4];
+	int minPoints;
+	int topK;
+	DestinationSketch merged;
+
+	/**
+	 * @return number of counters of the sketches: -D com.esri.trip.topk.counters, by default 10 per
+	 *         destination reported
+	 */
+	static int getCapacity(Configuration config) {
+		int topK = config.getInt("com.esri.trip.topk", 1);
+		return Math.max(topK, config.getInt("com.esri.trip.topk.counters", 10 * topK));
+	}
+
+	@Override
+	public void setup(Context context) throws IOException
+	{
+		Configuration config = context.getConfiguration();
+		minPoints = config.getInt("com.esri.trip.threshold", 10);  //minimum count per cell
+		minPoints = minPoints < 2 ? 1 : minPoints;
+		topK = config.getInt("com.esri.trip.topk", 1);
+		merged = new DestinationSketch(getCapacity(config));
+		index = CellIndexes.fromConfiguration(config);
+	}
+
+	public void reduce(LongWritable key, Iterable<DestinationSketch> values, Context ctx)
+		throws IOException, InterruptedException {
+
+		ctx.getCounter(TripInCommonReducer.Origins.CELLS).increment(1);
+		merged.reset(merged.getCapacity());
+		for (DestinationSketch sketch : values) {
+			merged.merge(sketch);
+		}
+		long totCount = merged.getTotal();
+		if (totCount >= minPoints) {
+			ctx.getCounter(TripInCommonReducer.Origins.REPORTED).increment(1);
+			Text origin = new Text(formatCell(key.get()));
+			int[] top = merged.top(topK);
+			for (int rank = 0; rank < top.length; rank++) {
+				long count = merged.getCount(top[rank]);
+				ctx.write(origin,
+						  new Text(String.format("%d\t%d\t%d\t%d\t%f\t%s",
+												 totCount, rank + 1, count, merged.getError(top[rank]),
+												 100. * (double)count / (double)totCount,
+												 formatCell(merged.getCell(top[rank])))));
+			}
+		}
+	}
+
+	private String formatCell(long cellIndex) {
+		double[] cell = index.getCell(cellIndex, 0, bounds);
+		return String.format("%f\t%f\t%f\t%f", cell[0], cell[1], cell[2], cell[3]);
+	}
+
+}
@@ -1,12 +1,20 @@
 package com.esri.hadoop.examples.trip;
 
+import java.io.IOException;
+import java.io.PrintStream;
+import java.util.Properties;
+
 import org.apache.hadoop.conf.Configuration;
 import org.apache.hadoop.conf.Configured;
+import org.apache.hadoop.fs.FSDataOutputStream;
+import org.apache.hadoop.fs.FileSystem;
 import org.apache.hadoop.fs.Path;
+import org.apache.hadoop.io.SequenceFile.CompressionType;
 import org.apache.hadoop.io.Text;
+import org.apache.hadoop.mapreduce.Counters;
 import org.apache.hadoop.mapreduce.Job;
 import org.apache.hadoop.mapreduce.lib.input.TextInputFormat;
-import org.apache.hadoop.mapreduce.lib.output.TextOutputFormat;
+import org.apache.hadoop.mapreduce.lib.output.SequenceFileOutputFormat;
 import org.apache.hadoop.util.Tool;
 import org.apache.hadoop.util.ToolRunner;
 
@@ -23,6 +31,20 @@ public class TripCellDriver extends Configured implements Tool {
         // Configuration processed by ToolRunner
         Configuration config = getConf();
 
+		Job job = createJob(config, args);
+		if (!job.waitForCompletion(true)) {
+			return 1;
+		}
+		completeJob(job);
+		printSummary(job.getCounters(), System.out);
+		return 0;
+	}
+
+	/**
+	 * Configure the job for the command-line parameters, whether it is then submitted to Hadoop
+	 * or run in-process.  After it succeeds, call completeJob.
+	 */
+	public static Job createJob(Configuration config, String[] args) throws IOException {
 		/*
 		 * Command-line parameters
 		 *  [0] threshold stopping time to delineate trips, in minutes (default 15 min)
@@ -30,6 +52,11 @@ public class TripCellDriver extends Configured implements Tool {
 		 *  [2] path to Esri JSON file of Japan country polygon
 		 *  [3] path(s) to the input data source
 		 *  [4] path to write the output of the MapReduce jobs
+		 *
+		 * Options
+		 *  -D com.esri.trip.overnight=true  find trips across midnight, by grouping positions by car rather than by car-day
+		 *  -D com.esri.trip.grid.type=rectangular|hexagonal|quad  cell index of the positions (see CellIndexes)
+		 *  -D com.esri.trip.grid.levels=6   levels above the finest hexagons, with the hexagonal index
 		 */
 		if (args.length != 5) {
 			System.out.println("Invalid Arguments");
@@ -41,8 +68,12 @@ public class TripCellDriver extends Configured implements Tool {
 		config.set("com.esri.trip.cellsize", args[1]);
 		config.set("com.esri.trip.input", args[2]);
 
+		// the grid is defined once here, for the tasks to build without reading the study area
+		CellIndexes.setDefinition(config, EqualAreaGrid.loadStudyArea(config), EqualAreaGrid.getCellSize(config));
+
 		Job job = new Job(config);
 		job.setJobName("Automobile Trip Origin & Destination by Grid Cell");
+		job.setMapOutputKeyClass(CarDateTimeKey.class);
 		job.setOutputKeyClass(Text.class);
 		job.setMapOutputValueClass(CarSortWritable.class);
 		job.setOutputValueClass(TripCellWritable.class);
@@ -50,14 +81,74 @@ public class TripCellDriver extends Configured implements Tool {
 		job.setMapperClass(TripCellMapper.class);
 		job.setReducerClass(TripCellReducer.class);
 
+		// secondary sort: positions reach the reducer sorted by time, grouped by car-day or by car
+		job.setPartitionerClass(CarDateTimeKey.CarPartitioner.class);
+		job.setSortComparatorClass(CarDateTimeKey.Comparator.class);
+		job.setGroupingComparatorClass(config.getBoolean("com.esri.trip.overnight", false) ?
+									   CarDateTimeKey.CarGroupingComparator.class :
+									   CarDateTimeKey.CarDateGroupingComparator.class);
+
 		job.setInputFormatClass(TextInputFormat.class);
-		job.setOutputFormatClass(TextOutputFormat.class);
+		// binary trips for TripInCommonDriver - view them with hadoop fs -text
+		job.setOutputFormatClass(SequenceFileOutputFormat.class);
+		SequenceFileOutputFormat.setCompressOutput(job, true);
+		SequenceFileOutputFormat.setOutputCompressionType(job, CompressionType.BLOCK);
 
 		TextInputFormat.setInputPaths(job, new Path(args[3]));
-		TextOutputFormat.setOutputPath(job, new Path(args[4]));
+		SequenceFileOutputFormat.setOutputPath(job, new Path(args[4]));
 
 		job.setJarByClass(TripCellDriver.class);
-		return  job.waitForCompletion(true) ? 0 : 1 ;
+		return job;
+	}
+
+	/**
+	 * Write the grid definition beside the output of the job, for TripInCommonDriver to turn cell IDs
+	 * back into bounds
+	 */
+	public static void completeJob(Job job) throws IOException {
+		writeGridDefinition(job.getConfiguration(), new Path(SequenceFileOutputFormat.getOutputPath(job), GRID_FILE));
+	}
+
+	/**
+	 * Name of the side file, in the output directory, that defines the grid of the cell IDs in the trips.
+	 * Like _logs, FileInputFormat skips it.
+	 */
+	static final String GRID_FILE = "_grid";
+	static final String[] GRID_PROPERTIES = CellIndexes.DEFINITION;
+
+	static void writeGridDefinition(Configuration config, Path gridPath) throws IOException {
+		FileSystem fs = gridPath.getFileSystem(config);
+		Properties grid = new Properties();
+		for (String name : GRID_PROPERTIES) {
+			grid.setProperty(name, config.get(name));
+		}
+		FSDataOutputStream oStream = fs.create(gridPath, true);
+		try {
+			grid.store(oStream, "Grid of the cell IDs of the trips");
+		} finally {
+			oStream.close();
+		}
+	}
+
+	/**
+	 * Print what the counters of the job tell of the positions and the trips found in them
+	 */
+	public static void printSummary(Counters counters, PrintStream out) {
+		out.printf("Positions: %d in the grid, %d outside the study area, %d past the last column%n",
+				   counters.findCounter(TripCellMapper.Positions.IN_GRID).getValue(),
+				   counters.findCounter(TripCellMapper.Positions.OUTSIDE_GRID).getValue(),
+				   counters.findCounter(TripCellMapper.Positions.OUTSIDE_COLUMNS).getValue());
+		out.printf("Lines skipped: %d with malformed DMS, %d without date, time or speed, or with a field out of range%n",
+				   counters.findCounter(TripCellMapper.Skipped.MALFORMED_DMS).getValue(),
+				   counters.findCounter(TripCellMapper.Skipped.MALFORMED_LINE).getValue());
+
+		long groups = counters.findCounter(TripCellReducer.Trips.CAR_DAYS).getValue();
+		long positions = counters.findCounter(TripCellReducer.Trips.POSITIONS).getValue();
+		out.printf("Car-days: %d, with %.1f positions each on average%n", groups, groups > 0 ? (double)positions / groups : 0.);
+		out.printf("Trips: %d written, %d discarded off the grid; %d car-days failed (see the task logs)%n",
+				   counters.findCounter(TripCellReducer.Trips.WRITTEN).getValue(),
+				   counters.findCounter(TripCellReducer.Trips.OFF_GRID).getValue(),
+				   counters.findCounter(TripCellReducer.Trips.FAILED_GROUPS).getValue());
 	}
 
 	static void print_usage()
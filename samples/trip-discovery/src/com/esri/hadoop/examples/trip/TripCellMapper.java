@@ -5,17 +5,38 @@ import org.apache.hadoop.io.LongWritable;
 import org.apache.hadoop.io.Text;
 import org.apache.hadoop.mapreduce.Mapper;
 
-public class TripCellMapper extends Mapper<LongWritable, Text, Text, CarSortWritable> {
-
-	// column indices for values in the vehicle CSV
-	static final int COL_CAR = 0;  // vehicle ID
-	static final int COL_DAT = 1;  // date in YYMMDD
-	static final int COL_TIM = 2;  // time in HHMMSS
-	static final int COL_LON = 3;  // longitude in DMS
-	static final int COL_LAT = 4;  // latitude in DMS
-	static final int COL_DIR = 5;  // compass orientation in degrees
-	static final int COL_SPD = 6;  // speed in km/h
-	static final int COL_ROD = 7;  // road type code
+public class TripCellMapper extends Mapper<LongWritable, Text, CarDateTimeKey, CarSortWritable> {
+
+	/**
+	 * Counters of the lines skipped by the mapper
+	 */
+	public static enum Skipped {
+		MALFORMED_DMS,  // longitude or latitude not in DMS, or out of range
+		MALFORMED_LINE  // no date, time or speed, or a date, time, bearing, speed or road type out of range
+	}
+
+	/**
+	 * Counters of the positions written by the mapper, by the outcome of CellIndex.queryCell
+	 */
+	public static enum Positions {
+		IN_GRID,          // in a cell
+		OUTSIDE_GRID,     // -1: outside the study area
+		OUTSIDE_COLUMNS   // -2: inside the study area, but past the last column (no lookup returns -3)
+	}
+
+	// reused for every record, so that map() allocates little per line
+	private final CarDateTimeKey key2 = new CarDateTimeKey();
+	private final CarSortWritable data = new CarSortWritable();
+	private PositionParser parser;
+	private final long[] positions = new long[Positions.values().length];  // written out in cleanup()
+
+	/**
+	 * Builds the grid from the definition the driver put in the configuration
+	 */
+	@Override
+	public void setup(Context context) throws IOException {
+		parser = new PositionParser(CellIndexes.fromConfiguration(context.getConfiguration()));
+	}
 
 	@Override
 	public void map(LongWritable key, Text val, Context context)
@@ -28,14 +49,22 @@ public class TripCellMapper extends Mapper<LongWritable, Text, Text, CarSortWrit
 		
 		// Note: no header row in this CSV
 
-		String line = val.toString();
-		String[] values = line.split(",");  // no comma in quoted string in input
-		Text key2 = new Text(values[COL_CAR] + "," + values[COL_DAT]);
-		CarSortWritable data = new CarSortWritable(values[COL_DAT], values[COL_TIM],
-												   values[COL_LON], values[COL_LAT],
-												   values[COL_DIR], values[COL_SPD], values[COL_ROD]);
+		Skipped skipped = parser.parse(val.getBytes(), 0, val.getLength(), key2, data);
+		if (skipped != null) {
+			context.getCounter(skipped).increment(1);
+			return;
+		}
+		long cell = data.getCell();
+		positions[(cell >= 0 ? Positions.IN_GRID : cell == -1 ? Positions.OUTSIDE_GRID : Positions.OUTSIDE_COLUMNS).ordinal()]++;
 		context.write(key2, data);
 
 	}
 
+	@Override
+	public void cleanup(Context context) {
+		for (Positions counter : Positions.values()) {
+			context.getCounter(counter).increment(positions[counter.ordinal()]);
+		}
+	}
+
 }
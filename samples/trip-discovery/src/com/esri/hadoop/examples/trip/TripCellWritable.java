@@ -4,101 +4,83 @@ import java.io.DataInput;
 import java.io.DataOutput;
 import java.io.IOException;
 
-import org.apache.hadoop.io.DoubleWritable;
-import org.apache.hadoop.io.Text;
 import org.apache.hadoop.io.Writable;
+import org.apache.hadoop.io.WritableUtils;
 
+/**
+ * One trip, with its origin and destination positions and cells.
+ *
+ * Dates, times and speeds are held as ints, and positions and cell bounds as doubles, so that the
+ * intermediate SequenceFile between TripCellDriver and TripInCommonDriver is written and read without
+ * formatting or parsing text.  Positions are in decimal degrees, and toString writes them as DMS.
+ * The cell IDs of the origin and destination are the 64-bit hierarchical IDs of the job's CellIndex,
+ * rectangular, hexagonal or quadtree as configured by CellIndexes; they are what TripInCommonDriver
+ * keys by, and the bounds are for reading the trips.
+ * The toString form is the tab-separated line of the former text output, for hadoop fs -text.
+ */
 public class TripCellWritable implements Writable {
 
-	private Text startDate;
-	private Text startTime;
-	private Text startLon;
-	private Text startLat;
-	private Text startSpeed;
-	private DoubleWritable startLhs;
-	private DoubleWritable startBot;
-	private DoubleWritable startRhs;
-	private DoubleWritable startTop;
-	private Text endDate;
-	private Text endTime;
-	private Text endLon;
-	private Text endLat;
-	private Text endSpeed;
-	private DoubleWritable endLhs;
-	private DoubleWritable endBot;
-	private DoubleWritable endRhs;
-	private DoubleWritable endTop;
+	private int startDate;  // YYMMDD
+	private int startTime;  // HHMMSS
+	private double startLon;
+	private double startLat;
+	private int startSpeed;
+	private double startLhs;
+	private double startBot;
+	private double startRhs;
+	private double startTop;
+	private int endDate;
+	private int endTime;
+	private double endLon;
+	private double endLat;
+	private int endSpeed;
+	private double endLhs;
+	private double endBot;
+	private double endRhs;
+	private double endTop;
+	private long startCell;
+	private long endCell;
 
-    public TripCellWritable(String startDate, String startTime, String startLon, String startLat, String startSpeed,
+	public TripCellWritable() { }
+
+    public TripCellWritable(int startDate, int startTime, double startLon, double startLat, int startSpeed,
 							double startLhs, double startBot, double startRhs, double startTop,
-							String endDate, String endTime, String endLon, String endLat, String endSpeed,
+							int endDate, int endTime, double endLon, double endLat, int endSpeed,
 							double endLhs, double endBot, double endRhs, double endTop) {
-	    set(new Text(startDate),
-			new Text(startTime),
-			new Text(startLon),
-			new Text(startLat),
-			new Text(startSpeed),
-			new DoubleWritable(startLhs),
-			new DoubleWritable(startBot),
-			new DoubleWritable(startRhs),
-			new DoubleWritable(startTop),
-			new Text(endDate),
-			new Text(endTime),
-			new Text(endLon),
-			new Text(endLat),
-			new Text(endSpeed),
-			new DoubleWritable(endLhs),
-			new DoubleWritable(endBot),
-			new DoubleWritable(endRhs),
-			new DoubleWritable(endTop)
-			);
+		set(startDate, startTime, startLon, startLat, startSpeed, startLhs, startBot, startRhs, startTop,
+			endDate, endTime, endLon, endLat, endSpeed, endLhs, endBot, endRhs, endTop);
 	}
 
-	public String getDate1() { return startDate.toString(); }  // start/origin
-	public String getTime1() { return startTime.toString(); }
-	public String getLon1() { return startLon.toString(); }
-	public String getLat1() { return startLat.toString(); }
-	public String getSpd1() { return startSpeed.toString(); }
-	public double getLhs1() { return startLhs.get(); }
-	public double getBot1() { return startBot.get(); }
-	public double getRhs1() { return startRhs.get(); }
-	public double getTop1() { return startTop.get(); }
-	public String getDate2() { return endDate.toString(); }  // end/destination
-	public String getTime2() { return endTime.toString(); }
-	public String getLon2() { return endLon.toString(); }
-	public String getLat2() { return endLat.toString(); }
-	public String getSpd2() { return endSpeed.toString(); }
-	public double getLhs2() { return endLhs.get(); }
-	public double getBot2() { return endBot.get(); }
-	public double getRhs2() { return endRhs.get(); }
-	public double getTop2() { return endTop.get(); }
+	public int getDate1() { return startDate; }  // start/origin
+	public int getTime1() { return startTime; }
+	public double getLon1() { return startLon; }
+	public double getLat1() { return startLat; }
+	public int getSpd1() { return startSpeed; }
+	public double getLhs1() { return startLhs; }
+	public double getBot1() { return startBot; }
+	public double getRhs1() { return startRhs; }
+	public double getTop1() { return startTop; }
+	public int getDate2() { return endDate; }  // end/destination
+	public int getTime2() { return endTime; }
+	public double getLon2() { return endLon; }
+	public double getLat2() { return endLat; }
+	public int getSpd2() { return endSpeed; }
+	public double getLhs2() { return endLhs; }
+	public double getBot2() { return endBot; }
+	public double getRhs2() { return endRhs; }
+	public double getTop2() { return endTop; }
+	public long getCell1() { return startCell; }
+	public long getCell2() { return endCell; }
 
-	@Override
-	public void readFields(DataInput inp) throws IOException {
-		startDate.readFields(inp);
-		startTime.readFields(inp);
-		startLon.readFields(inp);
-		startLat.readFields(inp);
-		startSpeed.readFields(inp);
-		startLhs.readFields(inp);
-		startBot.readFields(inp);
-		startRhs.readFields(inp);
-		startTop.readFields(inp);
-		endDate.readFields(inp);
-		endTime.readFields(inp);
-		endLon.readFields(inp);
-		endLat.readFields(inp);
-		endSpeed.readFields(inp);
-		endLhs.readFields(inp);
-		endBot.readFields(inp);
-		endRhs.readFields(inp);
-		endTop.readFields(inp);
+	public void setCells(long origCell, long destCell) {
+		startCell = origCell;
+		endCell = destCell;
 	}
 
-	public void set(Text pStDate, Text pStTime, Text pStLon, Text pStLat, Text pStSpeed,
-					DoubleWritable lhs1, DoubleWritable bot1, DoubleWritable rhs1, DoubleWritable top1,
-					Text pEndDate, Text pEndTime, Text pEndLon, Text pEndLat, Text pEndSpeed,
-					DoubleWritable lhs2, DoubleWritable bot2, DoubleWritable rhs2, DoubleWritable top2) {
+	public void set(int pStDate, int pStTime, double pStLon, double pStLat, int pStSpeed,
+					double lhs1, double bot1, double rhs1, double top1,
+					int pEndDate, int pEndTime, double pEndLon, double pEndLat, int pEndSpeed,
+					double lhs2, double bot2, double rhs2, double top2) {
 		startDate = pStDate;
 		startTime = pStTime;
 		startLon = pStLon;
@@ -119,39 +101,67 @@ public class TripCellWritable implements Writable {
 		endTop = top2;
 	}
 
+	@Override
+	public void readFields(DataInput inp) throws IOException {
+		startDate = inp.readInt();
+		startTime = inp.readInt();
+		startLon = inp.readDouble();
+		startLat = inp.readDouble();
+		startSpeed = inp.readInt();
+		startLhs = inp.readDouble();
+		startBot = inp.readDouble();
+		startRhs = inp.readDouble();
+		startTop = inp.readDouble();
+		endDate = inp.readInt();
+		endTime = inp.readInt();
+		endLon = inp.readDouble();
+		endLat = inp.readDouble();
+		endSpeed = inp.readInt();
+		endLhs = inp.readDouble();
+		endBot = inp.readDouble();
+		endRhs = inp.readDouble();
+		endTop = inp.readDouble();
+		startCell = WritableUtils.readVLong(inp);
+		endCell = WritableUtils.readVLong(inp);
+	}
+
+	@Override
+	public void write(DataOutput out) throws IOException {
+		out.writeInt(startDate);
+		out.writeInt(startTime);
+		out.writeDouble(startLon);
+		out.writeDouble(startLat);
+		out.writeInt(startSpeed);
+		out.writeDouble(startLhs);
+		out.writeDouble(startBot);
+		out.writeDouble(startRhs);
+		out.writeDouble(startTop);
+		out.writeInt(endDate);
+		out.writeInt(endTime);
+		out.writeDouble(endLon);
+		out.writeDouble(endLat);
+		out.writeInt(endSpeed);
+		out.writeDouble(endLhs);
+		out.writeDouble(endBot);
+		out.writeDouble(endRhs);
+		out.writeDouble(endTop);
+		WritableUtils.writeVLong(out, startCell);
+		WritableUtils.writeVLong(out, endCell);
+	}
+
 	/**
-	 * This is one record of output of our MapReduce job.
+	 * This is one record of output of our MapReduce job, as tab-separated text.
 	 */
 	@Override
 	public String toString()
 	{
-		return String.format("%s\t%s\t%s\t%s\t%s\t%f\t%f\t%f\t%f\t%s\t%s\t%s\t%s\t%s\t%f\t%f\t%f\t%f",
-							 getDate1(), getTime1(), getLon1(), getLat1(), getSpd1(),
+		return String.format("%06d\t%06d\t%s\t%s\t%d\t%f\t%f\t%f\t%f\t%06d\t%06d\t%s\t%s\t%d\t%f\t%f\t%f\t%f",
+							 getDate1(), getTime1(), DegreeMinuteSecondUtility.formatDms(getLon1()),
+							 DegreeMinuteSecondUtility.formatDms(getLat1()), getSpd1(),
 							 getLhs1(), getBot1(), getRhs1(), getTop1(),
-							 getDate2(), getTime2(), getLon2(), getLat2(), getSpd2(),
+							 getDate2(), getTime2(), DegreeMinuteSecondUtility.formatDms(getLon2()),
+							 DegreeMinuteSecondUtility.formatDms(getLat2()), getSpd2(),
 							 getLhs2(), getBot2(), getRhs2(), getTop2());
 	}
 
-	@Override
-	public void write(DataOutput out) throws IOException {
-		startDate.write(out);
-		startTime.write(out);
-		startLon.write(out);
-		startLat.write(out);
-		startSpeed.write(out);
-		startLhs.write(out);
-		startBot.write(out);
-		startRhs.write(out);
-		startTop.write(out);
-		endDate.write(out);
-		endTime.write(out);
-		endLon.write(out);
-		endLat.write(out);
-		endSpeed.write(out);
-		endLhs.write(out);
-		endBot.write(out);
-		endRhs.write(out);
-		endTop.write(out);
-	}
-
 }
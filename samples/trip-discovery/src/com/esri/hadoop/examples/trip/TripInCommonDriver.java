@@ -1,11 +1,20 @@
 package com.esri.hadoop.examples.trip;
 
+import java.io.IOException;
+import java.io.PrintStream;
+import java.util.Properties;
+
 import org.apache.hadoop.conf.Configuration;
 import org.apache.hadoop.conf.Configured;
+import org.apache.hadoop.fs.FSDataInputStream;
+import org.apache.hadoop.fs.FileStatus;
+import org.apache.hadoop.fs.FileSystem;
 import org.apache.hadoop.fs.Path;
+import org.apache.hadoop.io.LongWritable;
 import org.apache.hadoop.io.Text;
+import org.apache.hadoop.mapreduce.Counters;
 import org.apache.hadoop.mapreduce.Job;
-import org.apache.hadoop.mapreduce.lib.input.TextInputFormat;
+import org.apache.hadoop.mapreduce.lib.input.SequenceFileInputFormat;
 import org.apache.hadoop.mapreduce.lib.output.TextOutputFormat;
 import org.apache.hadoop.util.Tool;
 import org.apache.hadoop.util.ToolRunner;
@@ -22,11 +31,40 @@ public class TripInCommonDriver extends Configured implements Tool {
 	public int run(String[] args) throws Exception {
         Configuration config = getConf();
 
+		Job job = createJob(config, args);
+		if (!job.waitForCompletion(true)) {
+			return 1;
+		}
+		printSummary(job.getCounters(), System.out);
+		return 0;
+	}
+
+	/**
+	 * Print what the counters of the job tell of the origin cells
+	 */
+	public static void printSummary(Counters counters, PrintStream out) {
+		out.printf("Origin cells: %d, of which %d with the minimum number of trips%n",
+				   counters.findCounter(TripInCommonReducer.Origins.CELLS).getValue(),
+				   counters.findCounter(TripInCommonReducer.Origins.REPORTED).getValue());
+	}
+
+	/**
+	 * Configure the job for the command-line parameters, whether it is then submitted to Hadoop
+	 * or run in-process
+	 */
+	public static Job createJob(Configuration config, String[] args) throws IOException {
 		/*
 		 * Command-line parameters
 		 *  [0] minimum number of trips starting from origin cell
-		 *  [1] path to the input (intermediate) data
+		 *  [1] path to the input (intermediate) data - the SequenceFile of trips from TripCellDriver
 		 *  [2] path to write the output of the MapReduce jobs
+		 *
+		 * Options
+		 *  -D com.esri.trip.topk=K               write the K most common destinations of each origin cell,
+		 *                                        counted in bounded memory, rather than the most common one
+		 *  -D com.esri.trip.topk.counters=10*K   counters per origin cell for the top K
+		 *  -D com.esri.trip.levels=0,1,2         count the trips at these levels of a hierarchical cell
+		 *                                        index, in one pass; each line starts with the level
 		 */
 		if (args.length != 3) {
 			System.out.println("Arguments ~ " + args.length + ": " + args[0] + "|" + args[1]);
@@ -36,31 +74,98 @@ public class TripInCommonDriver extends Configured implements Tool {
 		}
 
 		config.set("com.esri.trip.threshold", args[0]);
+		if (!readGridDefinition(config, new Path(args[1]))) {
+			System.out.println("No " + TripCellDriver.GRID_FILE + " file found beside the input; set -D com.esri.trip.input and -D com.esri.trip.cellsize");
+			print_usage();
+			throw new IllegalArgumentException();
+		}
+
+		if (config.get(TripInCommonMapper.LEVELS) != null) {
+			int levels = CellIndexes.fromConfiguration(config).getLevels();
+			for (int level : TripInCommonMapper.getLevels(config)) {
+				if (level < 0 || level > levels) {
+					System.out.println("Level " + level + " is not one of the 0 to " + levels + " levels of the cell index; set -D " + CellIndexes.TYPE);
+					throw new IllegalArgumentException();
+				}
+			}
+			if (config.getInt("com.esri.trip.topk", 0) > 0) {
+				System.out.println("-D " + TripInCommonMapper.LEVELS + " does not go with -D com.esri.trip.topk");
+				throw new IllegalArgumentException();
+			}
+		}
 
 		Job job = new Job(config);
 		job.setJobName("Automobile Trip Origin & Destination by Grid Cell");
 		job.setOutputKeyClass(Text.class);
-		job.setMapOutputValueClass(TripInCommonWritable.class);
 		job.setOutputValueClass(Text.class);
 
-		job.setMapperClass(TripInCommonMapper.class);
-		job.setReducerClass(TripInCommonReducer.class);
+		if (config.getInt("com.esri.trip.topk", 0) > 0) {
+			// the K most common destinations, from sketches merged in a combiner
+			job.setMapOutputKeyClass(LongWritable.class);
+			job.setMapOutputValueClass(DestinationSketch.class);
+			job.setMapperClass(TopDestinationMapper.class);
+			job.setCombinerClass(TopDestinationCombiner.class);
+			job.setReducerClass(TopDestinationReducer.class);
+		} else {
+			// counts by origin and destination, summed in the combiner - most trips repeat a pair
+			job.setMapOutputKeyClass(OriginDestKey.class);
+			job.setMapOutputValueClass(LongWritable.class);
+			job.setMapperClass(TripInCommonMapper.class);
+			job.setCombinerClass(ODCountReducer.class);
+			job.setReducerClass(TripInCommonReducer.class);
+
+			// secondary sort: the counts of an origin cell at a level reach one reducer call, sorted by destination
+			job.setPartitionerClass(OriginDestKey.OriginPartitioner.class);
+			job.setSortComparatorClass(OriginDestKey.Comparator.class);
+			job.setGroupingComparatorClass(OriginDestKey.OriginGroupingComparator.class);
+		}
 
-		job.setInputFormatClass(TextInputFormat.class);
+		job.setInputFormatClass(SequenceFileInputFormat.class);
 		job.setOutputFormatClass(TextOutputFormat.class);
 
-		TextInputFormat.setInputPaths(job, new Path(args[1]));
+		SequenceFileInputFormat.setInputPaths(job, new Path(args[1]));
 		TextOutputFormat.setOutputPath(job, new Path(args[2]));
 
 		job.setJarByClass(TripInCommonDriver.class);
+		return job;
+	}
 
-		return( job.waitForCompletion(true) ? 0 : 1 );
+	/**
+	 * Copy the grid definition, from the _grid file written by TripCellDriver beside its output,
+	 * into the configuration - unless already set on the command line.
+	 *
+	 * @return whether the configuration has a grid definition
+	 */
+	static boolean readGridDefinition(Configuration config, Path input) throws IOException {
+		FileSystem fs = input.getFileSystem(config);
+		FileStatus[] matches = fs.globStatus(input);
+		if (matches != null) {
+			for (FileStatus status : matches) {
+				Path dir = status.isDir() ? status.getPath() : status.getPath().getParent();
+				Path gridPath = new Path(dir, TripCellDriver.GRID_FILE);
+				if (fs.exists(gridPath)) {
+					Properties grid = new Properties();
+					FSDataInputStream iStream = fs.open(gridPath);
+					try {
+						grid.load(iStream);
+					} finally {
+						iStream.close();
+					}
+					for (String name : TripCellDriver.GRID_PROPERTIES) {
+						if (config.get(name) == null && grid.getProperty(name) != null)
+							config.set(name, grid.getProperty(name));
+					}
+					break;
+				}
+			}
+		}
+		return config.get(TripCellDriver.GRID_PROPERTIES[0]) != null || config.get("com.esri.trip.input") != null;
 	}
 
 	static void print_usage()
 	{
 		System.out.println("***");
-		System.out.println("Usage: hadoop jar trip-discovery.jar TripInCommonDriver -libjars [external jar references] minCount [/hdfs/path/to]/trip-cells.csv [/hdfs/path/to/user]/vehicle-output");
+		System.out.println("Usage: hadoop jar trip-discovery.jar TripInCommonDriver -libjars [external jar references] minCount [/hdfs/path/to]/trip-cells [/hdfs/path/to/user]/vehicle-output");
 		System.out.println("***");
 	}
 
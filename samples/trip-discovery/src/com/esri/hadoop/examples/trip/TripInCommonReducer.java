@@ -1,45 +1,90 @@
 package com.esri.hadoop.examples.trip;
 
 import java.io.IOException;
-import java.util.HashMap;
 
 import org.apache.hadoop.conf.Configuration;
+import org.apache.hadoop.io.LongWritable;
 import org.apache.hadoop.io.Text;
 import org.apache.hadoop.mapreduce.Reducer;
 
-public class TripInCommonReducer extends Reducer<Text, TripInCommonWritable, Text, Text> {
+/**
+ * Per origin cell, the number of trips, and the count and percentage of the most common destination
+ * cell - from partial counts by origin and destination, as summed by the combiner or kept in the
+ * origin-destination store.
+ *
+ * The grouping comparator hands the reducer all the counts of an origin cell in one call, sorted by
+ * destination, so the partial counts of a destination are adjacent and are summed as they come,
+ * without a map of destinations.  The key changes with each value to the pair of that value.
+ *
+ * With -D com.esri.trip.levels, the cells are of several levels of the cell index, and each line
+ * starts with the level of its cells.
+ */
+public class TripInCommonReducer extends Reducer<OriginDestKey, LongWritable, Text, Text> {
+
+	/**
+	 * Counters of the origin cells
+	 */
+	public static enum Origins {
+		CELLS,     // cells with trips starting in them
+		REPORTED   // cells with at least the minimum number of trips, written out
+	}
+
+	CellIndex index;  // only to write the bounds of cells
+	final double[] bounds = new double[4];
+	int minPoints;
+	boolean byLevel;
+
+	/**
+	 * Sets up reducer with the same grid as TripCellDriver, to turn cell IDs back into bounds
+	 */
+	@Override
+	public void setup(Context context) throws IOException
+	{
+		Configuration config = context.getConfiguration();
+		minPoints = config.getInt("com.esri.trip.threshold", 10);  //minimum count per cell
+		minPoints = minPoints < 2 ? 1 : minPoints;
+		byLevel = config.get(TripInCommonMapper.LEVELS) != null;
+		index = CellIndexes.fromConfiguration(config);
+	}
 
 	// Start with the destination cells for one origin cell
 	// Output the percentage for the most common destination cell (and maybe some attributes)
-	public void reduce(Text key, Iterable<TripInCommonWritable> values, Context ctx)
+	public void reduce(OriginDestKey key, Iterable<LongWritable> values, Context ctx)
 		throws IOException, InterruptedException {
 
-		final int INIT_SIZE = 8000;	 // how densely clumped in downtown Tokyo?
-		HashMap<String,Long> records = new HashMap<String,Long>(INIT_SIZE);
-
-		String sval, maxDest = null;
-		long totCount = 0, maxCount = 0;
-	    for (TripInCommonWritable entry : values) {
-			sval = entry.toString();  // bounds of destination cell - value of iterator, key of hashmap
-			long newCount = records.containsKey(sval) ? 1 + records.get(sval) : 1;
-			records.put(sval, newCount);
-			if (newCount > maxCount) {
-				maxCount = newCount;
-				maxDest = sval;
+		ctx.getCounter(Origins.CELLS).increment(1);
+		int level = key.getLevel();
+		long origin = key.getOrigin();
+		long maxDest = -1, dest = -1;
+		long totCount = 0, maxCount = 0, count = 0;
+		for (LongWritable value : values) {
+			if (key.getDestination() != dest) {  // next destination cell
+				dest = key.getDestination();
+				count = 0;
+			}
+			count += value.get();
+			if (count > maxCount) {  // ties go to the lowest cell ID
+				maxCount = count;
+				maxDest = dest;
 			}
-			totCount++;
+			totCount += value.get();
 		}  // /for
-		Configuration config = ctx.getConfiguration();
-		int minPoints = config.getInt("com.esri.trip.threshold", 10);  //minimum count per cell
-		minPoints = minPoints < 2 ? 1 : minPoints;
 		if (totCount >= minPoints) {
+			ctx.getCounter(Origins.REPORTED).increment(1);
 			double pct = 0.;
 			if (maxCount > 1)  // if only one trip going to each destination cell, report zero correlation.
 				pct = 100. * (double)maxCount / (double)totCount;
-			ctx.write(key, new Text(String.format("%d\t%d\t%f\t%s",
-												  totCount, maxCount, pct,	// calculated numbers
-												  maxDest)));  // most common destination cell (bounds)
+			String originCell = formatCell(origin, level);
+			ctx.write(new Text(byLevel ? level + "\t" + originCell : originCell),
+					  new Text(String.format("%d\t%d\t%f\t%s",
+											 totCount, maxCount, pct,	// calculated numbers
+											 formatCell(maxDest, level))));  // most common destination cell (bounds)
 		}
 	}
 
+	private String formatCell(long cellIndex, int level) {
+		double[] cell = index.getCell(cellIndex, level, bounds);
+		return String.format("%f\t%f\t%f\t%f", cell[0], cell[1], cell[2], cell[3]);
+	}
+
 }
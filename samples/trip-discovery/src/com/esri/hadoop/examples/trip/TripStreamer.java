@@ -0,0 +1,355 @@
+package com.esri.hadoop.examples.trip;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.RandomAccessFile;
+import java.net.Socket;
+import java.net.SocketTimeoutException;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.Map;
+
+import org.apache.hadoop.conf.Configuration;
+import org.apache.hadoop.io.Text;
+import org.apache.hadoop.util.GenericOptionsParser;
+
+/**
+ * Infer trips from vehicle positions as they arrive, rather than in a batch job over whole days.
+ *
+ * Each car has an open trip - its origin and last position - for as long as the stream runs, so
+ * trips run past midnight as with com.esri.trip.overnight.  A trip is written as soon as it is known
+ * to have ended: when the next position of the car comes after a lapse of more than the threshold,
+ * or when the positions of other cars show that the lapse has passed.  Trips are the same as those
+ * of TripCellDriver with com.esri.trip.overnight, provided that the positions of each car arrive in
+ * time order and no later than com.esri.trip.stream.lateness behind those of the other cars.
+ *
+ * Each trip is written as a line of car ID, origin cell ID, destination cell ID, then the trip as in
+ * the text form of the output of TripCellDriver, tab-separated.
+ *
+ * The open trips are checkpointed to a local file every few seconds, with the offset reached in the
+ * source file and the length of the output file; on start, they are read back, the output is cut back
+ * to that length and the source file is read on from that offset, so that a restart after a crash
+ * writes each trip once.  From a socket, the positions sent while down are lost.
+ *
+ * Usage: TripStreamer [generic options] tripBreakTime cellSize study-area.json source trips.txt checkpoint
+ *  source  path of a local file of vehicle positions, or host:port of a socket that sends them, such as
+ *          nc -lk port &lt; positions.csv
+ *
+ * Options
+ *  -D com.esri.trip.stream.follow=true   keep reading the file as it grows, as tail -f does
+ *  -D com.esri.trip.stream.lateness=S    seconds a position may arrive behind those of other cars (default 60)
+ *  -D com.esri.trip.stream.checkpoint=S  seconds between checkpoints (default 10)
+ */
+public class TripStreamer {
+
+	static final int CHECKPOINT_VERSION = 2;  // 2: 64-bit cell IDs
+	static final int IDLE_SCAN_SECONDS = 10;  // of stream time, between looks for trips ended by a lapse
+	static final int POLL_MILLIS = 200;       // wait for more data at the end of a followed file
+
+	public static void main(String[] init_args) throws Exception {
+		Configuration config = new Configuration();
+		String[] args = new GenericOptionsParser(config, init_args).getRemainingArgs();
+		if (args.length != 6) {
+			System.out.println("Invalid Arguments");
+			print_usage();
+			throw new IllegalArgumentException();
+		}
+
+		config.set("com.esri.trip.threshold", args[0]);
+		config.set("com.esri.trip.cellsize", args[1]);
+		config.set("com.esri.trip.input", args[2]);
+
+		TripStreamer streamer = new TripStreamer(config, CellIndexes.fromConfiguration(config),
+												 new File(args[4]), new File(args[5]));
+		try {
+			streamer.run(args[3]);
+		} finally {
+			streamer.close();
+		}
+		streamer.printSummary();
+	}
+
+	final CellIndex grid;
+	final PositionParser parser;
+	final int threshold;  // stop-time threshold in seconds
+	final int lateness;   // seconds
+	final long checkpointMillis;
+	final boolean follow;
+
+	final Map<Text, TripTracker> cars = new HashMap<Text, TripTracker>();
+	final File outputFile, checkpointFile;
+	FileOutputStream output;
+	long outputLength;
+	long sourceOffset;    // of the first byte not yet processed, in a source file
+	long streamTime = -1; // of the latest position of any car, in seconds since the epoch
+	long lastIdleScan = -1, lastCheckpoint;
+
+	// reused for every position and trip
+	final CarDateTimeKey key = new CarDateTimeKey();
+	final CarSortWritable position = new CarSortWritable();
+	final TripCellWritable trip = new TripCellWritable();
+	final double[] cellOrig = new double[4], cellDest = new double[4];
+
+	// counts, for the summary
+	long positions, skipped, outOfOrder, tripsWritten, tripsOffGrid;
+
+	public TripStreamer(Configuration config, CellIndex grid, File outputFile, File checkpointFile) throws IOException {
+		this.grid = grid;
+		this.parser = new PositionParser(grid);
+		this.threshold = config.getInt("com.esri.trip.threshold", 15) * 60;  // minutes -> seconds
+		this.lateness = config.getInt("com.esri.trip.stream.lateness", 60);
+		this.checkpointMillis = 1000L * config.getInt("com.esri.trip.stream.checkpoint", 10);
+		this.follow = config.getBoolean("com.esri.trip.stream.follow", false);
+		this.outputFile = outputFile;
+		this.checkpointFile = checkpointFile;
+
+		recover();
+		output = new FileOutputStream(outputFile, true);
+		lastCheckpoint = System.currentTimeMillis();
+	}
+
+	/**
+	 * Read and process the positions of the source until it ends, then end all open trips
+	 */
+	public void run(String source) throws IOException, InterruptedException {
+		InputStream in;
+		Socket socket = null;
+		boolean isFile = new File(source).isFile();
+		if (isFile) {
+			FileInputStream file = new FileInputStream(source);
+			file.getChannel().position(sourceOffset);
+			in = file;
+		} else {
+			int colon = source.lastIndexOf(':');
+			if (colon < 0) {
+				throw new IOException("Neither a file nor host:port: " + source);
+			}
+			socket = new Socket(source.substring(0, colon), Integer.parseInt(source.substring(colon + 1)));
+			socket.setSoTimeout(POLL_MILLIS);
+			in = new BufferedInputStream(socket.getInputStream());
+		}
+
+		try {
+			byte[] buffer = new byte[1 << 16];
+			byte[] line = new byte[256];
+			int lineLength = 0;
+			for (;;) {
+				int count;
+				try {
+					count = in.read(buffer);
+				} catch (SocketTimeoutException e) {
+					count = 0;  // nothing for now
+				}
+				if (count < 0) {
+					if (!(isFile && follow)) {
+						break;
+					}
+					Thread.sleep(POLL_MILLIS);
+					count = 0;
+				}
+
+				for (int i = 0; i < count; i++) {
+					if (buffer[i] == '\n') {
+						sourceOffset += lineLength + 1;
+						process(line, lineLength);
+						lineLength = 0;
+					} else {
+						if (lineLength == line.length) {
+							byte[] tmp = new byte[2 * line.length];
+							System.arraycopy(line, 0, tmp, 0, lineLength);
+							line = tmp;
+						}
+						line[lineLength++] = buffer[i];
+					}
+				}
+
+				if (System.currentTimeMillis() - lastCheckpoint >= checkpointMillis) {
+					checkpoint();
+				}
+			}
+			if (lineLength > 0) {  // last line, without newline
+				sourceOffset += lineLength;
+				process(line, lineLength);
+			}
+		} finally {
+			in.close();
+			if (socket != null) {
+				socket.close();
+			}
+		}
+
+		// the source ended, as the input of a batch job ends
+		for (Map.Entry<Text, TripTracker> car : cars.entrySet()) {
+			if (car.getValue().finish()) {
+				writeTrip(car.getKey(), car.getValue());
+			}
+		}
+		cars.clear();
+		checkpoint();
+	}
+
+	/**
+	 * Process one line of the vehicle CSV
+	 */
+	void process(byte[] line, int length) throws IOException {
+		if (length > 0 && line[length - 1] == '\r') {
+			length--;
+		}
+		if (parser.parse(line, 0, length, key, position) != null) {
+			skipped++;
+			return;
+		}
+		positions++;
+
+		TripTracker tracker = cars.get(key.getCar());
+		if (tracker == null) {
+			tracker = new TripTracker(threshold);
+			cars.put(new Text(key.getCar()), tracker);
+		}
+		long time = 86400L * CarDateTimeKey.dayNumber(position.getDate()) + position.getSeconds();
+		if (tracker.isOpen() && time < tracker.getLastTime()) {
+			outOfOrder++;  // the trip has moved on from it
+			return;
+		}
+		if (tracker.add(position)) {
+			writeTrip(key.getCar(), tracker);
+		}
+
+		if (time > streamTime) {
+			streamTime = time;
+			if (streamTime >= lastIdleScan + IDLE_SCAN_SECONDS) {
+				finishIdle(streamTime - lateness);
+				lastIdleScan = streamTime;
+			}
+		}
+	}
+
+	/**
+	 * Write the trips that no position to come can extend, and forget the cars that have no open trip
+	 */
+	private void finishIdle(long now) throws IOException {
+		for (Iterator<Map.Entry<Text, TripTracker>> it = cars.entrySet().iterator(); it.hasNext(); ) {
+			Map.Entry<Text, TripTracker> car = it.next();
+			if (car.getValue().finishIdle(now)) {
+				writeTrip(car.getKey(), car.getValue());
+			}
+			if (!car.getValue().isOpen()) {
+				it.remove();
+			}
+		}
+	}
+
+	private void writeTrip(Text car, TripTracker tracker) throws IOException {
+		if (!tracker.getTrip(grid, trip, cellOrig, cellDest)) {
+			tripsOffGrid++;
+			return;
+		}
+		String text = car + "\t" + trip.getCell1() + "\t" + trip.getCell2() + "\t" + trip + "\n";
+		byte[] bytes = text.getBytes("UTF-8");
+		output.write(bytes);  // unbuffered, so the trip is out at once
+		outputLength += bytes.length;
+		tripsWritten++;
+	}
+
+	/**
+	 * Write the open trips, the offset in the source and the length of the output to a new checkpoint file,
+	 * then put it in place of the last one
+	 */
+	void checkpoint() throws IOException {
+		output.getFD().sync();  // the trips written must last as long as the checkpoint that counts them
+
+		File tmp = new File(checkpointFile.getPath() + ".tmp");
+		FileOutputStream file = new FileOutputStream(tmp);
+		try {
+			DataOutputStream out = new DataOutputStream(new BufferedOutputStream(file));
+			out.writeInt(CHECKPOINT_VERSION);
+			out.writeLong(sourceOffset);
+			out.writeLong(outputLength);
+			out.writeLong(streamTime);
+			out.writeLong(lastIdleScan);
+			out.writeInt(cars.size());
+			for (Map.Entry<Text, TripTracker> car : cars.entrySet()) {
+				car.getKey().write(out);
+				car.getValue().write(out);
+			}
+			out.flush();
+			file.getFD().sync();
+		} finally {
+			file.close();
+		}
+		if (!tmp.renameTo(checkpointFile)) {  // not in place of an existing file on every platform
+			checkpointFile.delete();
+			if (!tmp.renameTo(checkpointFile)) {
+				throw new IOException("Cannot rename " + tmp + " to " + checkpointFile);
+			}
+		}
+		lastCheckpoint = System.currentTimeMillis();
+	}
+
+	/**
+	 * Read back the last checkpoint, if any, and cut the output back to the trips it counts
+	 */
+	private void recover() throws IOException {
+		if (!checkpointFile.exists()) {
+			if (outputFile.exists()) {
+				throw new IOException("Output exists without a checkpoint: " + outputFile);
+			}
+			return;
+		}
+
+		DataInputStream in = new DataInputStream(new BufferedInputStream(new FileInputStream(checkpointFile)));
+		try {
+			int version = in.readInt();
+			if (version != CHECKPOINT_VERSION) {
+				throw new IOException("Unsupported checkpoint version " + version + ": " + checkpointFile);
+			}
+			sourceOffset = in.readLong();
+			outputLength = in.readLong();
+			streamTime = in.readLong();
+			lastIdleScan = in.readLong();
+			for (int i = in.readInt(); i > 0; i--) {
+				Text car = new Text();
+				car.readFields(in);
+				TripTracker tracker = new TripTracker(threshold);
+				tracker.readFields(in);
+				cars.put(car, tracker);
+			}
+		} finally {
+			in.close();
+		}
+
+		RandomAccessFile trips = new RandomAccessFile(outputFile, "rw");
+		try {
+			if (trips.length() < outputLength) {
+				throw new IOException("Output shorter than at the checkpoint: " + outputFile);
+			}
+			trips.setLength(outputLength);  // trips written after the checkpoint are written again
+		} finally {
+			trips.close();
+		}
+	}
+
+	public void close() throws IOException {
+		output.close();
+	}
+
+	void printSummary() {
+		System.out.printf("Positions: %d, %d skipped as malformed, %d out of order%n", positions, skipped, outOfOrder);
+		System.out.printf("Trips: %d written, %d discarded off the grid%n", tripsWritten, tripsOffGrid);
+	}
+
+	static void print_usage()
+	{
+		System.out.println("***");
+		System.out.println("Usage: hadoop jar trip-discovery.jar com.esri.hadoop.examples.trip.TripStreamer -libjars [external jar references] tripBreakTime cellSize japan-country.json vehicle-positions.csv|host:port trips.txt checkpoint");
+		System.out.println("***");
+	}
+
+}
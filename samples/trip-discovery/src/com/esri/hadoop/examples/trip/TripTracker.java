@@ -0,0 +1,173 @@
+package com.esri.hadoop.examples.trip;
+
+import java.io.DataInput;
+import java.io.DataOutput;
+import java.io.IOException;
+
+/**
+ * The open trip of one car, fed with the positions of the car in time order.  A trip ends at the last
+ * position before a lapse of more than the threshold; the position after the lapse starts the next.
+ * A lone position, with no other before the lapse, makes no trip.
+ *
+ * The check for time lapse, without checking position movement, utilizes the fact that these GPS
+ * units transmit data only when the car is on - or at least do not transmit data when the key is
+ * altogether out of the ignition.
+ *
+ * Shared by TripCellReducer, which feeds it one car-day (or car) at a time, and TripStreamer, which
+ * keeps one per car for as long as the stream runs.
+ */
+class TripTracker {
+
+	final int threshold;  // stop-time threshold in seconds
+
+	// origin and last position of the open trip, and their times in seconds since the epoch
+	private CarSortWritable origin = new CarSortWritable(), previous = new CarSortWritable();
+	private long originTime = -1, previousTime = -1;
+	private boolean open;
+
+	// origin and destination of the trip ended by the last call to add, finish or finishIdle
+	private CarSortWritable tripOrigin = new CarSortWritable(), tripDestination = new CarSortWritable();
+
+	TripTracker(int threshold) {
+		this.threshold = threshold;
+	}
+
+	/**
+	 * Forget the open trip, if any, as before the positions of another car
+	 */
+	void reset() {
+		open = false;
+		originTime = previousTime = -1;
+	}
+
+	/**
+	 * @return whether a trip is open, with at least one position
+	 */
+	boolean isOpen() {
+		return open;
+	}
+
+	/**
+	 * @return time of the last position, in seconds since the epoch; -1 if none
+	 */
+	long getLastTime() {
+		return previousTime;
+	}
+
+	/**
+	 * Add the next position of the car
+	 *
+	 * @return whether the position ended a trip, to be had from getTrip
+	 */
+	boolean add(CarSortWritable position) {
+		long time = 86400L * CarDateTimeKey.dayNumber(position.getDate()) + position.getSeconds();
+		boolean ended = false;
+		if (!open) {  // first position
+			open = true;
+			originTime = time;
+			copy(position, origin);
+		} else if (previousTime > originTime   // ignore lone points
+				   && time > previousTime + threshold) {
+			endTrip();
+			ended = true;
+			originTime = time;
+			copy(position, origin);
+		}
+		previousTime = time;
+		copy(position, previous);
+		return ended;
+	}
+
+	/**
+	 * End the open trip, as after the last position of the car
+	 *
+	 * @return whether there was a trip, to be had from getTrip
+	 */
+	boolean finish() {
+		boolean ended = open && previousTime > originTime;  // no lone point
+		if (ended) {
+			endTrip();
+		}
+		reset();
+		return ended;
+	}
+
+	/**
+	 * End the open trip if no position can extend it any more, as of the given time: the same trip as
+	 * add would end with the next position, only without waiting for that position.
+	 *
+	 * @return whether a trip ended, to be had from getTrip
+	 */
+	boolean finishIdle(long now) {
+		if (open && previousTime > originTime && now > previousTime + threshold) {
+			endTrip();
+			reset();
+			return true;
+		}
+		return false;
+	}
+
+	private void endTrip() {
+		// hand the open trip over as is, and reuse the objects of the last trip for the next
+		CarSortWritable tmp = tripOrigin;
+		tripOrigin = origin;
+		origin = tmp;
+		tmp = tripDestination;
+		tripDestination = previous;
+		previous = tmp;
+	}
+
+	/**
+	 * Fill in the trip that was ended, with the bounds of its cells
+	 *
+	 * @return false if the origin or the destination is outside the grid, for the trip to be discarded
+	 */
+	boolean getTrip(CellIndex grid, TripCellWritable trip, double[] cellOrig, double[] cellDest) {
+		long idxOrig = tripOrigin.getCell(), idxDest = tripDestination.getCell();
+		if (idxOrig >= 0 && idxDest >= 0) {  // discard outliers
+			grid.getCell(idxOrig, 0, cellOrig);
+			grid.getCell(idxDest, 0, cellDest);
+			trip.set(tripOrigin.getDate(), CarDateTimeKey.timeOfDay(tripOrigin.getSeconds()),
+					 tripOrigin.getLon(), tripOrigin.getLat(), tripOrigin.getSpeed(),
+					 cellOrig[0], cellOrig[1], cellOrig[2], cellOrig[3],
+					 tripDestination.getDate(), CarDateTimeKey.timeOfDay(tripDestination.getSeconds()),
+					 tripDestination.getLon(), tripDestination.getLat(), tripDestination.getSpeed(),
+					 cellDest[0], cellDest[1], cellDest[2], cellDest[3]);
+			trip.setCells(idxOrig, idxDest);
+			return true;
+		}
+		return false;
+	}
+
+	private static void copy(CarSortWritable from, CarSortWritable to) {
+		to.set(from.getDate(), from.getSeconds(), from.getLon(), from.getLat(),
+			   from.getBearing(), from.getSpeed(), from.getRoad(), from.getCell());
+	}
+
+	/**
+	 * Write the open trip, for a checkpoint
+	 */
+	void write(DataOutput out) throws IOException {
+		out.writeBoolean(open);
+		if (open) {
+			out.writeLong(originTime);
+			out.writeLong(previousTime);
+			origin.write(out);
+			previous.write(out);
+		}
+	}
+
+	/**
+	 * Read back the open trip written by write
+	 */
+	void readFields(DataInput in) throws IOException {
+		reset();
+		if (in.readBoolean()) {
+			open = true;
+			originTime = in.readLong();
+			previousTime = in.readLong();
+			origin.readFields(in);
+			previous.readFields(in);
+		}
+	}
+}